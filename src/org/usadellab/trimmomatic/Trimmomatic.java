@@ -1,15 +1,21 @@
 package org.usadellab.trimmomatic;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
+import org.usadellab.trimmomatic.fastq.FastqParser;
+import org.usadellab.trimmomatic.fastq.FastqSerializer;
 import org.usadellab.trimmomatic.trim.Trimmer;
 import org.usadellab.trimmomatic.trim.TrimmerFactory;
+import org.usadellab.trimmomatic.util.AsyncFileOutputStream;
+import org.usadellab.trimmomatic.util.GzipIndex;
 import org.usadellab.trimmomatic.util.Logger;
 
 public class Trimmomatic
@@ -17,6 +23,237 @@ public class Trimmomatic
 	private static final int MAX_AUTO_THREADS_THRESHOLD=8;
 	private static final int MAX_AUTO_THREADS_ALLOC=4;
 
+	private boolean memoryMappedInput=false;
+	private boolean gzipDictionary=false;
+	private boolean verifyBzip2=true;
+	private boolean bgzfOutput=false;
+	private boolean splitInput=false;
+	private int asyncReadSize=0;
+	private int asyncReadsInFlight=0;
+	private int asyncWriteSize=0;
+	private boolean barePlus=false;
+	private boolean shortNames=false;
+	private boolean canonicalNames=false;
+	private boolean verifyGzipChecksums=true;
+	private boolean phredOffsetCache=true;
+	
+	private boolean followInput=false;
+	private File followSentinel=null;
+	private long followStableMillis=0;
+	
+	private long headReads=-1;
+	private double subsampleFraction=1;
+	private long subsampleSeed=0;
+	private long survivorTarget=0;
+	
+	protected Logger logger;
+	
+	protected Trimmomatic(Logger logger)
+	{
+		this.logger=logger;
+	}
+	
+	public void setMemoryMappedInput(boolean memoryMappedInput)
+	{
+		this.memoryMappedInput=memoryMappedInput;
+	}
+	
+	public void setGzipDictionary(boolean gzipDictionary)
+	{
+		this.gzipDictionary=gzipDictionary;
+	}
+	
+	public void setVerifyBzip2(boolean verifyBzip2)
+	{
+		this.verifyBzip2=verifyBzip2;
+	}
+	
+	public void setBgzfOutput(boolean bgzfOutput)
+	{
+		this.bgzfOutput=bgzfOutput;
+	}
+	
+	public void setSplitInput(boolean splitInput)
+	{
+		this.splitInput=splitInput;
+	}
+	
+	public void setVerifyGzipChecksums(boolean verifyGzipChecksums)
+	{
+		this.verifyGzipChecksums=verifyGzipChecksums;
+	}
+	
+	/**
+	 * Whether detected quality encodings are cached in ~/.trimmomatic between runs.
+	 */
+	
+	public void setPhredOffsetCache(boolean phredOffsetCache)
+	{
+		this.phredOffsetCache=phredOffsetCache;
+	}
+	
+	public void setAsyncRead(int asyncReadSize, int asyncReadsInFlight)
+	{
+		this.asyncReadSize=asyncReadSize;
+		this.asyncReadsInFlight=asyncReadsInFlight;
+	}
+	
+	public void setAsyncWrite(int asyncWriteSize)
+	{
+		this.asyncWriteSize=asyncWriteSize;
+	}
+	
+	/**
+	 * Slims the output records: a bare '+' line, names cut at the first whitespace, or only canonical names.
+	 */
+	
+	public void setOutputSlimming(boolean barePlus, boolean shortNames, boolean canonicalNames)
+	{
+		this.barePlus=barePlus;
+		this.shortNames=shortNames;
+		this.canonicalNames=canonicalNames;
+	}
+	
+	/**
+	 * Follows inputs which are still being written, until the sentinel file exists, or their size has not changed
+	 * for the stable period. Either condition can be left out, with a null sentinel or a period of 0.
+	 */
+	
+	public void setFollowInput(File sentinel, long stableMillis)
+	{
+		this.followInput=true;
+		this.followSentinel=sentinel;
+		this.followStableMillis=stableMillis;
+	}
+	
+	/**
+	 * Processes only the first reads (SE) or pairs (PE) of the input.
+	 */
+	
+	public void setHeadReads(long headReads)
+	{
+		this.headReads=headReads;
+	}
+	
+	/**
+	 * Processes a deterministic fraction of the reads or pairs, selected by hashing their number with the seed.
+	 */
+	
+	public void setSubsample(double subsampleFraction, long subsampleSeed)
+	{
+		this.subsampleFraction=subsampleFraction;
+		this.subsampleSeed=subsampleSeed;
+	}
+	
+	/**
+	 * Stops reading once this many reads (SE) or pairs (PE) have survived trimming.
+	 */
+	
+	public void setSurvivorTarget(long survivorTarget)
+	{
+		this.survivorTarget=survivorTarget;
+	}
+	
+	long getSurvivorTarget()
+	{
+		return survivorTarget;
+	}
+	
+	/**
+	 * Whether only part of the input is processed, which the record range parsers do not support.
+	 */
+	
+	boolean isPartialInput()
+	{
+		return headReads>=0 || subsampleFraction<1 || survivorTarget>0;
+	}
+	
+	boolean isFollowInput()
+	{
+		return followInput;
+	}
+	
+	boolean isMemoryMappedInput()
+	{
+		return memoryMappedInput;
+	}
+	
+	boolean isSplitInput()
+	{
+		return splitInput;
+	}
+	
+	/**
+	 * Returns the checkpoint index of a gzip input, if it has a current one, allowing it to be split like an uncompressed input.
+	 */
+	
+	static GzipIndex loadGzipIndex(File input) throws IOException
+	{
+		if(!FastqParser.isGzipped(input) || !input.isFile())
+			return null;
+		
+		return GzipIndex.loadFor(input);
+	}
+	
+	FastqParser createParser(int phredOffset, int threads)
+	{
+		return createParser(phredOffset, threads, 1);
+	}
+	
+	/**
+	 * Creates a parser for input holding 'readsPerTemplate' consecutive records per read or pair, which head,
+	 * subsample and the survivor target treat as one.
+	 */
+	
+	FastqParser createParser(int phredOffset, int threads, int readsPerTemplate)
+	{
+		FastqParser parser=new FastqParser(phredOffset);
+		parser.setLogger(logger);
+		parser.setPhredOffsetCache(phredOffsetCache);
+		parser.setMemoryMapped(memoryMappedInput);
+		parser.setDecompressionThreads(threads);
+		parser.setVerifyChecksums(verifyGzipChecksums);
+		
+		if(asyncReadSize>0)
+			parser.setAsyncRead(asyncReadSize, asyncReadsInFlight);
+		
+		if(followInput)
+			parser.setFollow(followSentinel, followStableMillis);
+		
+		if(headReads>=0)
+			parser.setMaxRecords(headReads*readsPerTemplate);
+		
+		if(subsampleFraction<1)
+			parser.setSubsample(subsampleFraction, subsampleSeed);
+		
+		parser.setRecordsPerTemplate(readsPerTemplate);
+		
+		return parser;
+	}
+	
+	FastqSerializer createSerializer(int threads)
+	{
+		FastqSerializer serializer=new FastqSerializer();
+		serializer.setCompressionThreads(threads);
+		serializer.setGzipDictionary(gzipDictionary);
+		serializer.setVerifyBzip2(verifyBzip2);
+		serializer.setBgzf(bgzfOutput);
+		serializer.setAsyncWrite(asyncWriteSize);
+		serializer.setBarePlus(barePlus);
+		serializer.setShortNames(shortNames);
+		serializer.setCanonicalNames(canonicalNames);
+		
+		return serializer;
+	}
+	
+	PrintStream createTrimLogStream(File trimLog) throws IOException
+	{
+		if(asyncWriteSize>0)
+			return new PrintStream(new AsyncFileOutputStream(trimLog, asyncWriteSize), false);
+		
+		return new PrintStream(trimLog);
+	}
+
 	static void showVersion()
 	{
 		try
@@ -50,6 +287,24 @@ public class Trimmomatic
 	}
 
 	
+	/**
+	 * Splits a comma-separated list of input files, such as the lanes of one read, which are then parsed back to back.
+	 */
+	
+	static File[] parseInputFiles(String arg)
+	{
+		if(new File(arg).exists())
+			return new File[] {new File(arg)};
+		
+		String names[]=arg.split(",");
+		File files[]=new File[names.length];
+		
+		for(int i=0;i<names.length;i++)
+			files[i]=new File(names[i]);
+		
+		return files;
+	}
+	
 	static Trimmer[] createTrimmers(Logger logger, Iterator<String> nonOptionArgsIter) throws IOException
 	{
 		TrimmerFactory fac = new TrimmerFactory(logger);
@@ -85,6 +340,11 @@ public class Trimmomatic
 				if(TrimmomaticSE.run(restOfArgs))
 					showUsage=false;
 				}
+			else if(mode.equals("INDEX"))
+				{
+				if(TrimmomaticIndex.run(restOfArgs))
+					showUsage=false;
+				}
 			else if(mode.equals("-version"))
 				{
 				showVersion();
@@ -95,11 +355,15 @@ public class Trimmomatic
 		if(showUsage)
 			{
 			System.err.println("Usage: ");
-			System.err.println("       PE [-version] [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] [-quiet] [-validatePairs] [-basein <inputBase> | <inputFile1> <inputFile2>] [-baseout <outputBase> | <outputFile1P> <outputFile1U> <outputFile2P> <outputFile2U>] <trimmer1>...");
+			System.err.println("       PE [-version] [-threads <threads>] [-phred33|-phred64] [-noPhredCache] [-trimlog <trimLogFile>] [-quiet] [-validatePairs] [-mmap] [-splitInput] [-asyncRead <blockMB>] [-readsInFlight <reads>] [-asyncWrite <bufferMB>] [-follow <stableSeconds>] [-followSentinel <sentinelFile>] [-head <reads>] [-subsample <fraction>] [-subsampleSeed <seed>] [-survivors <reads>] [-noGzipCrc] [-gzipDictionary] [-noBzip2Verify] [-bgzf] [-barePlus] [-shortNames] [-canonicalNames] [-interleaved] [-interleavedOut] [-discard1U] [-discard2U] [-basein <inputBase[,inputBase...]>... | <inputFile1[,inputFile1...]|-> <inputFile2[,inputFile2...]|-> | <interleavedInputFile[,interleavedInputFile...]|->] [-baseout <outputBase> | <outputFile1P|-> <outputFile1U|-> <outputFile2P|-> <outputFile2U|-> | <outputFileP|-> <outputFileU|->] <trimmer1>...");
+			System.err.println("   or: ");
+			System.err.println("       SE [-version] [-threads <threads>] [-phred33|-phred64] [-noPhredCache] [-trimlog <trimLogFile>] [-quiet] [-mmap] [-splitInput] [-asyncRead <blockMB>] [-readsInFlight <reads>] [-asyncWrite <bufferMB>] [-follow <stableSeconds>] [-followSentinel <sentinelFile>] [-head <reads>] [-subsample <fraction>] [-subsampleSeed <seed>] [-survivors <reads>] [-noGzipCrc] [-gzipDictionary] [-noBzip2Verify] [-bgzf] [-barePlus] [-shortNames] [-canonicalNames] <inputFile[,inputFile...]|-> <outputFile|-> <trimmer1>...");
 			System.err.println("   or: ");
-			System.err.println("       SE [-version] [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] [-quiet] <inputFile> <outputFile> <trimmer1>...");
+			System.err.println("       INDEX [-interval <records>] [-gzipSpacing <MB>] [-quiet] <inputFile>...");
 			System.err.println("   or: ");
 			System.err.println("       -version");						   
+			System.err.println();
+			System.err.println("   -noBzip2Verify writes .bz2 output blocks without decoding them again: about 30% less compression CPU, but the occasional corrupt block from jbzip2 goes undetected");
 			System.exit(1);
 			}
 	}
@@ -0,0 +1,109 @@
+package org.usadellab.trimmomatic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.usadellab.trimmomatic.fastq.FastqIndex;
+import org.usadellab.trimmomatic.fastq.FastqParser;
+import org.usadellab.trimmomatic.util.GzipIndex;
+import org.usadellab.trimmomatic.util.Logger;
+
+public class TrimmomaticIndex
+{
+	/**
+	 * Builds a record offset index (.fqi) next to each given uncompressed FASTQ file, which
+	 * PE -splitInput uses to parse record ranges of both files in parallel. A gzip file also gets
+	 * a checkpoint index (.gzx), which lets both SE and PE -splitInput decompress it in parallel.
+	 */
+
+	public static boolean run(String[] args) throws IOException
+	{
+		int argIndex = 0;
+		int interval = FastqIndex.DEFAULT_INTERVAL;
+		long gzipSpacing = GzipIndex.DEFAULT_SPACING;
+
+		boolean badOption = false;
+		boolean quiet = false;
+
+		List<String> nonOptionArgs=new ArrayList<String>();
+
+		while (argIndex < args.length)
+			{
+			String arg = args[argIndex++];
+
+			if(arg.startsWith("-"))
+				{
+				if (arg.equals("-interval"))
+					{
+					if (argIndex < args.length)
+						interval = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-gzipSpacing"))
+					{
+					if (argIndex < args.length)
+						gzipSpacing = Long.parseLong(args[argIndex++])*1024*1024;
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-quiet"))
+					quiet=true;
+				else
+					{
+					System.err.println("Unknown option " + arg);
+					badOption = true;
+					}
+				}
+			else
+				nonOptionArgs.add(arg);
+			}
+
+		if (nonOptionArgs.size() < 1 || badOption || interval < 1 || gzipSpacing < 1)
+			return false;
+
+		Logger logger=new Logger(true,true,!quiet);
+
+		for (String name : nonOptionArgs)
+			{
+			File input = new File(name);
+			File indexFile = FastqIndex.getIndexFile(input);
+
+			FastqIndex index;
+
+			if (FastqParser.isGzipped(input))
+				{
+				// Checkpoints are recorded while decompressing the data for the record index
+
+				File gzipIndexFile = GzipIndex.getIndexFile(input);
+
+				GzipIndex.Builder builder = new GzipIndex.Builder(input, gzipSpacing);
+				index = FastqIndex.build(input, builder, interval);
+
+				GzipIndex gzipIndex = builder.getIndex();
+				gzipIndex.save(gzipIndexFile);
+
+				logger.infoln("Indexed " + gzipIndex.getCheckpointCount() + " checkpoints of " + input + " into " + gzipIndexFile);
+				}
+			else
+				index = FastqIndex.build(input, interval);
+
+			index.save(indexFile);
+
+			logger.infoln("Indexed " + index.getRecordCount() + " records of " + input + " into " + indexFile);
+			}
+
+		return true;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if(!run(args))
+			{
+			System.err.println("Usage: TrimmomaticIndex [-interval <records>] [-gzipSpacing <MB>] [-quiet] <inputFile>...");
+			System.exit(1);
+			}
+	}
+}
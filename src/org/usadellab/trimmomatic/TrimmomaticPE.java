@@ -2,27 +2,37 @@ package org.usadellab.trimmomatic;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.usadellab.trimmomatic.fastq.FastqIndex;
 import org.usadellab.trimmomatic.fastq.FastqParser;
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 import org.usadellab.trimmomatic.fastq.FastqSerializer;
 import org.usadellab.trimmomatic.fastq.PairingValidator;
 import org.usadellab.trimmomatic.threading.BlockOfRecords;
 import org.usadellab.trimmomatic.threading.BlockOfWork;
+import org.usadellab.trimmomatic.threading.InterleavedParserWorker;
 import org.usadellab.trimmomatic.threading.ParserWorker;
 import org.usadellab.trimmomatic.threading.SerializerWorker;
+import org.usadellab.trimmomatic.threading.SplitPairParserWorker;
 import org.usadellab.trimmomatic.threading.TrimLogWorker;
 import org.usadellab.trimmomatic.threading.TrimStatsWorker;
 import org.usadellab.trimmomatic.trim.Trimmer;
 import org.usadellab.trimmomatic.trim.TrimmerFactory;
+import org.usadellab.trimmomatic.util.AsyncFileInputStream;
+import org.usadellab.trimmomatic.util.GzipIndex;
 import org.usadellab.trimmomatic.util.Logger;
 
 public class TrimmomaticPE extends Trimmomatic
@@ -41,11 +51,30 @@ public class TrimmomaticPE extends Trimmomatic
 	 * MINLEN:<LENGTH> Drop the read if less than specified length
 	 */
 
-	private Logger logger;
+	private boolean interleavedInput=false;
+	private boolean interleavedOutput=false;
 
 	public TrimmomaticPE(Logger logger)
 	{	
-		this.logger=logger;
+		super(logger);
+	}
+
+	/**
+	 * Reads both reads of each pair from a single file, with the forward record immediately followed by the reverse.
+	 */
+	
+	public void setInterleavedInput(boolean interleavedInput)
+	{
+		this.interleavedInput=interleavedInput;
+	}
+
+	/**
+	 * Writes surviving pairs to a single interleaved file, and the surviving unpaired reads to one combined file.
+	 */
+	
+	public void setInterleavedOutput(boolean interleavedOutput)
+	{
+		this.interleavedOutput=interleavedOutput;
 	}
 
 	public void processSingleThreaded(FastqParser parser1, FastqParser parser2, FastqSerializer serializer1P,
@@ -57,11 +86,18 @@ public class TrimmomaticPE extends Trimmomatic
 		FastqRecord originalRecs[] = new FastqRecord[2];
 		FastqRecord recs[] = new FastqRecord[2];
 
-		while (parser1.hasNext() && parser2.hasNext())
+		long survivorTarget = getSurvivorTarget();
+		long survivors = 0;
+
+		while (parser1.hasNext() && parser2.hasNext() && (survivorTarget <= 0 || survivors < survivorTarget))
 			{
 			originalRecs[0] = recs[0] = parser1.next();
 			originalRecs[1] = recs[1] = parser2.next();
 
+			// Only an interleaved input, where both parsers are the same, can run out mid-pair
+			if (recs[1] == null)
+				throw new RuntimeException("Interleaved input has an unpaired final record: " + originalRecs[0].getName());
+
 			if(pairingValidator!=null)
 				pairingValidator.validatePair(recs[0], recs[1]);
 			
@@ -84,6 +120,7 @@ public class TrimmomaticPE extends Trimmomatic
 				{
 				serializer1P.writeRecord(recs[0]);
 				serializer2P.writeRecord(recs[1]);
+				survivors++;
 				}
 			else if (recs[0] != null)
 				serializer1U.writeRecord(recs[0]);
@@ -125,34 +162,104 @@ public class TrimmomaticPE extends Trimmomatic
 		ArrayBlockingQueue<List<FastqRecord>> parser1Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
 		ArrayBlockingQueue<List<FastqRecord>> parser2Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
 
+		ParserWorker parserWorker1 = new ParserWorker(parser1, parser1Queue);
+		ParserWorker parserWorker2 = new ParserWorker(parser2, parser2Queue);
+
+		processMultiThreaded(new Runnable[] {parserWorker1, parserWorker2}, new FastqParser[] {parser1, parser2},
+				parser1Queue, parser2Queue,
+				getOutputSerializers(serializer1P, serializer1U, serializer2P, serializer2U), trimmers, trimLogStream,
+				pairingValidator, threads);
+
+		parser1.close();
+		parser2.close();
+	}
+
+	/**
+	 * Parses both reads of each pair from one interleaved input, using a single parser thread.
+	 */
+
+	public void processMultiThreadedInterleaved(FastqParser parser, FastqSerializer serializer1P,
+			FastqSerializer serializer1U, FastqSerializer serializer2P, FastqSerializer serializer2U,
+			Trimmer trimmers[], PrintStream trimLogStream, PairingValidator pairingValidator, int threads) throws IOException
+	{
+		ArrayBlockingQueue<List<FastqRecord>> parser1Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+		ArrayBlockingQueue<List<FastqRecord>> parser2Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+
+		InterleavedParserWorker parserWorker = new InterleavedParserWorker(parser, parser1Queue, parser2Queue);
+
+		processMultiThreaded(new Runnable[] {parserWorker}, new FastqParser[] {parser}, parser1Queue, parser2Queue,
+				getOutputSerializers(serializer1P, serializer1U, serializer2P, serializer2U), trimmers, trimLogStream,
+				pairingValidator, threads);
+
+		parser.close();
+	}
+
+	/**
+	 * Parses matching record ranges of both inputs concurrently, located via their .fqi indexes, and for
+	 * gzip inputs their checkpoint indexes, rather than with one ParserWorker per file.
+	 */
+
+	public void processMultiThreadedSplit(File input1, FastqIndex index1, GzipIndex gzipIndex1, File input2,
+			FastqIndex index2, GzipIndex gzipIndex2, int phredOffset, FastqSerializer serializer1P,
+			FastqSerializer serializer1U, FastqSerializer serializer2P, FastqSerializer serializer2U,
+			Trimmer trimmers[], PrintStream trimLogStream, PairingValidator pairingValidator, int threads)
+			throws IOException
+	{
+		ArrayBlockingQueue<List<FastqRecord>> parser1Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+		ArrayBlockingQueue<List<FastqRecord>> parser2Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+
+		SplitPairParserWorker parserWorker = new SplitPairParserWorker(input1, index1, gzipIndex1, input2, index2,
+				gzipIndex2, createParser(phredOffset, 1), threads, parser1Queue, parser2Queue);
+
+		processMultiThreaded(new Runnable[] {parserWorker}, new FastqParser[0], parser1Queue, parser2Queue,
+				getOutputSerializers(serializer1P, serializer1U, serializer2P, serializer2U), trimmers, trimLogStream,
+				pairingValidator, threads);
+	}
+
+	/**
+	 * Returns the serializers in the order of the trimmed record lists produced by BlockOfWork.
+	 */
+
+	private FastqSerializer[] getOutputSerializers(FastqSerializer serializer1P, FastqSerializer serializer1U,
+			FastqSerializer serializer2P, FastqSerializer serializer2U)
+	{
+		if (interleavedOutput)
+			return new FastqSerializer[] {serializer1P, serializer1U};
+
+		return new FastqSerializer[] {serializer1P, serializer1U, serializer2P, serializer2U};
+	}
+
+	/**
+	 * The given parsers, which feed the parser workers, are stopped early once the survivor target is reached.
+	 */
+
+	private void processMultiThreaded(Runnable parserWorkers[], FastqParser parsers[],
+			ArrayBlockingQueue<List<FastqRecord>> parser1Queue, ArrayBlockingQueue<List<FastqRecord>> parser2Queue,
+			FastqSerializer serializers[], Trimmer trimmers[], PrintStream trimLogStream,
+			PairingValidator pairingValidator, int threads) throws IOException
+	{
 		ArrayBlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<Runnable>(threads);
 
-		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue1P = new ArrayBlockingQueue<Future<BlockOfRecords>>(
-				threads);
-		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue1U = new ArrayBlockingQueue<Future<BlockOfRecords>>(
-				threads);
-		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue2P = new ArrayBlockingQueue<Future<BlockOfRecords>>(
-				threads);
-		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue2U = new ArrayBlockingQueue<Future<BlockOfRecords>>(
-				threads);
+		List<ArrayBlockingQueue<Future<BlockOfRecords>>> serializerQueues = new ArrayList<ArrayBlockingQueue<Future<BlockOfRecords>>>();
+		List<Thread> serializerThreads = new ArrayList<Thread>();
 
-		ParserWorker parserWorker1 = new ParserWorker(parser1, parser1Queue);
-		ParserWorker parserWorker2 = new ParserWorker(parser2, parser2Queue);
+		// Discarded outputs get no queue or thread, their records are only counted
 
-		Thread parser1Thread = new Thread(parserWorker1);
-		Thread parser2Thread = new Thread(parserWorker2);
+		for (int i = 0; i < serializers.length; i++)
+			{
+			if (serializers[i].isDiscarding())
+				continue;
 
-		ThreadPoolExecutor taskExec = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, taskQueue);
+			ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue = new ArrayBlockingQueue<Future<BlockOfRecords>>(threads);
+			serializerQueues.add(serializerQueue);
+			serializerThreads.add(new Thread(new SerializerWorker(serializers[i], serializerQueue, i)));
+			}
 
-		SerializerWorker serializerWorker1P = new SerializerWorker(serializer1P, serializerQueue1P, 0);
-		SerializerWorker serializerWorker1U = new SerializerWorker(serializer1U, serializerQueue1U, 1);
-		SerializerWorker serializerWorker2P = new SerializerWorker(serializer2P, serializerQueue2P, 2);
-		SerializerWorker serializerWorker2U = new SerializerWorker(serializer2U, serializerQueue2U, 3);
+		Thread parserThreads[] = new Thread[parserWorkers.length];
+		for (int i = 0; i < parserWorkers.length; i++)
+			parserThreads[i] = new Thread(parserWorkers[i]);
 
-		Thread serializer1PThread = new Thread(serializerWorker1P);
-		Thread serializer1UThread = new Thread(serializerWorker1U);
-		Thread serializer2PThread = new Thread(serializerWorker2P);
-		Thread serializer2UThread = new Thread(serializerWorker2U);
+		ThreadPoolExecutor taskExec = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, taskQueue);
 
 		ArrayBlockingQueue<Future<BlockOfRecords>> trimStatsQueue = new ArrayBlockingQueue<Future<BlockOfRecords>>(
 				threads * 5);
@@ -171,13 +278,11 @@ public class TrimmomaticPE extends Trimmomatic
 			trimLogThread.start();
 			}
 
-		parser1Thread.start();
-		parser2Thread.start();
+		for (Thread parserThread : parserThreads)
+			parserThread.start();
 
-		serializer1PThread.start();
-		serializer1UThread.start();
-		serializer2PThread.start();
-		serializer2UThread.start();
+		for (Thread serializerThread : serializerThreads)
+			serializerThread.start();
 
 		statsThread.start();
 
@@ -186,10 +291,18 @@ public class TrimmomaticPE extends Trimmomatic
 		List<FastqRecord> recs1 = null;
 		List<FastqRecord> recs2 = null;
 
+		long survivorTarget = getSurvivorTarget();
+		Future<BlockOfRecords> previousFuture = null;
+
 		try
 			{
 			while (!done1 || !done2)
 				{
+				if (survivorTarget > 0 && BlockOfWork.isSurvivorTargetReached(previousFuture, survivorTarget))
+					for (FastqParser parser : parsers)
+						parser.stop();
+
+
 				if (!done1)
 					{
 					recs1 = null;
@@ -213,17 +326,19 @@ public class TrimmomaticPE extends Trimmomatic
 					pairingValidator.validatePairs(recs1, recs2);
 				
 				BlockOfRecords bor = new BlockOfRecords(recs1, recs2);
-				BlockOfWork work = new BlockOfWork(logger, trimmers, bor, true, trimLogStream != null);
+				BlockOfWork work = new BlockOfWork(logger, trimmers, bor, true, trimLogStream != null, interleavedOutput);
+
+				if (survivorTarget > 0)
+					work.setSurvivorTarget(survivorTarget, previousFuture);
 
 				while (taskQueue.remainingCapacity() < 1)
 					Thread.sleep(100);
 
 				Future<BlockOfRecords> future = taskExec.submit(work);
+				previousFuture = future;
 
-				serializerQueue1P.put(future);
-				serializerQueue1U.put(future);
-				serializerQueue2P.put(future);
-				serializerQueue2U.put(future);
+				for (ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue : serializerQueues)
+					serializerQueue.put(future);
 
 				trimStatsQueue.put(future);
 
@@ -231,19 +346,14 @@ public class TrimmomaticPE extends Trimmomatic
 					trimLogQueue.put(future);
 				}
 			
-			parser1Thread.join();
-			parser2Thread.join();
-
-			parser1.close();
-			parser2.close();
+			for (Thread parserThread : parserThreads)
+				parserThread.join();
 
 			taskExec.shutdown();
 			taskExec.awaitTermination(1, TimeUnit.HOURS);
 
-			serializer1PThread.join();
-			serializer1UThread.join();
-			serializer2PThread.join();
-			serializer2UThread.join();
+			for (Thread serializerThread : serializerThreads)
+				serializerThread.join();
 
 			if (trimLogThread != null)
 				trimLogThread.join();
@@ -260,11 +370,29 @@ public class TrimmomaticPE extends Trimmomatic
 	public void process(File input1, File input2, File output1P, File output1U, File output2P, File output2U,
 			Trimmer trimmers[], int phredOffset, File trimLog, boolean validatePairing, int threads) throws IOException
 	{
-		FastqParser parser1 = new FastqParser(phredOffset);
-		parser1.parse(input1);
+		process(new File[] {input1}, input2 == null ? null : new File[] {input2}, output1P, output1U, output2P, output2U,
+				trimmers, phredOffset, trimLog, validatePairing, threads);
+	}
+
+	/**
+	 * Each mate may be given as several files, such as one per lane, which are parsed back to back.
+	 */
+
+	public void process(File inputs1[], File inputs2[], File output1P, File output1U, File output2P, File output2U,
+			Trimmer trimmers[], int phredOffset, File trimLog, boolean validatePairing, int threads) throws IOException
+	{
+		FastqParser parser1 = createParser(phredOffset, threads, interleavedInput ? 2 : 1);
+
+		// Reading the same parser twice yields the forward then the reverse record of each pair
 
-		FastqParser parser2 = new FastqParser(phredOffset);
-		parser2.parse(input2);
+		FastqParser parser2 = parser1;
+		if (interleavedInput)
+			parser1.parse(inputs1);
+		else
+			{
+			parser2 = createParser(phredOffset, threads);
+			parseConcurrently(parser1, inputs1, parser2, inputs2);
+			}
 
 		if(phredOffset==0)
 			{
@@ -276,6 +404,7 @@ public class TrimmomaticPE extends Trimmomatic
 				logger.infoln("Quality encoding detected as phred"+phred1);
 				parser1.setPhredOffset(phred1);
 				parser2.setPhredOffset(phred1);
+				phredOffset=phred1;
 				}
 			else
 				{
@@ -284,45 +413,144 @@ public class TrimmomaticPE extends Trimmomatic
 				}
 			}
 		
-		FastqSerializer serializer1P = new FastqSerializer();
+		FastqSerializer serializer1P = createSerializer(threads);
 		serializer1P.open(output1P);
 
-		FastqSerializer serializer1U = new FastqSerializer();
+		FastqSerializer serializer1U = createSerializer(threads);
 		serializer1U.open(output1U);
 
-		FastqSerializer serializer2P = new FastqSerializer();
-		serializer2P.open(output2P);
+		FastqSerializer serializer2P = serializer1P;
+		FastqSerializer serializer2U = serializer1U;
 
-		FastqSerializer serializer2U = new FastqSerializer();
-		serializer2U.open(output2U);
+		if (!interleavedOutput)
+			{
+			serializer2P = createSerializer(threads);
+			serializer2P.open(output2P);
+
+			serializer2U = createSerializer(threads);
+			serializer2U.open(output2U);
+			}
 
 		PrintStream trimLogStream = null;
 		if (trimLog != null)
-			// trimLogStream=new PrintStream(new BufferedOutputStream(new
-			// FileOutputStream(trimLog),1000000),false);
-			trimLogStream = new PrintStream(trimLog);
+			trimLogStream = createTrimLogStream(trimLog);
 
 		PairingValidator pairingValidator=null;
 		
 		if(validatePairing)
 			pairingValidator=new PairingValidator(logger);
 		
+		FastqIndex index1 = null, index2 = null;
+		GzipIndex gzipIndex1 = null, gzipIndex2 = null;
+
+		if (threads > 1 && isSplitInput())
+			{
+			if (!interleavedInput && !isFollowInput() && !isPartialInput() && inputs1.length == 1 && inputs2.length == 1)
+				{
+				if (!FastqParser.isSplittable(inputs1[0]))
+					gzipIndex1 = loadGzipIndex(inputs1[0]);
+				if (!FastqParser.isSplittable(inputs2[0]))
+					gzipIndex2 = loadGzipIndex(inputs2[0]);
+
+				if ((FastqParser.isSplittable(inputs1[0]) || gzipIndex1 != null)
+						&& (FastqParser.isSplittable(inputs2[0]) || gzipIndex2 != null))
+					{
+					index1 = FastqIndex.loadFor(inputs1[0]);
+					index2 = FastqIndex.loadFor(inputs2[0]);
+					}
+				}
+
+			if (index1 == null || index2 == null)
+				{
+				logger.warnln("Warning: -splitInput needs current .fqi indexes of a single uncompressed or .gzx indexed gzip input per read, parsing sequentially");
+				index1 = index2 = null;
+				}
+			}
+
 		if (threads == 1)
+			{
 			processSingleThreaded(parser1, parser2, serializer1P, serializer1U, serializer2P, serializer2U, trimmers,
 					trimLogStream, pairingValidator);
+
+			parser1.close();
+			if (parser2 != parser1)
+				parser2.close();
+			}
+		else if (index1 != null)
+			{
+			parser1.close();
+			parser2.close();
+
+			processMultiThreadedSplit(inputs1[0], index1, gzipIndex1, inputs2[0], index2, gzipIndex2, phredOffset,
+					serializer1P, serializer1U, serializer2P, serializer2U, trimmers, trimLogStream, pairingValidator,
+					threads);
+			}
+		else if (interleavedInput)
+			processMultiThreadedInterleaved(parser1, serializer1P, serializer1U, serializer2P, serializer2U, trimmers,
+					trimLogStream, pairingValidator, threads);
 		else
 			processMultiThreaded(parser1, parser2, serializer1P, serializer1U, serializer2P, serializer2U, trimmers,
 					trimLogStream, pairingValidator, threads);
 
 		serializer1P.close();
 		serializer1U.close();
-		serializer2P.close();
-		serializer2U.close();
+
+		if (!interleavedOutput)
+			{
+			serializer2P.close();
+			serializer2U.close();
+			}
 
 		if (trimLogStream != null)
 			trimLogStream.close();
 	}
 	
+	/**
+	 * Opens both inputs at once, so the first buffers of both are decompressed and sampled for quality
+	 * detection in parallel.
+	 */
+
+	private static void parseConcurrently(FastqParser parser1, File inputs1[], final FastqParser parser2,
+			final File inputs2[]) throws IOException
+	{
+		FutureTask<Void> parse2 = new FutureTask<Void>(new Callable<Void>()
+			{
+			@Override
+			public Void call() throws IOException
+			{
+				parser2.parse(inputs2);
+				return null;
+			}
+			});
+
+		Thread thread = new Thread(parse2, "Input opener");
+		thread.setDaemon(true);
+		thread.start();
+
+		parser1.parse(inputs1);
+
+		try
+			{
+			parse2.get();
+			}
+		catch (InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted opening " + inputs2[0]);
+			}
+		catch (ExecutionException e)
+			{
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+
+			throw new IOException(cause);
+			}
+	}
+
 	private static int getFileExtensionIndex(String str)
 	{
 		String extensions[]={".fq",".fastq",".txt",".gz",".bz2",".zip"};
@@ -398,6 +626,21 @@ public class TrimmomaticPE extends Trimmomatic
 	}
 
 	
+	private static File[] calculateTemplatedInterleavedOutput(String baseStr)
+	{
+		File fileBase=new File(baseStr);
+		File baseDir=fileBase.getParentFile();
+		
+		String baseName=fileBase.getName();
+		int extSplit=getFileExtensionIndex(baseName);
+		
+		String core=baseName.substring(0,extSplit);
+		String exts=baseName.substring(extSplit);
+		
+		return new File[] {new File(baseDir,core+"_P"+exts),new File(baseDir,core+"_U"+exts),null,null};		
+	}
+
+	
 
 	public static boolean run(String[] args) throws IOException
 	{
@@ -405,13 +648,36 @@ public class TrimmomaticPE extends Trimmomatic
 		int phredOffset = 0;
 		int threads = 0;
 
-		String templateInput=null;
+		List<String> templateInputs=new ArrayList<String>();
 		String templateOutput=null;
 		
 		boolean badOption = false;
 		boolean validatePairs = false;
 		boolean quiet=false;
 		boolean showVersion=false;
+		boolean memoryMapped=false;
+		boolean gzipDictionary=false;
+		boolean verifyBzip2=true;
+		boolean phredOffsetCache=true;
+		boolean verifyGzipChecksums=true;
+		boolean bgzf=false;
+		boolean barePlus=false;
+		boolean shortNames=false;
+		boolean canonicalNames=false;
+		boolean splitInput=false;
+		int asyncReadMB=0;
+		int readsInFlight=AsyncFileInputStream.DEFAULT_READS_IN_FLIGHT;
+		int asyncWriteMB=0;
+		int followSeconds=0;
+		long headReads=-1;
+		double subsampleFraction=1;
+		long subsampleSeed=0;
+		long survivorTarget=0;
+		File followSentinel=null;
+		boolean interleavedInput=false;
+		boolean interleavedOutput=false;
+		boolean discard1U=false;
+		boolean discard2U=false;
 		
 		File trimLog = null;
 
@@ -421,7 +687,7 @@ public class TrimmomaticPE extends Trimmomatic
 			{
 			String arg = args[argIndex++];
 			
-			if(arg.startsWith("-"))
+			if(arg.startsWith("-") && arg.length()>1)
 				{			
 				if (arg.equals("-phred33"))
 					phredOffset = 33;
@@ -439,7 +705,7 @@ public class TrimmomaticPE extends Trimmomatic
 				else if (arg.equals("-basein"))
 					{
 					if (argIndex < args.length)
-						templateInput = args[argIndex++];  
+						templateInputs.addAll(Arrays.asList(args[argIndex++].split(",")));
 					else
 						badOption = true;
 					}
@@ -454,6 +720,97 @@ public class TrimmomaticPE extends Trimmomatic
 					validatePairs=true;
 				else if (arg.equals("-quiet"))
 					quiet=true;
+				else if (arg.equals("-mmap"))
+					memoryMapped=true;
+				else if (arg.equals("-splitInput"))
+					splitInput=true;
+				else if (arg.equals("-asyncRead"))
+					{
+					if (argIndex < args.length)
+						asyncReadMB = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-readsInFlight"))
+					{
+					if (argIndex < args.length)
+						readsInFlight = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-asyncWrite"))
+					{
+					if (argIndex < args.length)
+						asyncWriteMB = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-follow"))
+					{
+					if (argIndex < args.length)
+						followSeconds = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-head"))
+					{
+					if (argIndex < args.length)
+						headReads = Long.parseLong(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-subsample"))
+					{
+					if (argIndex < args.length)
+						subsampleFraction = Double.parseDouble(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-subsampleSeed"))
+					{
+					if (argIndex < args.length)
+						subsampleSeed = Long.parseLong(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-survivors"))
+					{
+					if (argIndex < args.length)
+						survivorTarget = Long.parseLong(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-followSentinel"))
+					{
+					if (argIndex < args.length)
+						followSentinel = new File(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-noGzipCrc"))
+					verifyGzipChecksums=false;
+				else if (arg.equals("-gzipDictionary"))
+					gzipDictionary=true;
+				else if (arg.equals("-noBzip2Verify"))
+					verifyBzip2=false;
+				else if (arg.equals("-noPhredCache"))
+					phredOffsetCache=false;
+				else if (arg.equals("-bgzf"))
+					bgzf=true;
+				else if (arg.equals("-barePlus"))
+					barePlus=true;
+				else if (arg.equals("-shortNames"))
+					shortNames=true;
+				else if (arg.equals("-canonicalNames"))
+					canonicalNames=true;
+				else if (arg.equals("-interleaved"))
+					interleavedInput=true;
+				else if (arg.equals("-interleavedOut"))
+					interleavedOutput=true;
+				else if (arg.equals("-discard1U"))
+					discard1U=true;
+				else if (arg.equals("-discard2U"))
+					discard2U=true;
 				else if (arg.equals("-version"))
 					showVersion=true; 
 				else
@@ -470,11 +827,32 @@ public class TrimmomaticPE extends Trimmomatic
 			Trimmomatic.showVersion();
 		
 		
-		int additionalArgs=1+(templateInput==null?2:0)+(templateOutput==null?4:0);
+		if(interleavedInput && !templateInputs.isEmpty())
+			{
+			System.err.println("-interleaved reads a single input, and cannot be combined with -basein");
+			badOption = true;
+			}
+		
+		if(interleavedOutput && discard2U)
+			{
+			System.err.println("-interleavedOut writes both unpaired mates to one file, which only -discard1U can discard");
+			badOption = true;
+			}
+		
+		int inputArgs=interleavedInput?1:2;
+		int outputArgs=interleavedOutput?2:4;
+		
+		int additionalArgs=1+(templateInputs.isEmpty()?inputArgs:0)+(templateOutput==null?outputArgs:0);
 		
 		if ((nonOptionArgs.size() < additionalArgs) || badOption)
 			return showVersion;
 		
+		if(subsampleFraction<=0 || subsampleFraction>1)
+			{
+			System.err.println("Subsample fraction must be greater than 0 and at most 1");
+			return false;
+			}
+		
 		Logger logger=new Logger(true,true,!quiet);
 		
 		
@@ -493,32 +871,48 @@ public class TrimmomaticPE extends Trimmomatic
 		
 		Iterator<String> nonOptionArgsIter=nonOptionArgs.iterator();
 
-		File inputs[],outputs[];
+		File inputs1[],inputs2[]=null,outputs[];
 		
-		if(templateInput!=null)
+		if(!templateInputs.isEmpty())
 			{
-			inputs=calculateTemplatedInput(templateInput);
-			if(inputs==null)
+			inputs1=new File[templateInputs.size()];
+			inputs2=new File[templateInputs.size()];
+			
+			for(int i=0;i<templateInputs.size();i++)
 				{
-				logger.errorln("Unable to determine input files from: "+templateInput);
-				System.exit(1);
+				String templateInput=templateInputs.get(i);
+				
+				File inputs[]=calculateTemplatedInput(templateInput);
+				if(inputs==null)
+					{
+					logger.errorln("Unable to determine input files from: "+templateInput);
+					System.exit(1);
+					}
+				
+				logger.infoln("Using templated Input files: "+inputs[0]+" "+inputs[1]);
+				
+				inputs1[i]=inputs[0];
+				inputs2[i]=inputs[1];
 				}
-			
-			logger.infoln("Using templated Input files: "+inputs[0]+" "+inputs[1]);
 			}
 		else
 			{
-			inputs=new File[2];
-			inputs[0]=new File(nonOptionArgsIter.next());
-			inputs[1]=new File(nonOptionArgsIter.next());
+			inputs1=parseInputFiles(nonOptionArgsIter.next());
+			if(!interleavedInput)
+				inputs2=parseInputFiles(nonOptionArgsIter.next());
 			}
 		
-		if(templateOutput!=null)
+		if(templateOutput!=null && interleavedOutput)
+			{
+			outputs=calculateTemplatedInterleavedOutput(templateOutput);
+			logger.infoln("Using templated Output files: "+outputs[0]+" "+outputs[1]);
+			}
+		else if(templateOutput!=null)
 			{
 			outputs=calculateTemplatedOutput(templateOutput);
 			if(outputs==null)
 				{
-				System.err.println("Unable to determine output files from: "+templateInput);
+				System.err.println("Unable to determine output files from: "+templateOutput);
 				System.exit(1);
 				}
 			
@@ -529,14 +923,70 @@ public class TrimmomaticPE extends Trimmomatic
 			outputs=new File[4];
 			outputs[0]=new File(nonOptionArgsIter.next());
 			outputs[1]=new File(nonOptionArgsIter.next());
-			outputs[2]=new File(nonOptionArgsIter.next());
-			outputs[3]=new File(nonOptionArgsIter.next());
+			if(!interleavedOutput)
+				{
+				outputs[2]=new File(nonOptionArgsIter.next());
+				outputs[3]=new File(nonOptionArgsIter.next());
+				}
 			}
 
+		// The unpaired output arguments are still given, but their files are not written
+		
+		if(discard1U)
+			outputs[1]=FastqSerializer.DISCARD;
+		if(discard2U)
+			outputs[3]=FastqSerializer.DISCARD;
+		
+		int standardInputs=0;
+		for(File input: inputs1)
+			if(FastqParser.isStandardInput(input))
+				standardInputs++;
+		
+		if(inputs2!=null)
+			for(File input: inputs2)
+				if(FastqParser.isStandardInput(input))
+					standardInputs++;
+		
+		if(standardInputs>1)
+			{
+			logger.errorln("Only one input can be read from standard input");
+			return false;
+			}
+		
+		int standardOutputs=0;
+		for(File output: outputs)
+			if(output!=null && FastqSerializer.isStandardOutput(output))
+				standardOutputs++;
+		
+		if(standardOutputs>1)
+			{
+			logger.errorln("Only one output can be written to standard output");
+			return false;
+			}
+		
 		Trimmer trimmers[]=createTrimmers(logger, nonOptionArgsIter);
 				
 		TrimmomaticPE tm = new TrimmomaticPE(logger);
-		tm.process(inputs[0], inputs[1], outputs[0], outputs[1], outputs[2], outputs[3], trimmers, phredOffset, trimLog, validatePairs, threads);
+		tm.setMemoryMappedInput(memoryMapped);
+		tm.setVerifyGzipChecksums(verifyGzipChecksums);
+		tm.setGzipDictionary(gzipDictionary);
+		tm.setVerifyBzip2(verifyBzip2);
+		tm.setPhredOffsetCache(phredOffsetCache);
+		tm.setBgzfOutput(bgzf);
+		tm.setOutputSlimming(barePlus, shortNames, canonicalNames);
+		tm.setSplitInput(splitInput);
+		if(asyncReadMB>0)
+			tm.setAsyncRead(asyncReadMB*1024*1024, readsInFlight);
+		if(asyncWriteMB>0)
+			tm.setAsyncWrite(asyncWriteMB*1024*1024);
+		if(followSeconds>0 || followSentinel!=null)
+			tm.setFollowInput(followSentinel, followSeconds*1000L);
+		tm.setHeadReads(headReads);
+		tm.setSubsample(subsampleFraction, subsampleSeed);
+		tm.setSurvivorTarget(survivorTarget);
+		tm.setInterleavedInput(interleavedInput);
+		tm.setInterleavedOutput(interleavedOutput);
+		tm.process(inputs1, inputs2, outputs[0], outputs[1], outputs[2], outputs[3], trimmers, phredOffset, trimLog, validatePairs, threads);
 
 		logger.infoln("TrimmomaticPE: Completed successfully");
 		return true;
@@ -547,7 +997,8 @@ public class TrimmomaticPE extends Trimmomatic
 		if (!run(args))
 			{
 			System.err
-					.println("Usage: TrimmomaticPE [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] [-quiet] [-validatePairs] [-basein <inputBase> | <inputFile1> <inputFile2>] [-baseout <outputBase> | <outputFile1P> <outputFile1U> <outputFile2P> <outputFile2U>] <trimmer1>...");
+					.println("Usage: TrimmomaticPE [-threads <threads>] [-phred33|-phred64] [-noPhredCache] [-trimlog <trimLogFile>] [-quiet] [-validatePairs] [-mmap] [-splitInput] [-asyncRead <blockMB>] [-readsInFlight <reads>] [-asyncWrite <bufferMB>] [-follow <stableSeconds>] [-followSentinel <sentinelFile>] [-head <reads>] [-subsample <fraction>] [-subsampleSeed <seed>] [-survivors <reads>] [-noGzipCrc] [-gzipDictionary] [-noBzip2Verify] [-bgzf] [-barePlus] [-shortNames] [-canonicalNames] [-interleaved] [-interleavedOut] [-discard1U] [-discard2U] [-basein <inputBase[,inputBase...]>... | <inputFile1[,inputFile1...]|-> <inputFile2[,inputFile2...]|-> | <interleavedInputFile[,interleavedInputFile...]|->] [-baseout <outputBase> | <outputFile1P|-> <outputFile1U|-> <outputFile2P|-> <outputFile2U|-> | <outputFileP|-> <outputFileU|->] <trimmer1>...");
+			System.err.println("   -noBzip2Verify writes .bz2 output blocks without decoding them again: about 30% less compression CPU, but the occasional corrupt block from jbzip2 goes undetected");
 			System.exit(1);
 			}
 	}
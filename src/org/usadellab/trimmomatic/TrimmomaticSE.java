@@ -18,10 +18,13 @@ import org.usadellab.trimmomatic.threading.BlockOfRecords;
 import org.usadellab.trimmomatic.threading.BlockOfWork;
 import org.usadellab.trimmomatic.threading.ParserWorker;
 import org.usadellab.trimmomatic.threading.SerializerWorker;
+import org.usadellab.trimmomatic.threading.SplitParserWorker;
 import org.usadellab.trimmomatic.threading.TrimLogWorker;
 import org.usadellab.trimmomatic.threading.TrimStatsWorker;
 import org.usadellab.trimmomatic.trim.Trimmer;
 import org.usadellab.trimmomatic.trim.TrimmerFactory;
+import org.usadellab.trimmomatic.util.AsyncFileInputStream;
+import org.usadellab.trimmomatic.util.GzipIndex;
 import org.usadellab.trimmomatic.util.Logger;
 
 public class TrimmomaticSE extends Trimmomatic
@@ -40,11 +43,9 @@ public class TrimmomaticSE extends Trimmomatic
 	 * MINLEN:<LENGTH> Drop the read if less than specified length
 	 */
 
-	private Logger logger;
-
 	public TrimmomaticSE(Logger logger)
 	{
-		this.logger=logger;
+		super(logger);
 	}
 
 	public void processSingleThreaded(FastqParser parser, FastqSerializer serializer, Trimmer trimmers[],
@@ -55,7 +56,10 @@ public class TrimmomaticSE extends Trimmomatic
 		FastqRecord recs[] = new FastqRecord[1];
 		FastqRecord originalRecs[] = new FastqRecord[1];
 
-		while (parser.hasNext())
+		long survivorTarget = getSurvivorTarget();
+		long survivors = 0;
+
+		while (parser.hasNext() && (survivorTarget <= 0 || survivors < survivorTarget))
 			{
 			originalRecs[0] = recs[0] = parser.next();
 
@@ -75,6 +79,7 @@ public class TrimmomaticSE extends Trimmomatic
 			if (recs[0] != null)
 				{
 				serializer.writeRecord(recs[0]);
+				survivors++;
 				}
 
 			stats.logPair(originalRecs, recs);
@@ -109,15 +114,50 @@ public class TrimmomaticSE extends Trimmomatic
 			PrintStream trimLogStream, int threads) throws IOException
 	{
 		ArrayBlockingQueue<List<FastqRecord>> parserQueue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
-		ArrayBlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<Runnable>(threads * 2);
-		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue = new ArrayBlockingQueue<Future<BlockOfRecords>>(
-				threads * 5);
-
 		ParserWorker parserWorker = new ParserWorker(parser, parserQueue);
+
+		processMultiThreaded(parserWorker, parser, parserQueue, serializer, trimmers, trimLogStream, threads);
+		parser.close();
+	}
+
+	/**
+	 * Parses byte ranges of an uncompressed input concurrently, rather than with a single ParserWorker. A gzip
+	 * input needs its checkpoint index.
+	 */
+	
+	public void processMultiThreadedSplit(File input, GzipIndex gzipIndex, int phredOffset, FastqSerializer serializer,
+			Trimmer trimmers[], PrintStream trimLogStream, int threads) throws IOException
+	{
+		ArrayBlockingQueue<List<FastqRecord>> parserQueue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+		SplitParserWorker parserWorker = new SplitParserWorker(input, gzipIndex, createParser(phredOffset, 1), threads,
+				parserQueue);
+
+		processMultiThreaded(parserWorker, null, parserQueue, serializer, trimmers, trimLogStream, threads);
+	}
+
+	/**
+	 * The parser, if given, is stopped early once the survivor target is reached.
+	 */
+
+	private void processMultiThreaded(Runnable parserWorker, FastqParser parser,
+			ArrayBlockingQueue<List<FastqRecord>> parserQueue, FastqSerializer serializer, Trimmer trimmers[],
+			PrintStream trimLogStream, int threads) throws IOException
+	{
+		ArrayBlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<Runnable>(threads * 2);
 		Thread parserThread = new Thread(parserWorker);
 		ThreadPoolExecutor taskExec = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, taskQueue);
-		SerializerWorker serializerWorker = new SerializerWorker(serializer, serializerQueue, 0);
-		Thread serializerThread = new Thread(serializerWorker);
+
+		// Discarded output needs no serializer at all, only the stats
+
+		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue = null;
+		Thread serializerThread = null;
+
+		if (!serializer.isDiscarding())
+			{
+			serializerQueue = new ArrayBlockingQueue<Future<BlockOfRecords>>(threads * 5);
+			serializerThread = new Thread(new SerializerWorker(serializer, serializerQueue, 0));
+			serializerThread.start();
+			}
 
 		ArrayBlockingQueue<Future<BlockOfRecords>> trimStatsQueue = new ArrayBlockingQueue<Future<BlockOfRecords>>(
 				threads * 5);
@@ -137,17 +177,22 @@ public class TrimmomaticSE extends Trimmomatic
 			}
 
 		parserThread.start();
-		serializerThread.start();
 		statsThread.start();
 
 		boolean done = false;
 
 		List<FastqRecord> recs1 = null;
 
+		long survivorTarget = getSurvivorTarget();
+		Future<BlockOfRecords> previousFuture = null;
+
 		try
 			{
 			while (!done)
 				{
+				if (parser != null && survivorTarget > 0 && BlockOfWork.isSurvivorTargetReached(previousFuture, survivorTarget))
+					parser.stop();
+
 				recs1 = null;
 				while (recs1 == null)
 					recs1 = parserQueue.poll(1, TimeUnit.SECONDS);
@@ -158,12 +203,17 @@ public class TrimmomaticSE extends Trimmomatic
 				BlockOfRecords bor = new BlockOfRecords(recs1, null);
 				BlockOfWork work = new BlockOfWork(logger, trimmers, bor, false, trimLogStream != null);
 
+				if (survivorTarget > 0)
+					work.setSurvivorTarget(survivorTarget, previousFuture);
+
 				while (taskQueue.remainingCapacity() < 1)
 					Thread.sleep(100);
 
 				Future<BlockOfRecords> future = taskExec.submit(work);
+				previousFuture = future;
 
-				serializerQueue.put(future);
+				if (serializerQueue != null)
+					serializerQueue.put(future);
 				trimStatsQueue.put(future);
 
 				if (trimLogQueue != null)
@@ -171,12 +221,12 @@ public class TrimmomaticSE extends Trimmomatic
 				}
 
 			parserThread.join();
-			parser.close();
 
 			taskExec.shutdown();
 			taskExec.awaitTermination(1, TimeUnit.HOURS);
 
-			serializerThread.join();
+			if (serializerThread != null)
+				serializerThread.join();
 			if (trimLogThread != null)
 				trimLogThread.join();
 
@@ -194,8 +244,14 @@ public class TrimmomaticSE extends Trimmomatic
 	public void process(File input, File output, Trimmer trimmers[], int phredOffset, File trimLog, int threads)
 			throws IOException
 	{
-		FastqParser parser = new FastqParser(phredOffset);
-		parser.parse(input);
+		process(new File[] {input}, output, trimmers, phredOffset, trimLog, threads);
+	}
+
+	public void process(File inputs[], File output, Trimmer trimmers[], int phredOffset, File trimLog, int threads)
+			throws IOException
+	{
+		FastqParser parser = createParser(phredOffset, threads);
+		parser.parse(inputs);
 
 		if(phredOffset==0)
 			{
@@ -204,6 +260,7 @@ public class TrimmomaticSE extends Trimmomatic
 				{
 				logger.infoln("Quality encoding detected as phred"+phred);
 				parser.setPhredOffset(phred);
+				phredOffset=phred;
 				}
 			else
 				{
@@ -212,15 +269,28 @@ public class TrimmomaticSE extends Trimmomatic
 				}
 			}
 		
-		FastqSerializer serializer = new FastqSerializer();
+		FastqSerializer serializer = createSerializer(threads);
 		serializer.open(output);
 
 		PrintStream trimLogStream = null;
 		if (trimLog != null)
-			trimLogStream = new PrintStream(trimLog);
+			trimLogStream = createTrimLogStream(trimLog);
+
+		GzipIndex gzipIndex = null;
+		if (threads > 1 && isSplitInput() && !FastqParser.isSplittable(inputs[0]))
+			gzipIndex = loadGzipIndex(inputs[0]);
 
 		if (threads == 1)
+			{
 			processSingleThreaded(parser, serializer, trimmers, trimLogStream);
+			parser.close();
+			}
+		else if (isSplitInput() && !isFollowInput() && !isPartialInput() && inputs.length == 1
+				&& (FastqParser.isSplittable(inputs[0]) || gzipIndex != null))
+			{
+			parser.close();
+			processMultiThreadedSplit(inputs[0], gzipIndex, phredOffset, serializer, trimmers, trimLogStream, threads);
+			}
 		else
 			processMultiThreaded(parser, serializer, trimmers, trimLogStream, threads);
 
@@ -241,6 +311,25 @@ public class TrimmomaticSE extends Trimmomatic
 		File trimLog = null;
 		boolean quiet=false;
 		boolean showVersion=false;		
+		boolean memoryMapped=false;
+		boolean gzipDictionary=false;
+		boolean verifyBzip2=true;
+		boolean phredOffsetCache=true;
+		boolean verifyGzipChecksums=true;
+		boolean bgzf=false;
+		boolean barePlus=false;
+		boolean shortNames=false;
+		boolean canonicalNames=false;
+		boolean splitInput=false;
+		int asyncReadMB=0;
+		int readsInFlight=AsyncFileInputStream.DEFAULT_READS_IN_FLIGHT;
+		int asyncWriteMB=0;
+		int followSeconds=0;
+		long headReads=-1;
+		double subsampleFraction=1;
+		long subsampleSeed=0;
+		long survivorTarget=0;
+		File followSentinel=null;
 
 		List<String> nonOptionArgs=new ArrayList<String>();
 		
@@ -248,7 +337,7 @@ public class TrimmomaticSE extends Trimmomatic
 			{
 			String arg = args[argIndex++];
 			
-			if(arg.startsWith("-"))
+			if(arg.startsWith("-") && arg.length()>1)
 				{			
 				if (arg.equals("-phred33"))
 					phredOffset = 33;
@@ -265,6 +354,89 @@ public class TrimmomaticSE extends Trimmomatic
 					}
 				else if (arg.equals("-quiet"))
 					quiet=true;
+				else if (arg.equals("-mmap"))
+					memoryMapped=true;
+				else if (arg.equals("-splitInput"))
+					splitInput=true;
+				else if (arg.equals("-asyncRead"))
+					{
+					if (argIndex < args.length)
+						asyncReadMB = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-readsInFlight"))
+					{
+					if (argIndex < args.length)
+						readsInFlight = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-asyncWrite"))
+					{
+					if (argIndex < args.length)
+						asyncWriteMB = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-follow"))
+					{
+					if (argIndex < args.length)
+						followSeconds = Integer.parseInt(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-head"))
+					{
+					if (argIndex < args.length)
+						headReads = Long.parseLong(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-subsample"))
+					{
+					if (argIndex < args.length)
+						subsampleFraction = Double.parseDouble(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-subsampleSeed"))
+					{
+					if (argIndex < args.length)
+						subsampleSeed = Long.parseLong(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-survivors"))
+					{
+					if (argIndex < args.length)
+						survivorTarget = Long.parseLong(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-followSentinel"))
+					{
+					if (argIndex < args.length)
+						followSentinel = new File(args[argIndex++]);
+					else
+						badOption = true;
+					}
+				else if (arg.equals("-noGzipCrc"))
+					verifyGzipChecksums=false;
+				else if (arg.equals("-gzipDictionary"))
+					gzipDictionary=true;
+				else if (arg.equals("-noBzip2Verify"))
+					verifyBzip2=false;
+				else if (arg.equals("-noPhredCache"))
+					phredOffsetCache=false;
+				else if (arg.equals("-bgzf"))
+					bgzf=true;
+				else if (arg.equals("-barePlus"))
+					barePlus=true;
+				else if (arg.equals("-shortNames"))
+					shortNames=true;
+				else if (arg.equals("-canonicalNames"))
+					canonicalNames=true;
 				else if (arg.equals("-version"))
 					showVersion=true; 
 				else
@@ -283,6 +455,12 @@ public class TrimmomaticSE extends Trimmomatic
 		if ((nonOptionArgs.size() < 3) || badOption)
 			return showVersion;
 
+		if(subsampleFraction<=0 || subsampleFraction>1)
+			{
+			System.err.println("Subsample fraction must be greater than 0 and at most 1");
+			return false;
+			}
+		
 		Logger logger=new Logger(true,true,!quiet);
 		
 		logger.infoln("TrimmomaticSE: Started with arguments:");
@@ -298,13 +476,30 @@ public class TrimmomaticSE extends Trimmomatic
 		
 		Iterator<String> nonOptionArgsIter=nonOptionArgs.iterator();
 		
-		File input = new File(nonOptionArgsIter.next());
+		File inputs[] = parseInputFiles(nonOptionArgsIter.next());
 		File output = new File(nonOptionArgsIter.next());
 
 		Trimmer trimmers[]=createTrimmers(logger, nonOptionArgsIter);
 
 		TrimmomaticSE tm = new TrimmomaticSE(logger);
-		tm.process(input, output, trimmers, phredOffset, trimLog, threads);
+		tm.setMemoryMappedInput(memoryMapped);
+		tm.setVerifyGzipChecksums(verifyGzipChecksums);
+		tm.setGzipDictionary(gzipDictionary);
+		tm.setVerifyBzip2(verifyBzip2);
+		tm.setPhredOffsetCache(phredOffsetCache);
+		tm.setBgzfOutput(bgzf);
+		tm.setOutputSlimming(barePlus, shortNames, canonicalNames);
+		tm.setSplitInput(splitInput);
+		if(asyncReadMB>0)
+			tm.setAsyncRead(asyncReadMB*1024*1024, readsInFlight);
+		if(asyncWriteMB>0)
+			tm.setAsyncWrite(asyncWriteMB*1024*1024);
+		if(followSeconds>0 || followSentinel!=null)
+			tm.setFollowInput(followSentinel, followSeconds*1000L);
+		tm.setHeadReads(headReads);
+		tm.setSubsample(subsampleFraction, subsampleSeed);
+		tm.setSurvivorTarget(survivorTarget);
+		tm.process(inputs, output, trimmers, phredOffset, trimLog, threads);
 
 		logger.infoln("TrimmomaticSE: Completed successfully");
 		return true;
@@ -315,7 +510,8 @@ public class TrimmomaticSE extends Trimmomatic
 		if(!run(args))
 			{
 			System.err
-					.println("Usage: TrimmomaticSE [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] [-quiet] <inputFile> <outputFile> <trimmer1>...");
+					.println("Usage: TrimmomaticSE [-threads <threads>] [-phred33|-phred64] [-noPhredCache] [-trimlog <trimLogFile>] [-quiet] [-mmap] [-splitInput] [-asyncRead <blockMB>] [-readsInFlight <reads>] [-asyncWrite <bufferMB>] [-follow <stableSeconds>] [-followSentinel <sentinelFile>] [-head <reads>] [-subsample <fraction>] [-subsampleSeed <seed>] [-survivors <reads>] [-noGzipCrc] [-gzipDictionary] [-noBzip2Verify] [-bgzf] [-barePlus] [-shortNames] [-canonicalNames] <inputFile[,inputFile...]|-> <outputFile|-> <trimmer1>...");
+			System.err.println("   -noBzip2Verify writes .bz2 output blocks without decoding them again: about 30% less compression CPU, but the occasional corrupt block from jbzip2 goes undetected");
 			System.exit(1);
 			}
 	}
@@ -0,0 +1,193 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Sidecar index (.fqi) of a FASTQ file, holding the byte offset of every K-th record. For a gzip file the
+ * offsets are into the uncompressed data, reached through its checkpoint index (.gzx).
+ * Indexes of the two files of a pair share record numbering, so any record range can be located in both.
+ */
+
+public class FastqIndex
+{
+	public static final int DEFAULT_INTERVAL=10000;
+	public static final String EXTENSION=".fqi";
+
+	private static final int MAGIC=0x46514931;
+
+	private int interval;
+	private long recordCount;
+	private long fileLength;
+	private long offsets[];
+
+	public FastqIndex(int interval, long recordCount, long fileLength, long offsets[])
+	{
+		this.interval=interval;
+		this.recordCount=recordCount;
+		this.fileLength=fileLength;
+		this.offsets=offsets;
+	}
+
+	public static File getIndexFile(File file)
+	{
+		return new File(file.getPath()+EXTENSION);
+	}
+
+	public static FastqIndex build(File file, int interval) throws IOException
+	{
+		if(interval<1)
+			throw new IllegalArgumentException("Invalid index interval "+interval);
+
+		if(FastqParser.isCompressed(file) && !FastqParser.isGzipped(file))
+			throw new IOException("Unable to index compressed file "+file);
+
+		FastqParser parser=new FastqParser(33);
+		parser.parse(file);
+
+		return build(file, parser, interval);
+	}
+
+	/**
+	 * Builds the index of a file from its data read through another stream, such as a GzipIndex.Builder, so both
+	 * indexes are built in a single pass. The stream is read to the end and closed.
+	 */
+
+	public static FastqIndex build(File file, InputStream content, int interval) throws IOException
+	{
+		if(interval<1)
+			throw new IllegalArgumentException("Invalid index interval "+interval);
+
+		FastqParser parser=new FastqParser(33);
+		parser.parse(content);
+
+		return build(file, parser, interval);
+	}
+
+	private static FastqIndex build(File file, FastqParser parser, int interval) throws IOException
+	{
+		long offsets[]=new long[1024];
+		int entries=0;
+		long records=0;
+
+		while(parser.hasNext())
+			{
+			if(records%interval==0)
+				{
+				if(entries==offsets.length)
+					offsets=Arrays.copyOf(offsets, entries*2);
+
+				offsets[entries++]=parser.getRecordOffset();
+				}
+
+			parser.next();
+			records++;
+			}
+
+		parser.close();
+
+		return new FastqIndex(interval, records, file.length(), Arrays.copyOf(offsets, entries));
+	}
+
+	public static FastqIndex load(File indexFile) throws IOException
+	{
+		DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+		try
+			{
+			if(in.readInt()!=MAGIC)
+				throw new IOException("Not a FASTQ index: "+indexFile);
+
+			int interval=in.readInt();
+			long recordCount=in.readLong();
+			long fileLength=in.readLong();
+
+			long offsets[]=new long[in.readInt()];
+			for(int i=0;i<offsets.length;i++)
+				offsets[i]=in.readLong();
+
+			return new FastqIndex(interval, recordCount, fileLength, offsets);
+			}
+		finally
+			{
+			in.close();
+			}
+	}
+
+	/**
+	 * Loads the index belonging to the given FASTQ file, or returns null if there is none, or it no longer matches the file.
+	 */
+
+	public static FastqIndex loadFor(File file) throws IOException
+	{
+		File indexFile=getIndexFile(file);
+
+		if(!indexFile.isFile() || indexFile.lastModified()<file.lastModified())
+			return null;
+
+		FastqIndex index=load(indexFile);
+
+		if(index.fileLength!=file.length())
+			return null;
+
+		return index;
+	}
+
+	public void save(File indexFile) throws IOException
+	{
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+		try
+			{
+			out.writeInt(MAGIC);
+			out.writeInt(interval);
+			out.writeLong(recordCount);
+			out.writeLong(fileLength);
+
+			out.writeInt(offsets.length);
+			for(long offset: offsets)
+				out.writeLong(offset);
+			}
+		finally
+			{
+			out.close();
+			}
+	}
+
+	public int getInterval()
+	{
+		return interval;
+	}
+
+	public long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	public long getFileLength()
+	{
+		return fileLength;
+	}
+
+	/**
+	 * Returns the number of the last indexed record at or before the given record.
+	 */
+
+	public long getCheckpointRecord(long record)
+	{
+		return (record/interval)*interval;
+	}
+
+	public long getCheckpointOffset(long record)
+	{
+		return offsets[(int)(record/interval)];
+	}
+}
@@ -1,42 +1,135 @@
 package org.usadellab.trimmomatic.fastq;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayDeque;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipInputStream;
 
 import org.itadaki.bzip2.BZip2InputStream;
+import org.usadellab.trimmomatic.util.AsyncFileInputStream;
 import org.usadellab.trimmomatic.util.ConcatGZIPInputStream;
+import org.usadellab.trimmomatic.util.FollowInputStream;
+import org.usadellab.trimmomatic.util.GzipIndex;
+import org.usadellab.trimmomatic.util.Logger;
+import org.usadellab.trimmomatic.util.MappedFileInputStream;
+import org.usadellab.trimmomatic.util.ParallelBGZFInputStream;
+import org.usadellab.trimmomatic.util.ParallelBZip2InputStream;
+import org.usadellab.trimmomatic.util.PositionTracker;
 import org.usadellab.trimmomatic.util.PositionTrackingInputStream;
+import org.usadellab.trimmomatic.util.ReadAheadInputStream;
+import org.usadellab.trimmomatic.util.TarMemberInputStream;
 
 public class FastqParser {
 
-	private static final int PREREAD_COUNT=10000;
+	private static final int CHUNK_SIZE=1024*1024;
+	private static final int MAGIC_LENGTH=4;
+	private static final int STRIDE_CONFIRMATIONS=4;
+	private static final String COMPRESSED_EXTENSIONS[]={".gz", ".bz2", ".zip"};
+	private static final String TAR_MEMBER_SEPARATOR=".tar!/";
+	private static final Charset CHARSET=Charset.forName("ISO-8859-1");
 
     private int phredOffset;
-    private ArrayDeque<FastqRecord> deque;
+    private int detectedPhredOffset;
     int qualHistogram[];
     int patternHistogram[];
     
-    private PositionTrackingInputStream posTrackInputStream;
-    private BufferedReader reader;
+    private PositionTracker positionTracker;
+    private InputStream contentInputStream;
     private FastqRecord current;
     private long fileLength;
 
     private AtomicBoolean atEOF;
+
+    /*
+     * Records are handed out as offsets into the current chunk, so a chunk is never reused once
+     * filled. Any partial record at the end is copied to the start of a fresh chunk.
+     */
+    private byte buffer[];
+    private int bufferPos;
+    private int bufferLimit;
+    private boolean inputExhausted;
+    
+    private long bufferFileOffset;
+    private long rangeEnd=-1;
+    
+    private long currentOffset;
+    private long recordLimit=-1;
+    private long recordsParsed;
+    
+    private boolean memoryMapped;
+    private int decompressionThreads=1;
+    private int asyncBlockSize;
+    private int asyncReadsInFlight;
+    private GzipIndex gzipIndex;
+    private boolean verifyChecksums=true;
+    
+    private Logger logger=new Logger(true, true, false);
+    private boolean phredOffsetCache=true;
+    
+    private boolean follow;
+    private File followSentinel;
+    private long followStableMillis;
+    
+    private long maxRecords=-1;
+    private double subsampleFraction=1;
+    private long subsampleSeed;
+    private int recordsPerTemplate=1;
+    private long recordIndex;
+    
+    private int strideLength=-1;
+    private int strideMatches;
+    
+    private volatile boolean stopRequested;
+    private boolean inputClosed;
     
     public FastqParser(int phredOffset) {
         this.phredOffset = phredOffset;
-        deque=new ArrayDeque<FastqRecord>(PREREAD_COUNT);
         
         this.atEOF=new AtomicBoolean();
     }
 
+    /**
+     * Creates a parser with the same input settings as the template, for parsing another part of the same input.
+     * Record selection, such as the head limit or subsampling, is not copied, since it applies to the input as a whole.
+     */
+    
+    public FastqParser(FastqParser template) {
+        this(template.phredOffset);
+        
+        this.memoryMapped=template.memoryMapped;
+        this.decompressionThreads=template.decompressionThreads;
+        this.asyncBlockSize=template.asyncBlockSize;
+        this.asyncReadsInFlight=template.asyncReadsInFlight;
+        this.verifyChecksums=template.verifyChecksums;
+        this.gzipIndex=template.gzipIndex;
+        this.logger=template.logger;
+        this.phredOffsetCache=template.phredOffsetCache;
+    }
+    
+    /**
+     * Sets the logger for warnings about the input, such as a discarded incomplete record.
+     */
+    
+    public void setLogger(Logger logger)
+    {
+    	this.logger=logger;
+    }
+    
+    /**
+     * Whether a detected quality encoding is looked up in and saved to the PhredOffsetCache in the user's home.
+     */
+    
+    public void setPhredOffsetCache(boolean phredOffsetCache)
+    {
+    	this.phredOffsetCache=phredOffsetCache;
+    }
+
     public void setPhredOffset(int phredOffset)
     {
     	this.phredOffset=phredOffset;
@@ -45,70 +138,423 @@ public class FastqParser {
     		current.setPhredOffset(phredOffset);
     }
     
+    private boolean fill() throws IOException
+    {
+    	if(inputExhausted)
+    		return false;
+    	
+    	int remaining=bufferLimit-bufferPos;
+    	int size=CHUNK_SIZE;
+    	while(size<remaining*2)
+    		size*=2;
+    	
+    	byte newBuffer[]=new byte[size];
+    	if(remaining>0)
+    		System.arraycopy(buffer, bufferPos, newBuffer, 0, remaining);
+    	
+    	int limit=remaining;
+    	while(limit<size)
+    		{
+    		int read=contentInputStream.read(newBuffer, limit, size-limit);
+    		if(read<0)
+    			{
+    			inputExhausted=true;
+    			break;
+    			}
+    		limit+=read;
+    		}
+    	
+    	buffer=newBuffer;
+    	bufferFileOffset+=bufferPos;
+    	bufferPos=0;
+    	bufferLimit=limit;
+    	
+    	return true;
+    }
+    
+    private int findLineEnd(int from)
+    {
+    	byte buf[]=buffer;
+    	int limit=bufferLimit;
+    	
+    	for(int i=from;i<limit;i++)
+    		{
+    		if(buf[i]=='\n')
+    			return i;
+    		}
+    	
+    	if(inputExhausted && from<limit)
+    		return limit;
+    	
+    	return -1;
+    }
+    
+    private boolean hasLineEnd(int from, int to)
+    {
+    	byte buf[]=buffer;
+    	
+    	for(int i=from;i<to;i++)
+    		{
+    		if(buf[i]=='\n')
+    			return true;
+    		}
+    	
+    	return false;
+    }
+    
+    private int stripCR(int start, int end)
+    {
+    	if(end>start && buffer[end-1]=='\r')
+    		return end-1;
+    	
+    	return end;
+    }
+    
+    /**
+     * Whether a record at the end of the input was cut short, leaving it without some of its lines, or
+     * with an unterminated quality line shorter than its sequence.
+     */
+    
+    private boolean isTruncated(int nameEnd, int sequenceEnd, int commentEnd, int qualityEnd)
+    {
+    	if(qualityEnd<0)
+    		return true;
+    	
+    	if(qualityEnd<bufferLimit)
+    		return false;
+    	
+    	int sequenceLength=stripCR(nameEnd+1, sequenceEnd)-nameEnd-1;
+    	int qualityLength=qualityEnd-commentEnd-1;
+    	
+    	return qualityLength<sequenceLength;
+    }
+    
+    /**
+     * Decodes a line for error messages, with the same charset as the records.
+     */
+    
+    private String lineAt(int start, int end)
+    {
+    	return new String(buffer, start, stripCR(start, end)-start, CHARSET);
+    }
+    
+    public void setMemoryMapped(boolean memoryMapped)
+    {
+    	this.memoryMapped=memoryMapped;
+    }
+    
+    public void setDecompressionThreads(int decompressionThreads)
+    {
+    	this.decompressionThreads=decompressionThreads;
+    }
+    
+    /**
+     * Reads plain and compressed files in blocks of the given size, with several reads in flight at once.
+     */
+    
+    public void setAsyncRead(int blockSize, int readsInFlight)
+    {
+    	this.asyncBlockSize=blockSize;
+    	this.asyncReadsInFlight=readsInFlight;
+    }
+    
+    /**
+     * Skips gzip CRC and length checks, for trusted data.
+     */
+    
+    public void setVerifyChecksums(boolean verifyChecksums)
+    {
+    	this.verifyChecksums=verifyChecksums;
+    }
+    
+    /**
+     * Locates ranges of a gzip file through its checkpoint index, rather than decompressing from the start.
+     */
+    
+    public void setGzipIndex(GzipIndex gzipIndex)
+    {
+    	this.gzipIndex=gzipIndex;
+    }
+    
+    /**
+     * Follows input files which are still being written, until the sentinel file appears or their size
+     * has been stable for the given time. A truncated final record is then discarded rather than parsed.
+     */
+    
+    public void setFollow(File sentinel, long stableMillis)
+    {
+    	this.follow=true;
+    	this.followSentinel=sentinel;
+    	this.followStableMillis=stableMillis;
+    }
+    
+    /**
+     * Ends the input after the given number of records, closing it without reading any further.
+     */
+    
+    public void setMaxRecords(long maxRecords)
+    {
+    	this.maxRecords=maxRecords;
+    }
+    
+    /**
+     * Keeps a deterministic, hash-selected fraction of the records, skipping the rest before they are built.
+     * Selection depends only on the record number and seed, so files of a pair select the same records.
+     */
+    
+    public void setSubsample(double fraction, long seed)
+    {
+    	this.subsampleFraction=fraction;
+    	this.subsampleSeed=seed;
+    }
+    
+    /**
+     * Sets the number of consecutive records per template, such as 2 for interleaved pairs, which subsampling
+     * keeps or skips together, and stop() does not split.
+     */
+    
+    public void setRecordsPerTemplate(int recordsPerTemplate)
+    {
+    	this.recordsPerTemplate=recordsPerTemplate;
+    }
+    
+    /**
+     * Asks the parser, from any thread, to end its input at the next template, closing it without reading any further.
+     */
+    
+    public void stop()
+    {
+    	stopRequested=true;
+    }
+    
+    private boolean isSampled(long index)
+    {
+    	long hash=index/recordsPerTemplate+subsampleSeed;
+    	
+    	hash=(hash^(hash>>>33))*0xff51afd7ed558ccdL;
+    	hash=(hash^(hash>>>33))*0xc4ceb9fe1a85ec53L;
+    	hash=hash^(hash>>>33);
+    	
+    	return (hash>>>11)*0x1.0p-53<subsampleFraction;
+    }
+    
+    /**
+     * Tracks whether sequence and quality lines have kept the same length over the last records scanned in full.
+     */
+    
+    private void updateStride(int sequenceLength, int qualityLength)
+    {
+    	if(sequenceLength==qualityLength && sequenceLength==strideLength)
+    		strideMatches++;
+    	else
+    		{
+    		strideLength=sequenceLength==qualityLength ? sequenceLength : -1;
+    		strideMatches=0;
+    		}
+    }
+    
+    private void endInputEarly() throws IOException
+    {
+    	bufferPos=bufferLimit;
+    	inputExhausted=true;
+    	atEOF.set(true);
+    	
+    	closeInput();
+    }
+    
     public void parseOne() throws IOException 
     {
         current = null;
 
-        String name;
-        String sequence;
-        String comment;
-        String quality;
-
-        String line;
-
-        line = reader.readLine();
-        if (line == null) {
+        int start, nameEnd, sequenceEnd, commentEnd, qualityEnd;
+        
+        while(true)
+        	{
+        	if((stopRequested && recordIndex%recordsPerTemplate==0) || (maxRecords>=0 && recordIndex>=maxRecords))
+        		{
+        		endInputEarly();
+        		return;
+        		}
+        	
+        	start=bufferPos;
+        	
+        	if(start>=bufferLimit)
+        		{
+        		if(fill())
+        			continue;
+        		
+        		atEOF.set(true);
+        		return;
+        		}
+        	
+        	if((rangeEnd>=0 && bufferFileOffset+start>=rangeEnd) || (recordLimit>=0 && recordsParsed>=recordLimit))
+        		{
+        		atEOF.set(true);
+        		return;
+        		}
+        	
+        	nameEnd=findLineEnd(start);
+        	sequenceEnd=commentEnd=qualityEnd=-1;
+        	
+        	// Once reads have kept the same length, the sequence and quality line ends are predicted and only checked.
+        	// A shorter read's comment or quality line, which may start with '+', can end on a predicted line end, so
+        	// the predicted lines must also hold no other line end.
+        	
+        	if(nameEnd>=0 && strideMatches>=STRIDE_CONFIRMATIONS)
+        		{
+        		int predictedSequenceEnd=nameEnd+1+strideLength;
+        		
+        		if(predictedSequenceEnd+1<bufferLimit && buffer[predictedSequenceEnd]=='\n' && buffer[predictedSequenceEnd+1]=='+' &&
+        				!hasLineEnd(nameEnd+1, predictedSequenceEnd))
+        			{
+        			int predictedCommentEnd=findLineEnd(predictedSequenceEnd+1);
+        			int predictedQualityEnd=predictedCommentEnd<0 ? -1 : predictedCommentEnd+1+strideLength;
+        			
+        			if(predictedQualityEnd>=0 && predictedQualityEnd<bufferLimit && buffer[predictedQualityEnd]=='\n' &&
+        					!hasLineEnd(predictedCommentEnd+1, predictedQualityEnd))
+        				{
+        				sequenceEnd=predictedSequenceEnd;
+        				commentEnd=predictedCommentEnd;
+        				qualityEnd=predictedQualityEnd;
+        				}
+        			}
+        		
+        		if(qualityEnd<0)
+        			strideMatches=0;
+        		}
+        	
+        	if(qualityEnd<0)
+        		{
+        		sequenceEnd=nameEnd<0 ? -1 : findLineEnd(nameEnd+1);
+        		commentEnd=sequenceEnd<0 ? -1 : findLineEnd(sequenceEnd+1);
+        		qualityEnd=commentEnd<0 ? -1 : findLineEnd(commentEnd+1);
+        		
+        		if(qualityEnd<0 && fill())
+        			continue;
+        		
+        		if(qualityEnd>=0)
+        			updateStride(sequenceEnd-nameEnd-1, qualityEnd-commentEnd-1);
+        		}
+        	
+        	if(subsampleFraction<1 && qualityEnd>=0 && !isSampled(recordIndex))
+        		{
+        		recordIndex++;
+        		bufferPos=qualityEnd+1;
+        		continue;
+        		}
+        	
+        	break;
+        	}
+        
+        if(follow && isTruncated(nameEnd, sequenceEnd, commentEnd, qualityEnd))
+        	{
+        	logger.warnln("Warning: Discarding incomplete final record at offset "+(bufferFileOffset+start));
+        	
+        	bufferPos=bufferLimit;
         	atEOF.set(true);
-            return;
-        }
+        	return;
+        	}
         
-        if (line.charAt(0)=='@') {
-            name = line.substring(1);
-        } else {
-            throw new RuntimeException("Invalid FASTQ name line: " + line);
-        }
+        if (nameEnd<0 || buffer[start]!='@' || stripCR(start, nameEnd)==start)
+            throw new RuntimeException("Invalid FASTQ name line: " + lineAt(start, nameEnd<0 ? bufferLimit : nameEnd));
+        
+        if(sequenceEnd<0)
+        	throw new RuntimeException("Missing sequence line from record: " + lineAt(start+1, nameEnd));
 
-        sequence = reader.readLine();
-        if(sequence==null)
-        	throw new RuntimeException("Missing sequence line from record: " + name);
+        if(commentEnd<0)
+        	throw new RuntimeException("Missing comment line from record: " + lineAt(start+1, nameEnd));
 
-        line = reader.readLine();
-        if(line==null)
-        	throw new RuntimeException("Missing comment line from record: " + name);
+        int commentStart=sequenceEnd+1;
+        if (commentStart>=commentEnd || buffer[commentStart]!='+')
+            throw new RuntimeException("Invalid FASTQ comment line: " + lineAt(commentStart, commentEnd));
 
-        if (line.charAt(0)=='+') {
-            comment = line.substring(1);
-        } else {
-            throw new RuntimeException("Invalid FASTQ comment line: " + line);
-        }
-
-        quality = reader.readLine();
-        if(quality==null)
-        	throw new RuntimeException("Missing quality line from record: " + name);
+        if(qualityEnd<0)
+        	throw new RuntimeException("Missing quality line from record: " + lineAt(start+1, nameEnd));
 
-        current = new FastqRecord(name, sequence, comment, quality, phredOffset);
+        int sequenceStart=nameEnd+1;
+        int qualityStart=commentEnd+1;
+        
+        int nameLength=stripCR(start, nameEnd)-start-1;
+        int sequenceLength=stripCR(sequenceStart, sequenceEnd)-sequenceStart;
+        int commentLength=stripCR(commentStart, commentEnd)-commentStart-1;
+        int qualityLength=stripCR(qualityStart, qualityEnd)-qualityStart;
+        
+        current = new FastqRecord(buffer, start+1, nameLength, sequenceStart, sequenceLength, 
+        		commentStart+1, commentLength, qualityStart, qualityLength, phredOffset);
+        
+        // Records without CRs and with a final newline serialize back to exactly their input bytes
+        
+        int rawLength=qualityEnd+1-start;
+        if(qualityEnd<bufferLimit && buffer[qualityEnd]=='\n' && rawLength==nameLength+sequenceLength+commentLength+qualityLength+6)
+        	current.setRaw(start, rawLength);
+        
+        currentOffset=bufferFileOffset+start;
+        recordsParsed++;
+        recordIndex++;
+        
+        bufferPos=qualityEnd+1;
     }
 
     public int getProgress() {
     	if(atEOF.get())
     		return 100;
     	
-    	long bytesRead=posTrackInputStream.getPosition();
+    	if(fileLength<=0)
+    		return 0;
+    	
+    	long bytesRead=positionTracker.getPosition();
     	
     	return (int)(((float) bytesRead / fileLength) * 100);    
     }
 
     
-    private void accumulateHistogram(FastqRecord rec)
+    /**
+     * Builds the quality histogram directly from the bytes of the complete records in the first buffer,
+     * without building any records.
+     */
+    
+    private void sampleQualities() throws IOException
     {
-    	int quals[]=rec.getQualityAsInteger(false);
+    	qualHistogram=new int[256];
+    	
+    	if(bufferPos>=bufferLimit && !fill())
+    		return;
     	
-    	for(int i: quals)
-    		qualHistogram[i]++;
+    	int pos=bufferPos;
+    	
+    	while(pos<bufferLimit && buffer[pos]=='@')
+    		{
+    		int nameEnd=findLineEnd(pos);
+    		int sequenceEnd=nameEnd<0 ? -1 : findLineEnd(nameEnd+1);
+    		int commentEnd=sequenceEnd<0 ? -1 : findLineEnd(sequenceEnd+1);
+    		int qualityEnd=commentEnd<0 ? -1 : findLineEnd(commentEnd+1);
+    		
+    		if(qualityEnd<0)
+    			break;
+    		
+    		int qualityLimit=stripCR(commentEnd+1, qualityEnd);
+    		for(int i=commentEnd+1;i<qualityLimit;i++)
+    			qualHistogram[buffer[i]&0xFF]++;
+    		
+    		pos=qualityEnd+1;
+    		}
     }
     
+    /**
+     * Returns the quality encoding found when the input was opened, from the fingerprint cache or a sample of
+     * its first records, or 0 if it could not be determined.
+     */
+    
     public int determinePhredOffset()
     {
+    	return detectedPhredOffset;
+    }
+    
+    private int determinePhredOffsetFromHistogram()
+    {
+    	if(qualHistogram==null)
+    		return 0;
+    	
     	int phred33Total=0;
     	int phred64Total=0;
 
@@ -129,66 +575,598 @@ public class FastqParser {
     
     
     public void parse(File file) throws IOException {
-        String name = file.getName();
-        fileLength = file.length();
+        rangeEnd=-1;
+        recordLimit=-1;
+        recordIndex=0;
         
-        posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(file));
+        InputFile input=openInput(file);
+        fileLength=input.length;
+        positionTracker=input.positionTracker;
         
-        InputStream contentInputStream=posTrackInputStream;
+        lookupPhredOffset(file);
+        openContent(input.stream, 0, false);
+        detectPhredOffset(file);
+    }
+    
+    /**
+     * Parses already decompressed data from a stream, whose length is not known.
+     */
+    
+    public void parse(InputStream stream) throws IOException {
+        rangeEnd=-1;
+        recordLimit=-1;
+        recordIndex=0;
         
-        if (name.toLowerCase().endsWith(".gz")) {
-            contentInputStream=new ConcatGZIPInputStream(posTrackInputStream);
-        } else if (name.toLowerCase().endsWith(".bz2")) {
-            contentInputStream=new BZip2InputStream(posTrackInputStream, false);
-        } else if (name.toLowerCase().endsWith(".zip")) {
-            contentInputStream=new ZipInputStream(posTrackInputStream);
+        fileLength=-1;
+        positionTracker=null;
+        
+        openContent(stream, 0, false);
+    }
+    
+    /**
+     * Parses the files back to back as a single input, as if they had been concatenated. Each
+     * following file is opened, and with multiple threads already decompressing, while the
+     * previous one is being read.
+     */
+    
+    public void parse(File files[]) throws IOException {
+        if (files.length==1) {
+            parse(files[0]);
+            return;
+        }
+        
+        rangeEnd=-1;
+        recordLimit=-1;
+        recordIndex=0;
+        
+        MultiFileInputStream multiFileInputStream=new MultiFileInputStream(files);
+        fileLength=multiFileInputStream.getLength();
+        positionTracker=multiFileInputStream;
+        
+        lookupPhredOffset(files[0]);
+        openContent(multiFileInputStream, 0, false);
+        detectPhredOffset(files[0]);
+    }
+    
+    /**
+     * Detection is based on the first records, so the first file identifies the input in the cache.
+     */
+    
+    private boolean isPhredOffsetCacheable(File file)
+    {
+        return phredOffsetCache && !follow && file.isFile();
+    }
+    
+    private void lookupPhredOffset(File file)
+    {
+        detectedPhredOffset=0;
+        
+        if(phredOffset==0 && isPhredOffsetCacheable(file))
+            detectedPhredOffset=PhredOffsetCache.lookup(file);
+    }
+    
+    private void detectPhredOffset(File file)
+    {
+        if(phredOffset!=0 || detectedPhredOffset!=0)
+            return;
+        
+        detectedPhredOffset=determinePhredOffsetFromHistogram();
+        
+        if(detectedPhredOffset!=0 && isPhredOffsetCacheable(file))
+            PhredOffsetCache.store(file, detectedPhredOffset, logger);
+    }
+    
+    private static long getTarMemberSize(File file) throws IOException {
+        TarMemberInputStream tarInputStream=new TarMemberInputStream(new FileInputStream(getTarArchive(file)), getTarMember(file));
+        
+        try {
+            return tarInputStream.getSize();
+        } finally {
+            tarInputStream.close();
+        }
+    }
+    
+    private InputFile openInput(File file) throws IOException {
+        InputFile input;
+        String compression;
+        boolean standardInput=isStandardInput(file);
+        
+        if (standardInput) {
+            // No name or length to go on, so sniff the format from the stream itself
+            
+            PositionTrackingInputStream posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(FileDescriptor.in));
+            PushbackInputStream pushbackInputStream=new PushbackInputStream(posTrackInputStream, MAGIC_LENGTH);
+            
+            input=new InputFile(pushbackInputStream, posTrackInputStream, -1);
+            compression=detectCompression(pushbackInputStream);
+        } else if (isTarMember(file)) {
+            // Progress is measured within the member, which may itself be compressed
+            
+            String member=getTarMember(file);
+            compression=getCompression(member);
+            
+            TarMemberInputStream tarInputStream=new TarMemberInputStream(openFile(getTarArchive(file), compression!=null).stream, member);
+            PositionTrackingInputStream posTrackInputStream=new PositionTrackingInputStream(tarInputStream);
+            input=new InputFile(posTrackInputStream, posTrackInputStream, tarInputStream.getSize());
+        } else {
+            compression=getCompression(file.getName());
+            input=openFile(file, compression!=null);
+        }
+        
+        boolean compressed=compression!=null;
+        InputStream contentInputStream=input.stream;
+        
+        if (".gz".equals(compression)) {
+            if (decompressionThreads>1) {
+                PushbackInputStream pushbackInputStream=new PushbackInputStream(contentInputStream, ParallelBGZFInputStream.BGZF_PEEK_LENGTH);
+                contentInputStream=pushbackInputStream;
+                
+                if (ParallelBGZFInputStream.isBGZF(pushbackInputStream))
+                    contentInputStream=new ParallelBGZFInputStream(pushbackInputStream, decompressionThreads, verifyChecksums);
+                else
+                    contentInputStream=new ConcatGZIPInputStream(pushbackInputStream, verifyChecksums);
+            } else {
+                contentInputStream=new ConcatGZIPInputStream(contentInputStream, verifyChecksums);
+            }
+        } else if (".bz2".equals(compression)) {
+            if (decompressionThreads>1)
+                contentInputStream=new ParallelBZip2InputStream(contentInputStream, decompressionThreads);
+            else
+                contentInputStream=new BZip2InputStream(contentInputStream, false);
+        } else if (".zip".equals(compression)) {
+            contentInputStream=new ZipInputStream(contentInputStream);
+        }
+        
+        // A pipe delivers small reads as the writer produces them, so keep reading ahead while parsing
+        
+        if ((compressed || standardInput) && decompressionThreads>1)
+            contentInputStream=new ReadAheadInputStream(contentInputStream);
+        
+        input.stream=contentInputStream;
+        return input;
+    }
+    
+    /**
+     * Parses only the records which start within the byte range [start, end) of an uncompressed file, or
+     * of the uncompressed data of a gzip file with a checkpoint index. The range is resynchronised on the first real record start, so adjacent ranges together
+     * yield every record exactly once.
+     */
+    
+    public void parseRange(File file, long start, long end) throws IOException {
+        rangeEnd = end;
+        recordLimit = -1;
+        recordIndex = 0;
+        
+        if (start>0 && gzipIndex!=null && gzipIndex.isCheckpoint(start)) {
+            // Decoding starts right at the checkpoint, and the byte before it comes from the checkpoint's window
+            
+            InputFile input=openFileAt(file, start);
+            fileLength=input.length;
+            positionTracker=input.positionTracker;
+            
+            PushbackInputStream stream=new PushbackInputStream(input.stream, 1);
+            stream.unread(gzipIndex.getPrecedingByte(start));
+            
+            openContent(stream, start-1, true);
+            return;
+        }
+        
+        // Start one byte early, so a range which begins exactly on a line start is not skipped
+        
+        long offset=start>0 ? start-1 : 0;
+        InputFile input=openFileAt(file, offset);
+        fileLength=input.length;
+        positionTracker=input.positionTracker;
+        
+        openContent(input.stream, offset, start>0);
+    }
+    
+    /**
+     * Parses 'count' records starting with record number 'first', located via the index. A negative
+     * count parses to the end of the file.
+     */
+    
+    public void parseRecords(File file, FastqIndex index, long first, long count) throws IOException {
+        rangeEnd = -1;
+        
+        long checkpoint=index.getCheckpointRecord(first);
+        long skipRecords=first-checkpoint;
+        
+        recordLimit = count<0 ? -1 : skipRecords+count;
+        recordIndex = checkpoint;
+        
+        long offset=index.getCheckpointOffset(first);
+        InputFile input=openFileAt(file, offset);
+        fileLength=input.length;
+        positionTracker=input.positionTracker;
+        
+        openContent(input.stream, offset, false);
+        
+        for (long i=0;i<skipRecords && hasNext();i++)
+            next();
+    }
+    
+    /**
+     * Opens the uncompressed file, or the gzip file through its checkpoint index, positioned at the given
+     * uncompressed offset.
+     */
+    
+    private InputFile openFileAt(File file, long offset) throws IOException
+    {
+        if (gzipIndex!=null) {
+            PositionTrackingInputStream posTrackInputStream=new PositionTrackingInputStream(gzipIndex.open(file, offset, verifyChecksums));
+            return new InputFile(posTrackInputStream, posTrackInputStream, -1);
         }
         
-        reader=new BufferedReader(new InputStreamReader(contentInputStream), 32768);
+        InputFile input=openFile(file, false);
         
-        if(phredOffset==0)
+        long skipped=0;
+        while (skipped<offset) {
+            long count=input.stream.skip(offset-skipped);
+            if (count<=0)
+                throw new EOFException("Offset "+offset+" is beyond the end of "+file);
+            skipped+=count;
+        }
+        
+        return input;
+    }
+    
+    public static boolean isCompressed(File file)
+    {
+        return getCompression(file.getName())!=null;
+    }
+    
+    /**
+     * Whether the path names a member of a tar archive, as archive.tar!/member.
+     */
+    
+    public static boolean isTarMember(File file)
+    {
+        return file.getPath().toLowerCase().indexOf(TAR_MEMBER_SEPARATOR)>0;
+    }
+    
+    private static int getTarSeparator(File file)
+    {
+        return file.getPath().toLowerCase().indexOf(TAR_MEMBER_SEPARATOR)+TAR_MEMBER_SEPARATOR.length()-2;
+    }
+    
+    private static File getTarArchive(File file)
+    {
+        return new File(file.getPath().substring(0, getTarSeparator(file)));
+    }
+    
+    private static String getTarMember(File file)
+    {
+        return file.getPath().substring(getTarSeparator(file)+2);
+    }
+    
+    public static boolean isGzipped(File file)
+    {
+        return ".gz".equals(getCompression(file.getName()));
+    }
+    
+    public static boolean isStandardInput(File file)
+    {
+        String path=file.getPath();
+        return path.equals("-") || path.equals("/dev/stdin");
+    }
+    
+    private static String getCompression(String name)
+    {
+        String lowerName=name.toLowerCase();
+        
+        for(String extension: COMPRESSED_EXTENSIONS)
         	{
-        	deque.clear();
-        	qualHistogram=new int[256];
-        	
-        	for(int i=0;i<PREREAD_COUNT;i++)
-        		{
-        		parseOne();
-        		if(current!=null)
-        			{
-        			deque.add(current);
-        			accumulateHistogram(current);
-        			}
-        		}
+        	if(lowerName.endsWith(extension))
+        		return extension;
         	}
+        
+        return null;
+    }
+    
+    /**
+     * Identifies gzip, bzip2 and zip streams from their magic bytes, which are pushed back afterwards.
+     */
+    
+    private static String detectCompression(PushbackInputStream in) throws IOException
+    {
+        byte magic[]=new byte[MAGIC_LENGTH];
+        int len=0;
+        
+        while(len<magic.length)
+        	{
+        	int read=in.read(magic, len, magic.length-len);
+        	if(read<0)
+        		break;
+        	len+=read;
+        	}
+        
+        if(len>0)
+        	in.unread(magic, 0, len);
+        
+        if(len>=2 && (magic[0]&0xFF)==0x1f && (magic[1]&0xFF)==0x8b)
+        	return ".gz";
+        
+        if(len>=3 && magic[0]=='B' && magic[1]=='Z' && magic[2]=='h')
+        	return ".bz2";
+        
+        if(len>=4 && magic[0]=='P' && magic[1]=='K' && magic[2]==3 && magic[3]==4)
+        	return ".zip";
+        
+        return null;
+    }
+    
+    /**
+     * Whether the file can be cut into byte ranges for parseRange.
+     */
+    
+    public static boolean isSplittable(File file)
+    {
+        return file.isFile() && !isCompressed(file);
+    }
+    
+    private InputFile openFile(File file, boolean compressed) throws IOException
+    {
+        if (follow) {
+            // The final length is not known yet, so there is no progress to report until the end
+            
+            PositionTrackingInputStream posTrackInputStream=new PositionTrackingInputStream(new FollowInputStream(file, followSentinel, followStableMillis));
+            return new InputFile(posTrackInputStream, posTrackInputStream, -1);
+        }
+        
+        if (memoryMapped && !compressed && file.isFile()) {
+            MappedFileInputStream mappedInputStream=new MappedFileInputStream(file);
+            return new InputFile(mappedInputStream, mappedInputStream, file.length());
+        }
+        
+        if (asyncBlockSize>0 && file.isFile()) {
+            PositionTrackingInputStream posTrackInputStream=new PositionTrackingInputStream(new AsyncFileInputStream(file, asyncBlockSize, asyncReadsInFlight));
+            return new InputFile(posTrackInputStream, posTrackInputStream, file.length());
+        }
+        
+        PositionTrackingInputStream posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(file));
+        return new InputFile(posTrackInputStream, posTrackInputStream, file.length());
+    }
+    
+    /**
+     * Skips the remainder of the current line, then moves forward to the first line which starts a
+     * complete record. Quality lines may also start with '@', but are never followed two lines
+     * later by a '+' line, so only a real record start matches.
+     */
+    
+    private void skipToRecordStart() throws IOException
+    {
+    	while(true)
+    		{
+    		int lineEnd=findLineEnd(bufferPos);
+    		if(lineEnd>=0)
+    			{
+    			bufferPos=Math.min(lineEnd+1, bufferLimit);
+    			break;
+    			}
+    		
+    		bufferPos=bufferLimit;
+    		if(!fill())
+    			return;
+    		}
+    	
+    	while(true)
+    		{
+    		int start=bufferPos;
+    		
+    		int nameEnd=findLineEnd(start);
+    		int sequenceEnd=nameEnd<0 ? -1 : findLineEnd(nameEnd+1);
+    		int commentEnd=sequenceEnd<0 ? -1 : findLineEnd(sequenceEnd+1);
+    		int qualityEnd=commentEnd<0 ? -1 : findLineEnd(commentEnd+1);
+    		
+    		if(qualityEnd<0)
+    			{
+    			if(fill())
+    				continue;
+    			
+    			// No complete record starts here; a truncated one is reported by the range holding its start
+    			
+    			bufferPos=bufferLimit;
+    			return;
+    			}
+    		
+    		int sequenceStart=nameEnd+1;
+    		int commentStart=sequenceEnd+1;
+    		int qualityStart=commentEnd+1;
+    		
+    		if(buffer[start]=='@' && commentStart<commentEnd && buffer[commentStart]=='+' &&
+    				stripCR(sequenceStart, sequenceEnd)-sequenceStart==stripCR(qualityStart, qualityEnd)-qualityStart)
+    			return;
+    		
+    		bufferPos=nameEnd+1;
+    		}
+    }
+    
+    private void openContent(InputStream contentInputStream, long offset, boolean synchronize) throws IOException
+    {
+        this.contentInputStream=contentInputStream;
+        
+        buffer=null;
+        bufferPos=0;
+        bufferLimit=0;
+        bufferFileOffset=offset;
+        inputExhausted=false;
+        inputClosed=false;
+        recordsParsed=0;
+        
+        if(synchronize)
+        	skipToRecordStart();
+        
+        // Sampled before the first record is built, so at most that record needs its offset set afterwards
+        
+        if(phredOffset==0 && detectedPhredOffset==0)
+        	sampleQualities();
+        
         parseOne();
     }
 
     public void close() throws IOException {
-        reader.close();
+        closeInput();
+    }
+    
+    private void closeInput() throws IOException {
+        if (!inputClosed) {
+            inputClosed=true;
+            contentInputStream.close();
+        }
     }
 
+    /**
+     * Returns the byte offset of the record which the next call to next() returns. For compressed
+     * input this is the offset within the uncompressed data.
+     */
+    
+    public long getRecordOffset() {
+        return currentOffset;
+    }
+    
     public boolean hasNext() {
-        return (!deque.isEmpty()) || (current != null);
+        return current != null;
     }
 
     public FastqRecord next() throws IOException {
-    	if(deque.isEmpty())
-    		{
-    		FastqRecord current = this.current;
-    		parseOne();
-
-    		return current;
-    		}
-    	else
-    		{
-    		FastqRecord rec=deque.poll();
-    		
-    		if(rec!=null)
-    			rec.setPhredOffset(phredOffset);
-    		
-    		return rec;
-    		}
+        FastqRecord current = this.current;
+        parseOne();
+        
+        return current;
     }
 
+    /**
+     * An opened input, with the position within the underlying file and its length, or -1 if unknown.
+     */
+    
+    private static class InputFile
+    {
+        private InputStream stream;
+        private PositionTracker positionTracker;
+        private long length;
+        
+        private InputFile(InputStream stream, PositionTracker positionTracker, long length)
+        {
+            this.stream=stream;
+            this.positionTracker=positionTracker;
+            this.length=length;
+        }
+    }
+    
+    /**
+     * Streams several inputs back to back, ending any file which lacks a final newline with one,
+     * and tracks the position across all of them.
+     */
+    
+    private class MultiFileInputStream extends InputStream implements PositionTracker
+    {
+        private File files[];
+        private int nextFile;
+        
+        private InputFile current;
+        private InputFile next;
+        
+        private long completedLength;
+        private int lastByte=-1;
+        private byte single[]=new byte[1];
+        
+        private MultiFileInputStream(File files[]) throws IOException
+        {
+            this.files=files;
+            
+            current=openInput(files[0]);
+            nextFile=1;
+            
+            // Files being followed may not exist yet, so only open them when needed
+            
+            if (!follow && nextFile<files.length)
+                next=openInput(files[nextFile++]);
+        }
+        
+        /**
+         * Sums the lengths the inputs' positions are tracked against, which for a tar member is the member's size.
+         */
+        
+        private long getLength() throws IOException
+        {
+            long length=0;
+            
+            for (File file: files) {
+                if (follow || isStandardInput(file))
+                    return -1;
+                
+                length+=isTarMember(file) ? getTarMemberSize(file) : file.length();
+            }
+            
+            return length;
+        }
+        
+        @Override
+        public long getPosition()
+        {
+            if (current==null)
+                return completedLength;
+            
+            return completedLength+current.positionTracker.getPosition();
+        }
+        
+        @Override
+        public int read() throws IOException
+        {
+            int len=read(single, 0, 1);
+            return len<0 ? -1 : single[0]&0xFF;
+        }
+        
+        @Override
+        public int read(byte b[], int off, int len) throws IOException
+        {
+            if (len==0)
+                return 0;
+            
+            while (current!=null) {
+                int count=current.stream.read(b, off, len);
+                
+                if (count>0) {
+                    lastByte=b[off+count-1]&0xFF;
+                    return count;
+                }
+                
+                if (count==0)
+                    continue;
+                
+                current.stream.close();
+                completedLength+=Math.max(current.length, 0);
+                
+                current=next;
+                next=null;
+                
+                if (current==null && nextFile<files.length)
+                    current=openInput(files[nextFile++]);
+                
+                if (!follow && nextFile<files.length)
+                    next=openInput(files[nextFile++]);
+                
+                if (lastByte>=0 && lastByte!='\n') {
+                    lastByte='\n';
+                    b[off]='\n';
+                    return 1;
+                }
+            }
+            
+            return -1;
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            if (current!=null)
+                current.stream.close();
+            
+            if (next!=null)
+                next.stream.close();
+            
+            current=next=null;
+        }
+    }
 }
@@ -1,13 +1,34 @@
 package org.usadellab.trimmomatic.fastq;
 
+import java.nio.charset.Charset;
+
 public class FastqRecord
 {
+	private static final Charset CHARSET=Charset.forName("ISO-8859-1");
+
 	private String name;
 	private String sequence;
 	private String comment;
 	private String quality;
     private String barcodeLabel = null; 
 	
+	/*
+	 * Records from the byte-level parser keep their fields as offsets into the parser buffer,
+	 * and only build Strings if something asks for them.
+	 */
+	
+	private byte data[];
+	private int nameOffset, nameLength;
+	private int commentOffset, commentLength;
+	private int sequenceOffset, qualityOffset;
+	private int length;
+	
+	/*
+	 * The whole input record, kept while no trimmer has changed it, so it can be written back verbatim.
+	 */
+	
+	private int rawOffset, rawLength;
+	
 	private int phredOffset;
 	private int headPos;
 	
@@ -20,26 +41,61 @@ public class FastqRecord
 	
 		this.phredOffset=phredOffset;
 		headPos=0;
+		length=sequence.length();
 		
 		if(sequence.length()!=quality.length())
 			throw new RuntimeException("Sequence and quality length don't match: '"+sequence+"' vs '"+quality+"'");
 	}
 	
+	public FastqRecord(byte data[], int nameOffset, int nameLength, int sequenceOffset, int sequenceLength,
+			int commentOffset, int commentLength, int qualityOffset, int qualityLength, int phredOffset)
+	{
+		this.data=data;
+		this.nameOffset=nameOffset;
+		this.nameLength=nameLength;
+		this.sequenceOffset=sequenceOffset;
+		this.commentOffset=commentOffset;
+		this.commentLength=commentLength;
+		this.qualityOffset=qualityOffset;
+	
+		this.phredOffset=phredOffset;
+		headPos=0;
+		length=sequenceLength;
+		
+		if(sequenceLength!=qualityLength)
+			throw new RuntimeException("Sequence and quality length don't match: '"+decode(sequenceOffset, sequenceLength)+"' vs '"+decode(qualityOffset, qualityLength)+"'");
+	}
+	
 	public FastqRecord(FastqRecord base, int headPos, int length)
 	{
 		if(headPos<0)
-			throw new RuntimeException("Attempting invalid trim on "+base.name+" with length "+base.sequence.length()+": Wanted "+headPos+" to "+(headPos+length));
+			throw new RuntimeException("Attempting invalid trim on "+base.getName()+" with length "+base.length+": Wanted "+headPos+" to "+(headPos+length));
 		
-		int availableLength=base.getSequence().length();
+		int availableLength=base.length;
 		if(headPos+length>availableLength)
 			length=availableLength-headPos;
 	
-		this.sequence=base.sequence.substring(headPos,headPos+length);
-		this.quality=base.quality.substring(headPos,headPos+length);		
-		this.name=base.name;
-		this.comment=base.comment;
+		if(base.sequence!=null && base.quality!=null)
+			{
+			this.sequence=base.sequence.substring(headPos,headPos+length);
+			this.quality=base.quality.substring(headPos,headPos+length);
+			}
+		else
+			{
+			this.sequenceOffset=base.sequenceOffset+headPos;
+			this.qualityOffset=base.qualityOffset+headPos;
+			}
+		
+		copyHeader(base);
+		this.length=length;
 		this.phredOffset=base.phredOffset;			
 		this.headPos=base.headPos+headPos;
+		
+		if(headPos==0 && length==availableLength)
+			{
+			this.rawOffset=base.rawOffset;
+			this.rawLength=base.rawLength;
+			}
 
 		this.barcodeLabel = base.barcodeLabel;
 	}
@@ -48,14 +104,31 @@ public class FastqRecord
 	{
 		this.sequence=sequence;
 		this.quality=quality;		
-		this.name=base.name;
-		this.comment=base.comment;
+		copyHeader(base);
+		this.length=sequence.length();
 		this.headPos=base.headPos;
 		this.phredOffset=phredOffset;
 
 		this.barcodeLabel = base.barcodeLabel;
 	}
 
+	private void copyHeader(FastqRecord base)
+	{
+		this.name=base.name;
+		this.comment=base.comment;
+		
+		this.data=base.data;
+		this.nameOffset=base.nameOffset;
+		this.nameLength=base.nameLength;
+		this.commentOffset=base.commentOffset;
+		this.commentLength=base.commentLength;
+	}
+	
+	private String decode(int offset, int length)
+	{
+		return new String(data, offset, length, CHARSET);
+	}
+
 	public static FastqRecord make(String name, String sequence, int quality)
 	{
 		StringBuilder qualityBuilder=new StringBuilder();
@@ -74,11 +147,17 @@ public class FastqRecord
 	
 	public String getName()
 	{
+		if(name==null)
+			name=decode(nameOffset, nameLength);
+		
 		return name;
 	}
 
 	public String getSequence()
 	{
+		if(sequence==null)
+			sequence=decode(sequenceOffset, length);
+		
 		return sequence;
 	}
 
@@ -92,14 +171,102 @@ public class FastqRecord
 	
 	public String getComment()
 	{
+		if(comment==null)
+			comment=decode(commentOffset, commentLength);
+		
 		return comment;
 	}
 
 	public String getQuality()
 	{
+		if(quality==null)
+			quality=decode(qualityOffset, length);
+		
 		return quality;
 	}
 	
+	public int getLength()
+	{
+		return length;
+	}
+	
+	void setRaw(int rawOffset, int rawLength)
+	{
+		this.rawOffset=rawOffset;
+		this.rawLength=rawLength;
+	}
+	
+	boolean isRaw()
+	{
+		return rawLength>0;
+	}
+	
+	byte[] getData()
+	{
+		return data;
+	}
+	
+	int getRawOffset()
+	{
+		return rawOffset;
+	}
+	
+	int getRawLength()
+	{
+		return rawLength;
+	}
+	
+	int getNameLength()
+	{
+		return name!=null ? name.length() : nameLength;
+	}
+	
+	int getCommentLength()
+	{
+		return comment!=null ? comment.length() : commentLength;
+	}
+	
+	/*
+	 * Copy fields out as ISO-8859-1 bytes, the same charset they were decoded with, straight from 
+	 * the parser buffer unless a String has replaced them. Each returns the position after the field.
+	 */
+	
+	int copyName(byte dest[], int pos)
+	{
+		return copy(name, nameOffset, getNameLength(), dest, pos);
+	}
+	
+	int copySequence(byte dest[], int pos)
+	{
+		return copy(sequence, sequenceOffset, length, dest, pos);
+	}
+	
+	int copyComment(byte dest[], int pos)
+	{
+		return copy(comment, commentOffset, getCommentLength(), dest, pos);
+	}
+	
+	int copyQuality(byte dest[], int pos)
+	{
+		return copy(quality, qualityOffset, length, dest, pos);
+	}
+	
+	private int copy(String value, int offset, int count, byte dest[], int pos)
+	{
+		if(value==null)
+			System.arraycopy(data, offset, dest, pos, count);
+		else
+			{
+			for(int i=0;i<count;i++)
+				{
+				char c=value.charAt(i);
+				dest[pos+i]=c<256 ? (byte)c : (byte)'?';
+				}
+			}
+		
+		return pos+count;
+	}
+	
 	public int getPhredOffset()
 	{
 		return phredOffset;
@@ -118,7 +285,20 @@ public class FastqRecord
 
 	public int[] getQualityAsInteger(boolean zeroNs)
 	{
-		int arr[]=new int[quality.length()];
+		int arr[]=new int[length];
+		
+		if(sequence==null || quality==null)
+			{
+			for(int i=0;i<length;i++)
+				{
+				if(zeroNs && data[sequenceOffset+i]=='N')
+					arr[i]=0;
+				else
+					arr[i]=data[qualityOffset+i]-phredOffset;
+				}
+			
+			return arr;
+			}
 		
 		for(int i=0;i<quality.length();i++)
 			{
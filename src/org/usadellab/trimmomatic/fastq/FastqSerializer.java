@@ -1,66 +1,340 @@
 package org.usadellab.trimmomatic.fastq;
 
-import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.itadaki.bzip2.BZip2OutputStream;
+import org.usadellab.trimmomatic.util.AsyncFileOutputStream;
+import org.usadellab.trimmomatic.util.BGZFOutputStream;
+import org.usadellab.trimmomatic.util.ParallelBZip2OutputStream;
+import org.usadellab.trimmomatic.util.ParallelGZIPOutputStream;
 
 public class FastqSerializer {
 
-	private BufferedWriter stream;
+	private static final int PIPE_BUFFER_SIZE = 65536;
+	private static final int FILE_BUFFER_SIZE = 32768;
+
+	/*
+	 * Records are written as bytes into one reused buffer, which is passed on whole to the
+	 * (compressing) stream, so nothing is allocated or re-encoded per record.
+	 */
+
+	public static final File DISCARD = new File("/dev/null");
+
+	private boolean discard;
+	private OutputStream stream;
+	private byte buffer[];
+	private int bufferPos;
 	private File inputFile;
+	
+	private int compressionThreads=1;
+	private boolean gzipDictionary=false;
+	private boolean verifyBzip2=true;
+	private boolean bgzf=false;
+	private int asyncWriteSize=0;
+
+	private boolean barePlus=false;
+	private boolean shortNames=false;
+	private boolean canonicalNames=false;
 
 	public FastqSerializer()
 	{
 
 	}
 
+	public void setCompressionThreads(int compressionThreads)
+	{
+		this.compressionThreads=compressionThreads;
+	}
+
+	public void setGzipDictionary(boolean gzipDictionary)
+	{
+		this.gzipDictionary=gzipDictionary;
+	}
+
+	/**
+	 * Decodes each parallel .bz2 block again before writing it, to catch the corrupt blocks jbzip2 occasionally writes.
+	 */
+
+	public void setVerifyBzip2(boolean verifyBzip2)
+	{
+		this.verifyBzip2=verifyBzip2;
+	}
+
+	public void setBgzf(boolean bgzf)
+	{
+		this.bgzf=bgzf;
+	}
+
+	/**
+	 * Writes files through a pair of buffers of this size, one filling while the other is written.
+	 */
+
+	public void setAsyncWrite(int asyncWriteSize)
+	{
+		this.asyncWriteSize=asyncWriteSize;
+	}
+
+	/**
+	 * Writes the '+' line without the comment that follows it.
+	 */
+
+	public void setBarePlus(boolean barePlus)
+	{
+		this.barePlus=barePlus;
+	}
+
+	/**
+	 * Cuts names at the first whitespace, dropping the description after it.
+	 */
+
+	public void setShortNames(boolean shortNames)
+	{
+		this.shortNames=shortNames;
+	}
+
+	/**
+	 * Writes only the FastqNamePattern canonical name, or the short name if no pattern matches.
+	 */
+
+	public void setCanonicalNames(boolean canonicalNames)
+	{
+		this.canonicalNames=canonicalNames;
+	}
+
+	/**
+	 * Whether the record can be written as its input bytes, which none of the slimming options allow.
+	 */
+
+	private boolean isPassthrough(FastqRecord record)
+	{
+		return record.isRaw() && !barePlus && !shortNames && !canonicalNames;
+	}
+
+	public static boolean isStandardOutput(File file)
+	{
+		String path = file.getPath();
+		return path.equals("-") || path.equals("/dev/stdout");
+	}
+
+	/**
+	 * Whether the output is thrown away, in which case records are dropped unformatted and nothing is opened.
+	 */
+
+	public static boolean isDiscarded(File file)
+	{
+		return file.getPath().equals(DISCARD.getPath());
+	}
+
+	public boolean isDiscarding()
+	{
+		return discard;
+	}
+
 	public void open(File file) throws IOException
 	{
 		String name = file.getName();
 		this.inputFile = file;
 
-		OutputStream gStream = new FileOutputStream(file);
+		if (isDiscarded(file))
+			{
+			discard = true;
+			return;
+			}
+
+		if (isStandardOutput(file))
+			{
+			// Written uncompressed, as the next tool in the pipe expects plain FASTQ
+			stream = new FileOutputStream(FileDescriptor.out);
+			buffer = new byte[PIPE_BUFFER_SIZE];
+			bufferPos = 0;
+			return;
+			}
+
+		OutputStream gStream;
+		if (asyncWriteSize > 0)
+			gStream = new AsyncFileOutputStream(file, asyncWriteSize);
+		else
+			gStream = new FileOutputStream(file);
 
 		if (name.endsWith(".gz"))
 			{
-			gStream = new GZIPOutputStream(gStream);
+			if (bgzf)
+				gStream = new BGZFOutputStream(gStream, compressionThreads, new File(file.getPath() + ".gzi"));
+			else if (compressionThreads > 1)
+				gStream = new ParallelGZIPOutputStream(gStream, compressionThreads, Deflater.DEFAULT_COMPRESSION, gzipDictionary);
+			else
+				gStream = new GZIPOutputStream(gStream);
 			}
 		else if (name.endsWith(".bz2"))
 			{
-			gStream = new BZip2OutputStream(gStream);
+			if (compressionThreads > 1)
+				gStream = new ParallelBZip2OutputStream(gStream, compressionThreads, ParallelBZip2OutputStream.DEFAULT_BLOCK_SIZE_LEVEL, verifyBzip2);
+			else
+				gStream = new BZip2OutputStream(gStream);
 			}
 
-		// stream=new OutputStreamWriter(new BufferedOutputStream(gStream));
+		stream = gStream;
+		buffer = new byte[FILE_BUFFER_SIZE];
+		bufferPos = 0;
+	}
 
-		stream = new BufferedWriter(new OutputStreamWriter(gStream), 32768);
+	private void flushBuffer() throws IOException
+	{
+		if (bufferPos > 0)
+			stream.write(buffer, 0, bufferPos);
+
+		bufferPos = 0;
 	}
 
 	public void close() throws IOException
 	{
-		stream.close();
+		if (discard)
+			return;
+
+		try
+			{
+			flushBuffer();
+			}
+		finally
+			{
+			stream.close();
+			}
+	}
+
+	/**
+	 * Copies input bytes into the buffer, or past it straight to the stream if they would not fit anyway.
+	 */
+
+	private void writeRaw(byte data[], int offset, int length) throws IOException
+	{
+		if (length > buffer.length - bufferPos)
+			{
+			flushBuffer();
+			if (length >= buffer.length)
+				{
+				stream.write(data, offset, length);
+				return;
+				}
+			}
+
+		System.arraycopy(data, offset, buffer, bufferPos, length);
+		bufferPos += length;
+	}
+
+	/**
+	 * Writes a block of records. Runs of untouched records that were adjacent in the input go out as
+	 * one copy of their input bytes.
+	 */
+
+	public void writeRecords(List<FastqRecord> records) throws IOException
+	{
+		if (discard)
+			return;
+
+		byte runData[] = null;
+		int runOffset = 0, runLength = 0;
+
+		for (FastqRecord record : records)
+			{
+			if (isPassthrough(record) && record.getData() == runData && record.getRawOffset() == runOffset + runLength)
+				{
+				runLength += record.getRawLength();
+				continue;
+				}
+
+			if (runData != null)
+				writeRaw(runData, runOffset, runLength);
+			runData = null;
+
+			if (isPassthrough(record))
+				{
+				runData = record.getData();
+				runOffset = record.getRawOffset();
+				runLength = record.getRawLength();
+				}
+			else
+				writeRecord(record);
+			}
+
+		if (runData != null)
+			writeRaw(runData, runOffset, runLength);
 	}
 
 	public void writeRecord(FastqRecord record) throws IOException
 	{
-		StringBuilder sb=new StringBuilder(500);
-	       
-	    sb.append('@');
-	    sb.append(record.getName());
-	    sb.append('\n');
-	    sb.append(record.getSequence());
-	    sb.append("\n+");
-	    sb.append(record.getComment());
-	    sb.append('\n');
-	    sb.append(record.getQuality());
-	    sb.append('\n');
-
-	    stream.write(sb.toString());
+		if (discard)
+			return;
+
+		if (isPassthrough(record))
+			{
+			writeRaw(record.getData(), record.getRawOffset(), record.getRawLength());
+			return;
+			}
+
+		int size = record.getNameLength() + record.getCommentLength() + 2 * record.getLength() + 6;
+
+		if (size > buffer.length - bufferPos)
+			{
+			flushBuffer();
+			if (size > buffer.length)
+				buffer = new byte[size];
+			}
+
+		int pos = bufferPos;
+
+		buffer[pos++] = '@';
+		pos = writeName(record, pos);
+		buffer[pos++] = '\n';
+		pos = record.copySequence(buffer, pos);
+		buffer[pos++] = '\n';
+		buffer[pos++] = '+';
+		if (!barePlus)
+			pos = record.copyComment(buffer, pos);
+		buffer[pos++] = '\n';
+		pos = record.copyQuality(buffer, pos);
+		buffer[pos++] = '\n';
+
+		bufferPos = pos;
+	}
+
+	/**
+	 * Writes the name as configured. Canonical and short names are both parts of the full name, so the
+	 * record size reserved for it is enough.
+	 */
+
+	private int writeName(FastqRecord record, int pos)
+	{
+		if (canonicalNames)
+			{
+			String canon = FastqNamePattern.canonicalize(record.getName());
+
+			if (canon != null)
+				{
+				for (int i = 0; i < canon.length(); i++)
+					buffer[pos + i] = (byte) canon.charAt(i);
+
+				return pos + canon.length();
+				}
+			}
+
+		int start = pos;
+		pos = record.copyName(buffer, pos);
+
+		if (shortNames || canonicalNames)
+			{
+			for (int i = start; i < pos; i++)
+				if (buffer[i] == ' ' || buffer[i] == '\t')
+					return i;
+			}
+
+		return pos;
 	}
 
 	public File getInputFile()
@@ -0,0 +1,134 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.usadellab.trimmomatic.util.Logger;
+
+/**
+ * Remembers detected quality encodings between runs, keyed on each file's path, length and modification
+ * time. The cache is a best-effort optimisation, so a cache which cannot be read is ignored, and one which
+ * cannot be written only warned about.
+ */
+
+public class PhredOffsetCache
+{
+	private static final int MAX_ENTRIES=10000;
+
+	private static File getCacheFile()
+	{
+		return new File(new File(System.getProperty("user.home"), ".trimmomatic"), "phred.properties");
+	}
+
+	private static String getKey(File file) throws IOException
+	{
+		return file.getCanonicalPath();
+	}
+
+	private static String getFingerprint(File file)
+	{
+		return file.length()+":"+file.lastModified();
+	}
+
+	private static Properties load(File cacheFile) throws IOException
+	{
+		Properties props=new Properties();
+
+		if(cacheFile.isFile())
+			{
+			InputStream in=new FileInputStream(cacheFile);
+			try
+				{
+				props.load(in);
+				}
+			finally
+				{
+				in.close();
+				}
+			}
+
+		return props;
+	}
+
+	/**
+	 * Returns the cached quality encoding of the file, or 0 if there is none for its current contents.
+	 */
+
+	public static synchronized int lookup(File file)
+	{
+		try
+			{
+			String value=load(getCacheFile()).getProperty(getKey(file));
+			if(value==null)
+				return 0;
+
+			int split=value.lastIndexOf(':');
+			if(split<0 || !value.substring(0, split).equals(getFingerprint(file)))
+				return 0;
+
+			return Integer.parseInt(value.substring(split+1));
+			}
+		catch(IOException e)
+			{
+			return 0;
+			}
+		catch(NumberFormatException e)
+			{
+			return 0;
+			}
+	}
+
+	public static synchronized void store(File file, int phredOffset, Logger logger)
+	{
+		File cacheFile=getCacheFile();
+
+		try
+			{
+			Properties props=load(cacheFile);
+
+			if(props.size()>=MAX_ENTRIES)
+				props.clear();
+
+			props.setProperty(getKey(file), getFingerprint(file)+":"+phredOffset);
+
+			// Replaced in one step, so concurrent runs never read a partial cache
+
+			File dir=cacheFile.getParentFile();
+			if(!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Unable to create "+dir);
+
+			File tmpFile=File.createTempFile("phred", ".tmp", dir);
+
+			OutputStream out=new FileOutputStream(tmpFile);
+			try
+				{
+				props.store(out, "Trimmomatic quality encoding cache");
+				}
+			finally
+				{
+				out.close();
+				}
+
+			if(!tmpFile.renameTo(cacheFile))
+				{
+				tmpFile.delete();
+				throw new IOException("Unable to replace "+cacheFile);
+				}
+			}
+		catch(IOException e)
+			{
+			// Detection simply runs again next time
+
+			logger.warnln("Warning: Unable to cache the quality encoding, "+e.getMessage());
+			}
+		catch(SecurityException e)
+			{
+			logger.warnln("Warning: Unable to cache the quality encoding, "+e.getMessage());
+			}
+	}
+}
@@ -17,6 +17,9 @@ public class BlockOfRecords
 	
 	private TrimStats stats;
 	
+	private long survivors;
+	private long survivorTotal;
+	
 	public BlockOfRecords(List<FastqRecord> originalRecs1, List<FastqRecord> originalRecs2)
 	{
 		this.originalRecs1=originalRecs1;
@@ -58,5 +61,29 @@ public class BlockOfRecords
 	{
 		this.stats = stats;
 	}
+
+	public long getSurvivors()
+	{
+		return survivors;
+	}
+
+	public void setSurvivors(long survivors)
+	{
+		this.survivors = survivors;
+	}
+
+	/**
+	 * Survivors of this and all earlier blocks, maintained only when there is a survivor target.
+	 */
+	
+	public long getSurvivorTotal()
+	{
+		return survivorTotal;
+	}
+
+	public void setSurvivorTotal(long survivorTotal)
+	{
+		this.survivorTotal = survivorTotal;
+	}
 	
 }
@@ -3,6 +3,7 @@ package org.usadellab.trimmomatic.threading;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.usadellab.trimmomatic.TrimStats;
 import org.usadellab.trimmomatic.fastq.FastqRecord;
@@ -17,9 +18,23 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 	private BlockOfRecords bor;
 	private boolean pe;
 	private boolean trimLog;
+	private boolean interleavedOutput;
+	
+	private long survivorTarget;
+	private Future<BlockOfRecords> previous;
 
 	
 	public BlockOfWork(Logger logger, Trimmer trimmers[], BlockOfRecords bor, boolean pe, boolean trimLog)
+	{
+		this(logger, trimmers, bor, pe, trimLog, false);
+	}
+
+	/**
+	 * With interleaved output, paired records are returned as a single alternating list, followed by
+	 * a single list of the unpaired records of both reads in input order.
+	 */
+	
+	public BlockOfWork(Logger logger, Trimmer trimmers[], BlockOfRecords bor, boolean pe, boolean trimLog, boolean interleavedOutput)
 	{
 		this.logger=logger;
 		
@@ -28,6 +43,7 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 		
 		this.pe = pe;
 		this.trimLog=trimLog;
+		this.interleavedOutput=interleavedOutput;
 	}
 
 	
@@ -49,10 +65,68 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 		return new TrimLogRecord(originalRec.getName(), length, startPos, endPos, trimTail);
 	}
 	
+	/**
+	 * Stops the output once the given number of reads (SE) or pairs (PE) have survived across all blocks. The
+	 * previous block's total is needed to find the cut, so only the block which reaches the target is trimmed twice.
+	 */
+	
+	public void setSurvivorTarget(long survivorTarget, Future<BlockOfRecords> previous)
+	{
+		this.survivorTarget=survivorTarget;
+		this.previous=previous;
+	}
+	
+	/**
+	 * Whether the given block has completed, and reached the survivor target, so parsing can stop.
+	 */
+	
+	public static boolean isSurvivorTargetReached(Future<BlockOfRecords> future, long survivorTarget)
+	{
+		if(future==null || !future.isDone())
+			return false;
+		
+		try
+			{
+			return future.get().getSurvivorTotal()>=survivorTarget;
+			}
+		catch(Exception e)
+			{
+			// Failures are reported by the workers which consume the block
+			return false;
+			}
+	}
+	
 	@Override
 	public BlockOfRecords call() throws Exception
+	{
+		if(survivorTarget<=0)
+			{
+			trim(Long.MAX_VALUE);
+			return bor;
+			}
+		
+		// Blocks run in submission order, so the previous block is already running or done
+		
+		if(previous!=null && previous.isDone() && previous.get().getSurvivorTotal()>=survivorTarget)
+			trim(0);
+		else
+			trim(Long.MAX_VALUE);
+		
+		long previousTotal=previous==null ? 0 : previous.get().getSurvivorTotal();
+		long remaining=Math.max(survivorTarget-previousTotal, 0);
+		
+		if(bor.getSurvivors()>remaining)
+			trim(remaining);
+		
+		bor.setSurvivorTotal(previousTotal+bor.getSurvivors());
+		
+		return bor;
+	}
+	
+	private void trim(long maxSurvivors)
 	{
 		TrimStats stats=new TrimStats();
+		long survivors=0;
 	
 		if (pe)
 			{
@@ -70,7 +144,7 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 					trimmedRecs.add(null);
 				
 				bor.setTrimmedRecs(trimmedRecs, null);
-				return bor;
+				return;
 				}
 			
 			int len = len1 < len2 ? len1 : len2;
@@ -86,7 +160,7 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 			if(trimLog)
 				trimLogList=new ArrayList<TrimLogRecord>();
 			
-			for (int i = 0; i < len; i++)
+			for (int i = 0; i < len && survivors < maxSurvivors; i++)
 				{
 				originalRecs[0]=originalRecs1.get(i);
 				originalRecs[1]=originalRecs2.get(i);
@@ -107,13 +181,23 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 				
 				if(recs[0]!=null && recs[1]!=null)
 					{
+					survivors++;
 					trimmedRecs1P.add(recs[0]);
-					trimmedRecs2P.add(recs[1]);
+					
+					if(interleavedOutput)
+						trimmedRecs1P.add(recs[1]);
+					else
+						trimmedRecs2P.add(recs[1]);
 					}
 				else if(recs[0]!=null)
 					trimmedRecs1U.add(recs[0]);
 				else if(recs[1]!=null)
-					trimmedRecs2U.add(recs[1]);
+					{
+					if(interleavedOutput)
+						trimmedRecs1U.add(recs[1]);
+					else
+						trimmedRecs2U.add(recs[1]);
+					}
 				
 				stats.logPair(originalRecs, recs);
 				
@@ -130,11 +214,16 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 			List<List<FastqRecord>> trimmedRecsList=new ArrayList<List<FastqRecord>>();
 			trimmedRecsList.add(trimmedRecs1P);
 			trimmedRecsList.add(trimmedRecs1U);
-			trimmedRecsList.add(trimmedRecs2P);
-			trimmedRecsList.add(trimmedRecs2U);
+			
+			if(!interleavedOutput)
+				{
+				trimmedRecsList.add(trimmedRecs2P);
+				trimmedRecsList.add(trimmedRecs2U);
+				}
 			
 			bor.setTrimmedRecs(trimmedRecsList, trimLogList);
 			bor.setStats(stats);			
+			bor.setSurvivors(survivors);
 			}
 		else
 			{
@@ -149,7 +238,7 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 					trimmedRecs.add(null);
 				
 				bor.setTrimmedRecs(trimmedRecs, null);
-				return bor;
+				return;
 				}
 			
 			FastqRecord originalRecs[]=new FastqRecord[1];
@@ -160,7 +249,7 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 			if(trimLog)
 				trimLogList=new ArrayList<TrimLogRecord>();
 			
-			for (int i = 0; i < len; i++)
+			for (int i = 0; i < len && survivors < maxSurvivors; i++)
 				{
 				originalRecs[0]=originalRecsL.get(i);
 				FastqRecord recs[]=originalRecs;
@@ -180,7 +269,10 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 					}
 				
 				if(recs[0]!=null)
+					{
+					survivors++;
 					trimmedRecs.add(recs[0]);
+					}
 
 				stats.logPair(originalRecs, recs);
 				
@@ -196,8 +288,7 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 			
 			bor.setTrimmedRecs(trimmedRecsList, trimLogList);
 			bor.setStats(stats);
+			bor.setSurvivors(survivors);
 			}
-
-		return bor;
 	}
 }
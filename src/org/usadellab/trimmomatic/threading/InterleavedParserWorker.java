@@ -0,0 +1,97 @@
+package org.usadellab.trimmomatic.threading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.usadellab.trimmomatic.fastq.FastqParser;
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Parses a single file of alternating forward and reverse records, queueing matching blocks of
+ * each to the two parser queues, exactly as a pair of ParserWorkers would produce them.
+ */
+
+public class InterleavedParserWorker implements Runnable
+{
+	private FastqParser parser;
+	private ArrayBlockingQueue<List<FastqRecord>> parser1Queue;
+	private ArrayBlockingQueue<List<FastqRecord>> parser2Queue;
+	private AtomicBoolean complete;
+
+	public InterleavedParserWorker(FastqParser parser, ArrayBlockingQueue<List<FastqRecord>> parser1Queue,
+			ArrayBlockingQueue<List<FastqRecord>> parser2Queue)
+	{
+		this.parser=parser;
+		this.parser1Queue=parser1Queue;
+		this.parser2Queue=parser2Queue;
+
+		this.complete=new AtomicBoolean();
+	}
+
+	public boolean isComplete()
+	{
+		return complete.get();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+			{
+			List<FastqRecord> recs1=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+			List<FastqRecord> recs2=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+
+			while(parser.hasNext())
+				{
+				FastqRecord rec1=parser.next();
+
+				if(!parser.hasNext())
+					throw new RuntimeException("Interleaved input has an unpaired final record: "+rec1.getName());
+
+				recs1.add(rec1);
+				recs2.add(parser.next());
+
+				if(recs1.size()>=ParserWorker.BLOCKSIZE)
+					{
+					parser1Queue.put(recs1);
+					parser2Queue.put(recs2);
+					recs1=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+					recs2=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+					}
+				}
+
+			if(recs1.size()>0)
+				{
+				parser1Queue.put(recs1);
+				parser2Queue.put(recs2);
+				}
+			}
+		catch(IOException e)
+			{
+			e.printStackTrace();
+			throw new RuntimeException(e);
+			}
+		catch(InterruptedException e)
+			{
+			e.printStackTrace();
+			throw new RuntimeException(e);
+			}
+		finally
+			{
+			complete.set(true);
+			try
+				{
+				parser1Queue.put(new ArrayList<FastqRecord>());
+				parser2Queue.put(new ArrayList<FastqRecord>());
+				}
+			catch(InterruptedException e)
+				{
+				e.printStackTrace();
+				throw new RuntimeException(e);
+				}
+			}
+	}
+}
@@ -41,8 +41,7 @@ public class SerializerWorker implements Runnable
 
 			while(recs!=null)
 				{
-				for(FastqRecord rec: recs)
-					serializer.writeRecord(rec);
+				serializer.writeRecords(recs);
 				
 				future=serializerQueue.take();
 				bor=future.get();
@@ -0,0 +1,205 @@
+package org.usadellab.trimmomatic.threading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.usadellab.trimmomatic.fastq.FastqIndex;
+import org.usadellab.trimmomatic.fastq.FastqParser;
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.util.GzipIndex;
+
+/**
+ * Parses paired files as a series of record ranges on a pool of threads, using their .fqi indexes,
+ * and for gzip files their checkpoint indexes.
+ * Each task parses the same records from both files, and the blocks are queued to both parser
+ * queues in file order, exactly as a pair of ParserWorkers would produce them.
+ */
+
+public class SplitPairParserWorker implements Runnable
+{
+	public static final int RANGE_RECORDS=20000;
+
+	private static final int RANGES_PER_THREAD=2;
+
+	private File file1, file2;
+	private FastqIndex index1, index2;
+	private GzipIndex gzipIndex1, gzipIndex2;
+	private FastqParser template;
+	private int threads;
+	private ArrayBlockingQueue<List<FastqRecord>> parser1Queue;
+	private ArrayBlockingQueue<List<FastqRecord>> parser2Queue;
+	private AtomicBoolean complete;
+
+	/**
+	 * Each range is parsed by a copy of the template parser, so both files are read with the same settings.
+	 */
+
+	public SplitPairParserWorker(File file1, FastqIndex index1, GzipIndex gzipIndex1, File file2, FastqIndex index2,
+			GzipIndex gzipIndex2, FastqParser template, int threads,
+			ArrayBlockingQueue<List<FastqRecord>> parser1Queue, ArrayBlockingQueue<List<FastqRecord>> parser2Queue)
+	{
+		if(index1.getRecordCount()!=index2.getRecordCount())
+			throw new IllegalArgumentException("Paired files have different numbers of records: "+
+					index1.getRecordCount()+" vs "+index2.getRecordCount());
+
+		this.file1=file1;
+		this.file2=file2;
+		this.index1=index1;
+		this.index2=index2;
+		this.gzipIndex1=gzipIndex1;
+		this.gzipIndex2=gzipIndex2;
+		this.template=template;
+		this.threads=threads;
+		this.parser1Queue=parser1Queue;
+		this.parser2Queue=parser2Queue;
+
+		this.complete=new AtomicBoolean();
+	}
+
+	public boolean isComplete()
+	{
+		return complete.get();
+	}
+
+	@Override
+	public void run()
+	{
+		ExecutorService executor=Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread=new Thread(r, "Range parser");
+				thread.setDaemon(true);
+				return thread;
+			}
+			});
+
+		try
+			{
+			ArrayDeque<Future<List<List<FastqRecord>>>> pending1=new ArrayDeque<Future<List<List<FastqRecord>>>>();
+			ArrayDeque<Future<List<List<FastqRecord>>>> pending2=new ArrayDeque<Future<List<List<FastqRecord>>>>();
+
+			long total=index1.getRecordCount();
+			long next=0;
+
+			while(next<total || !pending1.isEmpty())
+				{
+				while(next<total && pending1.size()<threads*RANGES_PER_THREAD)
+					{
+					long count=Math.min(total-next, RANGE_RECORDS);
+					pending1.add(executor.submit(new RangeTask(file1, index1, gzipIndex1, next, count)));
+					pending2.add(executor.submit(new RangeTask(file2, index2, gzipIndex2, next, count)));
+					next+=count;
+					}
+
+				List<List<FastqRecord>> blocks1=pending1.poll().get();
+				List<List<FastqRecord>> blocks2=pending2.poll().get();
+
+				// An empty block marks the end of input, so a short range in either file is an error
+
+				if(blocks1.size()!=blocks2.size())
+					throw new RuntimeException("Paired files do not match their indexes");
+
+				for(int i=0;i<blocks1.size();i++)
+					{
+					if(blocks1.get(i).size()!=blocks2.get(i).size())
+						throw new RuntimeException("Paired files do not match their indexes");
+
+					parser1Queue.put(blocks1.get(i));
+					parser2Queue.put(blocks2.get(i));
+					}
+				}
+			}
+		catch(ExecutionException e)
+			{
+			e.printStackTrace();
+			throw new RuntimeException(e.getCause());
+			}
+		catch(InterruptedException e)
+			{
+			e.printStackTrace();
+			throw new RuntimeException(e);
+			}
+		finally
+			{
+			executor.shutdownNow();
+
+			complete.set(true);
+			try
+				{
+				parser1Queue.put(new ArrayList<FastqRecord>());
+				parser2Queue.put(new ArrayList<FastqRecord>());
+				}
+			catch(InterruptedException e)
+				{
+				e.printStackTrace();
+				throw new RuntimeException(e);
+				}
+			}
+	}
+
+	private class RangeTask implements Callable<List<List<FastqRecord>>>
+	{
+		private File file;
+		private FastqIndex index;
+		private GzipIndex gzipIndex;
+		private long first;
+		private long count;
+
+		private RangeTask(File file, FastqIndex index, GzipIndex gzipIndex, long first, long count)
+		{
+			this.file=file;
+			this.index=index;
+			this.gzipIndex=gzipIndex;
+			this.first=first;
+			this.count=count;
+		}
+
+		@Override
+		public List<List<FastqRecord>> call() throws IOException
+		{
+			FastqParser parser=new FastqParser(template);
+			parser.setGzipIndex(gzipIndex);
+
+			List<List<FastqRecord>> blocks=new ArrayList<List<FastqRecord>>();
+
+			parser.parseRecords(file, index, first, count);
+
+			try
+				{
+				List<FastqRecord> recs=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+
+				while(parser.hasNext())
+					{
+					recs.add(parser.next());
+					if(recs.size()>=ParserWorker.BLOCKSIZE)
+						{
+						blocks.add(recs);
+						recs=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+						}
+					}
+
+				if(recs.size()>0)
+					blocks.add(recs);
+				}
+			finally
+				{
+				parser.close();
+				}
+
+			return blocks;
+		}
+	}
+}
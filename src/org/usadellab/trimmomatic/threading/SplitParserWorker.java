@@ -0,0 +1,171 @@
+package org.usadellab.trimmomatic.threading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.usadellab.trimmomatic.fastq.FastqParser;
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.util.GzipIndex;
+
+/**
+ * Parses an uncompressed FASTQ file as a series of byte ranges on a pool of threads. The blocks
+ * of each range are queued in file order, exactly as ParserWorker would produce them. A gzip file
+ * with a checkpoint index is split likewise, with ranges ending on checkpoints.
+ */
+
+public class SplitParserWorker implements Runnable
+{
+	public static final long RANGE_SIZE=8*1024*1024;
+
+	private static final int RANGES_PER_THREAD=2;
+
+	private File file;
+	private GzipIndex gzipIndex;
+	private FastqParser template;
+	private int threads;
+	private ArrayBlockingQueue<List<FastqRecord>> parserQueue;
+	private AtomicBoolean complete;
+
+	/**
+	 * Each range is parsed by a copy of the template parser, so it is read with the same settings.
+	 */
+
+	public SplitParserWorker(File file, GzipIndex gzipIndex, FastqParser template, int threads,
+			ArrayBlockingQueue<List<FastqRecord>> parserQueue)
+	{
+		this.file=file;
+		this.gzipIndex=gzipIndex;
+		this.template=template;
+		this.threads=threads;
+		this.parserQueue=parserQueue;
+
+		this.complete=new AtomicBoolean();
+	}
+
+	public boolean isComplete()
+	{
+		return complete.get();
+	}
+
+	@Override
+	public void run()
+	{
+		ExecutorService executor=Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread=new Thread(r, "Range parser");
+				thread.setDaemon(true);
+				return thread;
+			}
+			});
+
+		try
+			{
+			ArrayDeque<Future<List<List<FastqRecord>>>> pending=new ArrayDeque<Future<List<List<FastqRecord>>>>();
+
+			long length=gzipIndex!=null ? gzipIndex.getUncompressedLength() : file.length();
+			long next=0;
+
+			while(next<length || !pending.isEmpty())
+				{
+				while(next<length && pending.size()<threads*RANGES_PER_THREAD)
+					{
+					long end=Math.min(length, next+RANGE_SIZE);
+					if(gzipIndex!=null)
+						end=gzipIndex.getCheckpointAfter(end);
+
+					pending.add(executor.submit(new RangeTask(next, end)));
+					next=end;
+					}
+
+				for(List<FastqRecord> recs: pending.poll().get())
+					parserQueue.put(recs);
+				}
+			}
+		catch(ExecutionException e)
+			{
+			e.printStackTrace();
+			throw new RuntimeException(e.getCause());
+			}
+		catch(InterruptedException e)
+			{
+			e.printStackTrace();
+			throw new RuntimeException(e);
+			}
+		finally
+			{
+			executor.shutdownNow();
+
+			complete.set(true);
+			try
+				{
+				parserQueue.put(new ArrayList<FastqRecord>());
+				}
+			catch(InterruptedException e)
+				{
+				e.printStackTrace();
+				throw new RuntimeException(e);
+				}
+			}
+	}
+
+	private class RangeTask implements Callable<List<List<FastqRecord>>>
+	{
+		private long start;
+		private long end;
+
+		private RangeTask(long start, long end)
+		{
+			this.start=start;
+			this.end=end;
+		}
+
+		@Override
+		public List<List<FastqRecord>> call() throws IOException
+		{
+			FastqParser parser=new FastqParser(template);
+			parser.setGzipIndex(gzipIndex);
+
+			List<List<FastqRecord>> blocks=new ArrayList<List<FastqRecord>>();
+
+			parser.parseRange(file, start, end);
+
+			try
+				{
+				List<FastqRecord> recs=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+
+				while(parser.hasNext())
+					{
+					recs.add(parser.next());
+					if(recs.size()>=ParserWorker.BLOCKSIZE)
+						{
+						blocks.add(recs);
+						recs=new ArrayList<FastqRecord>(ParserWorker.BLOCKSIZE);
+						}
+					}
+
+				if(recs.size()>0)
+					blocks.add(recs);
+				}
+			finally
+				{
+				parser.close();
+				}
+
+			return blocks;
+		}
+	}
+}
@@ -26,7 +26,7 @@ public class LeadingTrimmer extends AbstractSingleRecordTrimmer
             for(int i=0;i<seq.length();i++)
                     {
                     if(quals[i]>=qual)
-                            return new FastqRecord(in,i,seq.length()-i);
+                            return i==0 ? in : new FastqRecord(in,i,seq.length()-i);
                     }
 
             return null;
@@ -24,7 +24,7 @@ public class TrailingTrimmer extends AbstractSingleRecordTrimmer
 		for(int i=quals.length-1;i>0;i--)
 			{
 			if(quals[i]>=qual)
-				return new FastqRecord(in,0,i+1);
+				return i==quals.length-1 ? in : new FastqRecord(in,0,i+1);
 			}
 		
 		return null;
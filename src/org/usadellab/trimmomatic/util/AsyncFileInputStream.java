@@ -0,0 +1,224 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file as a series of large blocks, keeping several asynchronous reads in flight ahead of the
+ * consumer. Network and parallel filesystems then see a few large concurrent requests rather than many
+ * small synchronous ones.
+ */
+
+public class AsyncFileInputStream extends InputStream
+{
+	public static final int DEFAULT_BLOCK_SIZE=4*1024*1024;
+	public static final int DEFAULT_READS_IN_FLIGHT=4;
+
+	private AsynchronousFileChannel channel;
+	private int blockSize;
+	private int readsInFlight;
+
+	private ArrayDeque<Block> pending;
+	private ArrayDeque<ByteBuffer> free;
+	private long nextReadPosition;
+
+	private ByteBuffer current;
+	private long position;
+	private boolean finished;
+
+	public AsyncFileInputStream(File file) throws IOException
+	{
+		this(file, DEFAULT_BLOCK_SIZE, DEFAULT_READS_IN_FLIGHT);
+	}
+
+	public AsyncFileInputStream(File file, int blockSize, int readsInFlight) throws IOException
+	{
+		if(blockSize<=0 || readsInFlight<=0)
+			throw new IllegalArgumentException("Asynchronous reads need a positive block size and number in flight");
+
+		this.channel=AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.blockSize=blockSize;
+		this.readsInFlight=readsInFlight;
+
+		this.pending=new ArrayDeque<Block>();
+		this.free=new ArrayDeque<ByteBuffer>();
+		this.nextReadPosition=0;
+
+		issueReads();
+	}
+
+	private void issueReads()
+	{
+		while(pending.size()<readsInFlight)
+			{
+			ByteBuffer buffer=free.isEmpty() ? ByteBuffer.allocate(blockSize) : free.poll();
+			buffer.clear();
+
+			pending.add(new Block(buffer, channel.read(buffer, nextReadPosition)));
+			nextReadPosition+=blockSize;
+			}
+	}
+
+	private int await(Block block) throws IOException
+	{
+		try
+			{
+			return block.future.get();
+			}
+		catch(InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted reading");
+			}
+		catch(ExecutionException e)
+			{
+			Throwable cause=e.getCause();
+
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+
+			throw new IOException(cause);
+			}
+	}
+
+	private boolean nextBlock() throws IOException
+	{
+		if(current!=null)
+			{
+			free.add(current);
+			current=null;
+			}
+
+		while(!finished)
+			{
+			Block block=pending.poll();
+			int read=await(block);
+
+			// A short read within the file is continued, so blocks are always complete until the end
+
+			while(read>0 && block.buffer.hasRemaining())
+				{
+				long position=nextReadPosition-(pending.size()+1)*(long)blockSize+block.buffer.position();
+				Block rest=new Block(block.buffer, channel.read(block.buffer, position));
+				read=await(rest);
+				}
+
+			block.buffer.flip();
+
+			if(block.buffer.remaining()<blockSize)
+				finished=true;
+			else
+				issueReads();
+
+			if(block.buffer.hasRemaining())
+				{
+				current=block.buffer;
+				return true;
+				}
+
+			free.add(block.buffer);
+			}
+
+		return false;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if((current==null || !current.hasRemaining()) && !nextBlock())
+			return -1;
+
+		position++;
+		return current.get()&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if((current==null || !current.hasRemaining()) && !nextBlock())
+			return -1;
+
+		int count=Math.min(len, current.remaining());
+		current.get(b, off, count);
+		position+=count;
+
+		return count;
+	}
+
+	/**
+	 * Skipping beyond the current block discards the reads in flight and restarts at the new position.
+	 */
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		if(n<=0)
+			return 0;
+
+		int available=current==null ? 0 : current.remaining();
+
+		if(n<=available)
+			{
+			current.position(current.position()+(int)n);
+			position+=n;
+			return n;
+			}
+
+		long start=position;
+		long target=Math.max(start, Math.min(start+n, channel.size()));
+
+		while(!pending.isEmpty())
+			{
+			Block block=pending.poll();
+			await(block);
+			free.add(block.buffer);
+			}
+
+		if(current!=null)
+			{
+			free.add(current);
+			current=null;
+			}
+
+		finished=false;
+		position=target;
+		nextReadPosition=target;
+		issueReads();
+
+		return target-start;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return current==null ? 0 : current.remaining();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	private static class Block
+	{
+		private ByteBuffer buffer;
+		private Future<Integer> future;
+
+		private Block(ByteBuffer buffer, Future<Integer> future)
+		{
+			this.buffer=buffer;
+			this.future=future;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a file through two large buffers: one is filled while an asynchronous write of the other is in
+ * flight, so the writer (and any compressor above it) only waits on the disk if it gets a whole buffer ahead.
+ */
+
+public class AsyncFileOutputStream extends OutputStream
+{
+	public static final int DEFAULT_BUFFER_SIZE=4*1024*1024;
+
+	private AsynchronousFileChannel channel;
+
+	private ByteBuffer current;
+	private ByteBuffer writing;
+	private Future<Integer> pendingWrite;
+	private long position;
+
+	private boolean closed;
+
+	public AsyncFileOutputStream(File file) throws IOException
+	{
+		this(file, DEFAULT_BUFFER_SIZE);
+	}
+
+	public AsyncFileOutputStream(File file, int bufferSize) throws IOException
+	{
+		if(bufferSize<=0)
+			throw new IllegalArgumentException("Asynchronous writes need a positive buffer size");
+
+		this.channel=AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		this.current=ByteBuffer.allocate(bufferSize);
+		this.writing=ByteBuffer.allocate(bufferSize);
+		this.position=0;
+	}
+
+	/**
+	 * Waits for the write in flight, continuing it if it was short, so the buffer is completely written.
+	 */
+
+	private void awaitWrite() throws IOException
+	{
+		while(pendingWrite!=null)
+			{
+			int written;
+
+			try
+				{
+				written=pendingWrite.get();
+				}
+			catch(InterruptedException e)
+				{
+				throw new InterruptedIOException("Interrupted writing");
+				}
+			catch(ExecutionException e)
+				{
+				Throwable cause=e.getCause();
+
+				if(cause instanceof IOException)
+					throw (IOException)cause;
+
+				throw new IOException(cause);
+				}
+			finally
+				{
+				pendingWrite=null;
+				}
+
+			position+=written;
+
+			if(writing.hasRemaining())
+				pendingWrite=channel.write(writing, position);
+			}
+	}
+
+	/**
+	 * Hands the filled buffer to the channel, after the previous one has been written.
+	 */
+
+	private void swapBuffers() throws IOException
+	{
+		awaitWrite();
+
+		ByteBuffer filled=current;
+		current=writing;
+		writing=filled;
+
+		current.clear();
+		writing.flip();
+
+		if(writing.hasRemaining())
+			pendingWrite=channel.write(writing, position);
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensureOpen();
+
+		if(!current.hasRemaining())
+			swapBuffers();
+
+		current.put((byte)b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		ensureOpen();
+
+		while(len>0)
+			{
+			if(!current.hasRemaining())
+				swapBuffers();
+
+			int count=Math.min(len, current.remaining());
+			current.put(b, off, count);
+
+			off+=count;
+			len-=count;
+			}
+	}
+
+	/**
+	 * Only starts writing what is buffered, since waiting here would defeat the double buffering.
+	 */
+
+	@Override
+	public void flush() throws IOException
+	{
+		ensureOpen();
+
+		if(current.position()>0)
+			swapBuffers();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+
+		try
+			{
+			if(current.position()>0)
+				swapBuffers();
+
+			awaitWrite();
+			}
+		finally
+			{
+			closed=true;
+			channel.close();
+			}
+	}
+}
@@ -0,0 +1,304 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF (blocked gzip): a series of gzip members of at most 64k each, followed by the
+ * standard empty EOF block. Blocks are compressed independently, on a pool of threads if requested.
+ *
+ * Optionally writes a bgzip-compatible .gzi index: the number of entries, followed by the compressed
+ * and uncompressed offset at the end of each block, all as little-endian 64 bit values.
+ */
+
+public class BGZFOutputStream extends OutputStream
+{
+	public static final int MAX_INPUT_SIZE=0xff00;
+
+	private static final int MAX_BLOCK_SIZE=65536;
+	private static final int BLOCK_HEADER_LENGTH=18;
+	private static final int BLOCK_TRAILER_LENGTH=8;
+	private static final int BLOCKS_PER_THREAD=4;
+
+	private static final byte EOF_BLOCK[]={31, (byte)139, 8, 4, 0, 0, 0, 0, 0, (byte)255, 6, 0, 66, 67, 2, 0,
+			27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+	private OutputStream out;
+	private ExecutorService executor;
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+	private int level;
+
+	private byte block[];
+	private int blockLength;
+
+	private File indexFile;
+	private long compressedOffset;
+	private long uncompressedOffset;
+	private long index[];
+	private int indexEntries;
+
+	private boolean closed;
+
+	public BGZFOutputStream(OutputStream out, int threads, File indexFile)
+	{
+		this(out, threads, Deflater.DEFAULT_COMPRESSION, indexFile);
+	}
+
+	public BGZFOutputStream(OutputStream out, int threads, int level, File indexFile)
+	{
+		this.out=out;
+		this.level=level;
+		this.indexFile=indexFile;
+
+		if(threads>1)
+			{
+			executor=CodecExecutor.get(threads);
+
+			pending=new ArrayDeque<Future<byte[]>>();
+			maxPending=threads*BLOCKS_PER_THREAD;
+			}
+
+		block=new byte[MAX_INPUT_SIZE];
+		blockLength=0;
+
+		if(indexFile!=null)
+			index=new long[1024];
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(blockLength==block.length)
+			submitBlock();
+
+		block[blockLength++]=(byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while(len>0)
+			{
+			if(blockLength==block.length)
+				submitBlock();
+
+			int count=Math.min(len, block.length-blockLength);
+			System.arraycopy(b, off, block, blockLength, count);
+			blockLength+=count;
+
+			off+=count;
+			len-=count;
+			}
+	}
+
+	private void submitBlock() throws IOException
+	{
+		if(blockLength==0)
+			return;
+
+		DeflateTask task=new DeflateTask(block, blockLength, level);
+
+		if(executor==null)
+			writeBlock(task.call(), blockLength);
+		else
+			{
+			while(pending.size()>=maxPending)
+				writeNext();
+
+			pending.add(executor.submit(task));
+			block=new byte[MAX_INPUT_SIZE];
+			}
+
+		blockLength=0;
+	}
+
+	private void writeNext() throws IOException
+	{
+		Future<byte[]> future=pending.poll();
+
+		try
+			{
+			byte compressed[]=future.get();
+			writeBlock(compressed, readInt(compressed, compressed.length-4));
+			}
+		catch(InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted waiting for compression");
+			}
+		catch(ExecutionException e)
+			{
+			throw new IOException(e.getCause());
+			}
+	}
+
+	private void writeBlock(byte compressed[], int inputLength) throws IOException
+	{
+		out.write(compressed);
+
+		compressedOffset+=compressed.length;
+		uncompressedOffset+=inputLength;
+
+		if(index!=null)
+			{
+			if(indexEntries*2==index.length)
+				index=Arrays.copyOf(index, index.length*2);
+
+			index[indexEntries*2]=compressedOffset;
+			index[indexEntries*2+1]=uncompressedOffset;
+			indexEntries++;
+			}
+	}
+
+	private static int readInt(byte buf[], int offset)
+	{
+		return (buf[offset]&0xFF)|((buf[offset+1]&0xFF)<<8)|((buf[offset+2]&0xFF)<<16)|((buf[offset+3]&0xFF)<<24);
+	}
+
+	private static void writeShort(byte buf[], int offset, int value)
+	{
+		buf[offset]=(byte)value;
+		buf[offset+1]=(byte)(value>>8);
+	}
+
+	private static void writeInt(byte buf[], int offset, int value)
+	{
+		writeShort(buf, offset, value);
+		writeShort(buf, offset+2, value>>16);
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		submitBlock();
+
+		if(pending!=null)
+			{
+			while(!pending.isEmpty())
+				writeNext();
+			}
+
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+
+		closed=true;
+
+		try
+			{
+			flush();
+			out.write(EOF_BLOCK);
+
+			if(indexFile!=null)
+				writeIndex();
+			}
+		finally
+			{
+			if(pending!=null)
+				{
+				for(Future<byte[]> future: pending)
+					future.cancel(true);
+
+				pending.clear();
+				}
+
+			out.close();
+			}
+	}
+
+	private void writeIndex() throws IOException
+	{
+		DataOutputStream indexStream=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+		try
+			{
+			indexStream.writeLong(Long.reverseBytes(indexEntries));
+
+			for(int i=0;i<indexEntries*2;i++)
+				indexStream.writeLong(Long.reverseBytes(index[i]));
+			}
+		finally
+			{
+			indexStream.close();
+			}
+	}
+
+	private static class DeflateTask implements Callable<byte[]>
+	{
+		private byte data[];
+		private int length;
+		private int level;
+
+		private DeflateTask(byte data[], int length, int level)
+		{
+			this.data=data;
+			this.length=length;
+			this.level=level;
+		}
+
+		private int deflate(byte buf[], int level)
+		{
+			Deflater deflater=new Deflater(level, true);
+
+			try
+				{
+				deflater.setInput(data, 0, length);
+				deflater.finish();
+
+				int len=BLOCK_HEADER_LENGTH;
+				int limit=MAX_BLOCK_SIZE-BLOCK_TRAILER_LENGTH;
+
+				while(!deflater.finished() && len<limit)
+					len+=deflater.deflate(buf, len, limit-len);
+
+				return deflater.finished() ? len : -1;
+				}
+			finally
+				{
+				deflater.end();
+				}
+		}
+
+		@Override
+		public byte[] call()
+		{
+			byte buf[]=new byte[MAX_BLOCK_SIZE];
+
+			int len=deflate(buf, level);
+
+			// Incompressible input can overflow the 64k block, so fall back to stored
+
+			if(len<0)
+				len=deflate(buf, Deflater.NO_COMPRESSION);
+
+			System.arraycopy(EOF_BLOCK, 0, buf, 0, 16);
+			writeShort(buf, 16, len+BLOCK_TRAILER_LENGTH-1);
+
+			CRC32 crc=new CRC32();
+			crc.update(data, 0, length);
+
+			writeInt(buf, len, (int)crc.getValue());
+			writeInt(buf, len+4, length);
+
+			return Arrays.copyOf(buf, len+BLOCK_TRAILER_LENGTH);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.usadellab.trimmomatic.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pool shared by the parallel compressing and decompressing streams, so the inputs and outputs of a
+ * run together use as many codec threads as requested, rather than that many each. The pool grows to the
+ * largest thread count asked for, and its threads exit when idle. Streams must not shut it down, but cancel
+ * their own pending tasks instead.
+ */
+
+public class CodecExecutor
+{
+	private static final long KEEP_ALIVE_SECONDS=5;
+
+	private static ThreadPoolExecutor executor;
+
+	public static synchronized ExecutorService get(int threads)
+	{
+		if(executor==null)
+			{
+			executor=new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+				{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread=new Thread(r, "Codec worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+				});
+
+			executor.allowCoreThreadTimeOut(true);
+			}
+		else if(threads>executor.getMaximumPoolSize())
+			{
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+			}
+
+		return executor;
+	}
+}
@@ -1,113 +1,284 @@
 package org.usadellab.trimmomatic.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a gzip stream of any number of concatenated members, as written by parallel compressors. A single
+ * Inflater is driven directly over a large input buffer and reset for each member, whose headers are parsed
+ * here, so many small members cost little more than one large one. Checksums can be skipped for trusted data.
+ */
 
 public class ConcatGZIPInputStream extends InputStream
 {
-	private PushbackInputStream source;
-	private GZIPHelperInputStream gzIn;
+	private static final int BUFFER_SIZE=256*1024;
+
+	private InputStream source;
+	private byte buf[]=new byte[BUFFER_SIZE];
+	private int bufPos;
+	private int bufLimit;
+
+	private Inflater inflater;
+	private CRC32 crc;
+	private boolean verifyChecksums;
+	private boolean checkMember;
+	private boolean finished;
+
+	private ByteSource bufferSource=new ByteSource()
+		{
+		@Override
+		public int readByte() throws IOException
+		{
+			return nextByte();
+		}
+		};
+
+	private byte singleByte[];
+	private byte skipBuf[];
 
 	public ConcatGZIPInputStream(InputStream in) throws IOException
 	{
-		source = new PushbackInputStream(in, 1024);
-		nextGzipInputStream();
+		this(in, true);
+	}
+
+	public ConcatGZIPInputStream(InputStream in, boolean verifyChecksums) throws IOException
+	{
+		this.source=in;
+		this.inflater=new Inflater(true);
+		this.crc=new CRC32();
+		this.verifyChecksums=verifyChecksums;
+		this.checkMember=verifyChecksums;
+
+		finished=!readHeader(bufferSource);
 	}
 
-	private void nextGzipInputStream() throws IOException
+	/**
+	 * Starts within a member, at a deflate block boundary, with 'prefix' read ahead of the source and 'window' as the
+	 * preceding data. The rest of that member cannot be checked, but following members are.
+	 */
+
+	ConcatGZIPInputStream(InputStream in, byte prefix[], byte window[], boolean verifyChecksums)
+	{
+		this.source=in;
+		this.inflater=new Inflater(true);
+		this.crc=new CRC32();
+		this.verifyChecksums=verifyChecksums;
+		this.checkMember=false;
+
+		System.arraycopy(prefix, 0, buf, 0, prefix.length);
+		bufLimit=prefix.length;
+
+		inflater.setDictionary(window);
+	}
+
+	interface ByteSource
+	{
+		/**
+		 * Returns the next compressed byte, or -1 at the end of the input.
+		 */
+
+		int readByte() throws IOException;
+	}
+
+	/**
+	 * Reads a gzip member header, returning false if the input ends cleanly before it.
+	 */
+
+	static boolean readHeader(ByteSource source) throws IOException
 	{
-		boolean more=false;
-		
-		if((gzIn!=null)&&(gzIn.pushbackUnused()>0))
-				more=true;
-	
-		if(!more)
+		int id1=source.readByte();
+		if(id1<0)
+			return false;
+
+		if(id1!=0x1f || readRequiredByte(source)!=0x8b)
+			throw new ZipException("Not in GZIP format");
+
+		if(readRequiredByte(source)!=8)
+			throw new ZipException("Unsupported compression method");
+
+		int flags=readRequiredByte(source);
+
+		for(int i=0;i<6;i++)
+			readRequiredByte(source);
+
+		if((flags&4)!=0)
 			{
-			int r=source.read();
-			if(r!=-1)
-				{
-				source.unread(r);
-				more=true;
-				}
+			int extraLength=readRequiredByte(source)|(readRequiredByte(source)<<8);
+			for(int i=0;i<extraLength;i++)
+				readRequiredByte(source);
 			}
-		
-		if(more)
+
+		if((flags&8)!=0)
+			while(readRequiredByte(source)!=0);
+
+		if((flags&16)!=0)
+			while(readRequiredByte(source)!=0);
+
+		if((flags&2)!=0)
 			{
-			gzIn=new GZIPHelperInputStream(source);
+			readRequiredByte(source);
+			readRequiredByte(source);
 			}
-		else
-			gzIn=null;
+
+		return true;
 	}
-		
-	@Override
-	public void close() throws IOException
+
+	private static int readRequiredByte(ByteSource source) throws IOException
 	{
-		gzIn=null;
-		source.close();
+		int b=source.readByte();
+		if(b<0)
+			throw new EOFException("Unexpected end of ZLIB input stream");
+
+		return b;
 	}
 
-	@Override
-	public int read() throws IOException
+	private int fill() throws IOException
+	{
+		int len=source.read(buf, 0, buf.length);
+
+		bufPos=0;
+		bufLimit=Math.max(len, 0);
+
+		return len;
+	}
+
+	private int nextByte() throws IOException
 	{
-		int res=-1;
-		
-		while(res==-1 && gzIn!=null)
+		if(bufPos==bufLimit && fill()<=0)
+			return -1;
+
+		return buf[bufPos++]&0xFF;
+	}
+
+	private long readTrailerInt() throws IOException
+	{
+		long value=0;
+
+		for(int i=0;i<4;i++)
 			{
-			res=gzIn.read();
-			if(res==-1)
-				nextGzipInputStream();
+			int b=nextByte();
+			if(b<0)
+				throw new EOFException("Unexpected end of ZLIB input stream");
+
+			value|=((long)b)<<(i*8);
 			}
 
-		return res;
+		return value;
 	}
 
-	@Override
-	public int read(byte[] b, int off, int len) throws IOException
+	/**
+	 * Checks the trailer of the finished member, then moves on to the next one. Anything other than another
+	 * member is ignored, as gzip itself does with trailing padding.
+	 */
+
+	private void nextMember() throws IOException
 	{
-		int res=-1;
-	
-		while(res==-1 && gzIn!=null)
+		// The Inflater hands back whole unused bytes, so the trailer starts exactly there
+
+		bufPos=bufLimit-inflater.getRemaining();
+
+		long expectedCrc=readTrailerInt();
+		long expectedSize=readTrailerInt();
+
+		if(checkMember && (expectedCrc!=crc.getValue() || expectedSize!=(inflater.getBytesWritten()&0xFFFFFFFFL)))
+			throw new ZipException("Corrupt GZIP trailer");
+
+		if((bufPos==bufLimit && fill()<=0) || (buf[bufPos]&0xFF)!=0x1f)
 			{
-			res=gzIn.read(b,off,len);
-			if(res==-1)
-				nextGzipInputStream();
+			finished=true;
+			return;
 			}
-		
-		return res;
+
+		readHeader(bufferSource);
+
+		inflater.reset();
+		crc.reset();
+		checkMember=verifyChecksums;
 	}
 
 	@Override
-	public int read(byte[] b) throws IOException
+	public int read() throws IOException
 	{
-		int res=-1;
-	
-		while(res==-1 && gzIn!=null)
+		if(singleByte==null)
+			singleByte=new byte[1];
+
+		int len=read(singleByte, 0, 1);
+
+		return len<0 ? -1 : singleByte[0]&0xFF;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		try
 			{
-			res=gzIn.read(b);
-			if(res==-1)
-				nextGzipInputStream();
+			while(!finished)
+				{
+				if(inflater.needsInput())
+					{
+					if(bufPos==bufLimit && fill()<=0)
+						throw new EOFException("Unexpected end of ZLIB input stream");
+
+					inflater.setInput(buf, bufPos, bufLimit-bufPos);
+					bufPos=bufLimit;
+					}
+
+				int read=inflater.inflate(b, off, len);
+
+				if(read>0)
+					{
+					if(checkMember)
+						crc.update(b, off, read);
+
+					return read;
+					}
+
+				if(inflater.finished())
+					nextMember();
+				else if(inflater.needsDictionary())
+					throw new ZipException("Unexpected preset dictionary in gzip member");
+				}
+			}
+		catch(DataFormatException e)
+			{
+			String message=e.getMessage();
+			throw new ZipException(message!=null ? message : "Invalid ZLIB data format");
 			}
 
-		return res;	
+		return -1;
 	}
 
-	private class GZIPHelperInputStream extends GZIPInputStream
+	@Override
+	public long skip(long n) throws IOException
 	{
-		private GZIPHelperInputStream(InputStream in) throws IOException
-		{
-			super(in);
-		}
-		
-		private int pushbackUnused() throws IOException
-		{
-			int amount=inf.getRemaining()-8;
-			if(amount>0)
-				source.unread(buf, len-amount, amount);
-			
-			return amount;
-		}
+		if(skipBuf==null)
+			skipBuf=new byte[65536];
+
+		long skipped=0;
+		while(skipped<n)
+			{
+			int len=read(skipBuf, 0, (int)Math.min(skipBuf.length, n-skipped));
+			if(len<0)
+				break;
+			skipped+=len;
+			}
+
+		return skipped;
 	}
 
+	@Override
+	public void close() throws IOException
+	{
+		finished=true;
+		inflater.end();
+		source.close();
+	}
 }
@@ -0,0 +1,119 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reads a file which is still being written, like tail -f. At the current end of the file, reads
+ * block while polling for growth, until either the sentinel file appears or the size stays the
+ * same for the stable period. Either may be disabled, with a null sentinel or a stable period of 0.
+ */
+
+public class FollowInputStream extends InputStream
+{
+	public static final long DEFAULT_POLL_MILLIS=1000;
+
+	private File file;
+	private File sentinel;
+	private long stableMillis;
+	private long pollMillis;
+
+	private FileInputStream in;
+
+	private long lastLength;
+	private long lastChange;
+	private boolean finished;
+
+	public FollowInputStream(File file, File sentinel, long stableMillis) throws IOException
+	{
+		this(file, sentinel, stableMillis, DEFAULT_POLL_MILLIS);
+	}
+
+	public FollowInputStream(File file, File sentinel, long stableMillis, long pollMillis) throws IOException
+	{
+		if(sentinel==null && stableMillis<=0)
+			throw new IllegalArgumentException("Following a file needs a sentinel file or a stable period");
+
+		this.file=file;
+		this.sentinel=sentinel;
+		this.stableMillis=stableMillis;
+		this.pollMillis=pollMillis;
+
+		this.in=new FileInputStream(file);
+
+		this.lastLength=file.length();
+		this.lastChange=System.currentTimeMillis();
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte b[]=new byte[1];
+		int len=read(b, 0, 1);
+
+		return len<0 ? -1 : b[0]&0xFF;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		while(true)
+			{
+			int read=in.read(b, off, len);
+
+			if(read>=0 || finished)
+				return read;
+
+			// The sentinel is written after the last data, so one more read after seeing it gets everything
+
+			if(sentinel!=null && sentinel.exists())
+				{
+				finished=true;
+				continue;
+				}
+
+			long now=System.currentTimeMillis();
+			long length=file.length();
+
+			if(length!=lastLength)
+				{
+				lastLength=length;
+				lastChange=now;
+				continue;
+				}
+
+			if(stableMillis>0 && now-lastChange>=stableMillis)
+				{
+				finished=true;
+				continue;
+				}
+
+			try
+				{
+				Thread.sleep(pollMillis);
+				}
+			catch(InterruptedException e)
+				{
+				throw new InterruptedIOException("Interrupted following "+file);
+				}
+			}
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return in.available();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -0,0 +1,938 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Sidecar index (.gzx) of a gzip file, holding inflate checkpoints every few MB of uncompressed data, in the
+ * manner of zlib's zran example. Each checkpoint records the bit position of a deflate block or member, and the
+ * 32KB of data preceding it, so decompression can start there instead of at the beginning of the file.
+ */
+
+public class GzipIndex
+{
+	public static final long DEFAULT_SPACING=4*1024*1024;
+	public static final String EXTENSION=".gzx";
+
+	private static final int MAGIC=0x475A5832;
+
+	private static final int WINDOW_SIZE=32768;
+	private static final int WINDOW_MASK=WINDOW_SIZE-1;
+	private static final int BUFFER_SIZE=65536;
+
+	private long fileLength;
+	private long uncompressedLength;
+	private long bitOffsets[];
+	private long uncompressedOffsets[];
+	private boolean memberStarts[];
+	private byte windows[][];
+
+	public GzipIndex(long fileLength, long uncompressedLength, long bitOffsets[], long uncompressedOffsets[],
+			boolean memberStarts[], byte windows[][])
+	{
+		this.fileLength=fileLength;
+		this.uncompressedLength=uncompressedLength;
+		this.bitOffsets=bitOffsets;
+		this.uncompressedOffsets=uncompressedOffsets;
+		this.memberStarts=memberStarts;
+		this.windows=windows;
+	}
+
+	public static File getIndexFile(File file)
+	{
+		return new File(file.getPath()+EXTENSION);
+	}
+
+	/**
+	 * Decodes the whole file once, recording a checkpoint at the first block boundary or member start after each
+	 * 'spacing' bytes of output. The JDK Inflater does not report block boundaries, so this uses its own decoder.
+	 */
+
+	public static GzipIndex build(File file, long spacing) throws IOException
+	{
+		Builder builder=new Builder(file, spacing);
+
+		try
+			{
+			byte buf[]=new byte[BUFFER_SIZE];
+			while(builder.read(buf, 0, buf.length)>=0)
+				;
+
+			return builder.getIndex();
+			}
+		finally
+			{
+			builder.close();
+			}
+	}
+
+	public static GzipIndex load(File indexFile) throws IOException
+	{
+		DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+		try
+			{
+			if(in.readInt()!=MAGIC)
+				throw new IOException("Not a gzip index: "+indexFile);
+
+			long fileLength=in.readLong();
+			long uncompressedLength=in.readLong();
+
+			int count=in.readInt();
+			long bitOffsets[]=new long[count];
+			long uncompressedOffsets[]=new long[count];
+			boolean memberStarts[]=new boolean[count];
+			byte windows[][]=new byte[count][];
+
+			for(int i=0;i<count;i++)
+				{
+				bitOffsets[i]=in.readLong();
+				uncompressedOffsets[i]=in.readLong();
+				memberStarts[i]=in.readBoolean();
+				windows[i]=new byte[in.readInt()];
+				in.readFully(windows[i]);
+				}
+
+			return new GzipIndex(fileLength, uncompressedLength, bitOffsets, uncompressedOffsets, memberStarts, windows);
+			}
+		finally
+			{
+			in.close();
+			}
+	}
+
+	/**
+	 * Loads the index belonging to the given gzip file, or returns null if there is none, or it no longer matches the file.
+	 */
+
+	public static GzipIndex loadFor(File file) throws IOException
+	{
+		File indexFile=getIndexFile(file);
+
+		if(!indexFile.isFile() || indexFile.lastModified()<file.lastModified())
+			return null;
+
+		GzipIndex index=load(indexFile);
+
+		if(index.fileLength!=file.length())
+			return null;
+
+		return index;
+	}
+
+	/**
+	 * Windows are stored deflated, since at one per checkpoint they make up almost all of the index.
+	 */
+
+	public void save(File indexFile) throws IOException
+	{
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+		try
+			{
+			out.writeInt(MAGIC);
+			out.writeLong(fileLength);
+			out.writeLong(uncompressedLength);
+
+			out.writeInt(bitOffsets.length);
+			for(int i=0;i<bitOffsets.length;i++)
+				{
+				out.writeLong(bitOffsets[i]);
+				out.writeLong(uncompressedOffsets[i]);
+				out.writeBoolean(memberStarts[i]);
+				out.writeInt(windows[i].length);
+				out.write(windows[i]);
+				}
+			}
+		finally
+			{
+			out.close();
+			}
+	}
+
+	public long getFileLength()
+	{
+		return fileLength;
+	}
+
+	public long getUncompressedLength()
+	{
+		return uncompressedLength;
+	}
+
+	public int getCheckpointCount()
+	{
+		return bitOffsets.length;
+	}
+
+	/**
+	 * Returns the uncompressed offset of the first checkpoint at or after the given offset, or the uncompressed
+	 * length if there is none. Ranges cut there start decompressing without any data to discard.
+	 */
+
+	public long getCheckpointAfter(long offset)
+	{
+		int pos=Arrays.binarySearch(uncompressedOffsets, offset);
+		if(pos<0)
+			pos=-pos-1;
+
+		return pos<uncompressedOffsets.length ? uncompressedOffsets[pos] : uncompressedLength;
+	}
+
+	public boolean isCheckpoint(long offset)
+	{
+		return Arrays.binarySearch(uncompressedOffsets, offset)>=0;
+	}
+
+	/**
+	 * Returns the index of the last checkpoint at or before the given offset.
+	 */
+
+	private int findCheckpoint(long offset)
+	{
+		int pos=Arrays.binarySearch(uncompressedOffsets, offset);
+		if(pos<0)
+			pos=-pos-2;
+
+		// Several checkpoints can share an offset, where members are empty, so start from the last
+
+		while(pos+1<uncompressedOffsets.length && uncompressedOffsets[pos+1]==offset)
+			pos++;
+
+		return pos;
+	}
+
+	/**
+	 * Returns the uncompressed byte just before a checkpoint, from its window, or -1 at the start of the data.
+	 * This lets a range starting on the checkpoint tell whether it also starts on a line.
+	 */
+
+	public int getPrecedingByte(long offset) throws IOException
+	{
+		int pos=findCheckpoint(offset);
+		if(pos<0 || uncompressedOffsets[pos]!=offset)
+			throw new IllegalArgumentException("No checkpoint at offset "+offset);
+
+		byte window[]=inflateWindow(windows[pos]);
+
+		return window.length>0 ? window[window.length-1]&0xFF : -1;
+	}
+
+	/**
+	 * Opens the file for reading uncompressed data from the given offset, starting at the last checkpoint before it.
+	 * Checksums are verified for each member read from its start.
+	 */
+
+	public InputStream open(File file, long offset, boolean verifyChecksums) throws IOException
+	{
+		int pos=findCheckpoint(offset);
+
+		InputStream in;
+		if(memberStarts[pos])
+			in=openMember(file, bitOffsets[pos], verifyChecksums);
+		else
+			in=openCheckpoint(file, bitOffsets[pos], inflateWindow(windows[pos]), verifyChecksums);
+
+		long remaining=offset-uncompressedOffsets[pos];
+		while(remaining>0)
+			{
+			long skipped=in.skip(remaining);
+			if(skipped<=0)
+				{
+				in.close();
+				throw new EOFException("Offset "+offset+" is beyond the end of "+file);
+				}
+			remaining-=skipped;
+			}
+
+		return in;
+	}
+
+	private static InputStream openMember(File file, long bitOffset, boolean verifyChecksums) throws IOException
+	{
+		FileInputStream in=new FileInputStream(file);
+
+		try
+			{
+			in.getChannel().position(bitOffset>>>3);
+
+			return new ConcatGZIPInputStream(in, verifyChecksums);
+			}
+		catch(IOException e)
+			{
+			in.close();
+			throw e;
+			}
+	}
+
+	/**
+	 * Resumes decoding within a member, with the window as the preceding data.
+	 */
+
+	private static InputStream openCheckpoint(File file, long bitOffset, byte window[], boolean verifyChecksums)
+			throws IOException
+	{
+		FileInputStream in=new FileInputStream(file);
+
+		try
+			{
+			in.getChannel().position(bitOffset>>>3);
+
+			int bit=(int)(bitOffset&7);
+			byte prefix[]=new byte[0];
+
+			if(bit>0)
+				{
+				int firstByte=in.read();
+				if(firstByte<0)
+					throw new EOFException("Unexpected end of gzip input");
+
+				prefix=createPrefix(bit, firstByte);
+				}
+
+			return new ConcatGZIPInputStream(in, prefix, window, verifyChecksums);
+			}
+		catch(IOException e)
+			{
+			in.close();
+			throw e;
+			}
+	}
+
+	private static byte[] deflateWindow(byte window[])
+	{
+		if(window.length==0)
+			return window;
+
+		Deflater deflater=new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(window);
+		deflater.finish();
+
+		ByteArrayOutputStream out=new ByteArrayOutputStream(window.length/2);
+		byte buf[]=new byte[8192];
+
+		while(!deflater.finished())
+			{
+			int len=deflater.deflate(buf);
+			out.write(buf, 0, len);
+			}
+
+		deflater.end();
+
+		return out.toByteArray();
+	}
+
+	private static byte[] inflateWindow(byte stored[]) throws IOException
+	{
+		if(stored.length==0)
+			return stored;
+
+		Inflater inflater=new Inflater();
+		inflater.setInput(stored);
+
+		byte window[]=new byte[WINDOW_SIZE];
+		int len=0;
+
+		try
+			{
+			while(!inflater.finished() && len<window.length)
+				{
+				int read=inflater.inflate(window, len, window.length-len);
+				if(read==0 && inflater.needsInput())
+					throw new IOException("Corrupt gzip index window");
+				len+=read;
+				}
+			}
+		catch(DataFormatException e)
+			{
+			throw new IOException("Corrupt gzip index window", e);
+			}
+		finally
+			{
+			inflater.end();
+			}
+
+		return Arrays.copyOf(window, len);
+	}
+
+	/**
+	 * Builds a run of empty, non-final deflate blocks 'bit' bits longer than a whole number of bytes, with the
+	 * first compressed byte of a checkpoint merged into its last byte above them. Fed to an Inflater ahead of
+	 * the following bytes, this resumes decoding at the checkpoint's bit position without shifting the data.
+	 * Empty fixed blocks are 10 bits long, so odd positions also need one 93-bit empty dynamic block.
+	 */
+
+	private static byte[] createPrefix(int bit, int firstByte)
+	{
+		BitWriter writer=new BitWriter();
+
+		int fixedBlocks;
+
+		if(bit%2==0)
+			fixedBlocks=bit/2;
+		else
+			{
+			fixedBlocks=((bit+3)/2)%4;
+
+			writer.write(0, 1);
+			writer.write(2, 2);
+
+			// 257 literal/length codes, 1 distance code, all 19 code length codes
+
+			writer.write(0, 5);
+			writer.write(0, 5);
+			writer.write(15, 4);
+
+			// Code length codes in transmission order; only 18 (index 2) and 1 (index 17) are used, coded as 1 and 0
+
+			for(int i=0;i<19;i++)
+				writer.write(i==2 || i==17 ? 1 : 0, 3);
+
+			// 256 unused literals as two runs of zeros, then end-of-block and the only distance, each of length 1
+
+			writer.write(1, 1);
+			writer.write(127, 7);
+			writer.write(1, 1);
+			writer.write(107, 7);
+			writer.write(0, 1);
+			writer.write(0, 1);
+
+			// End-of-block
+
+			writer.write(0, 1);
+			}
+
+		for(int i=0;i<fixedBlocks;i++)
+			{
+			writer.write(0, 1);
+			writer.write(1, 2);
+			writer.write(0, 7);
+			}
+
+		return writer.finish(firstByte&(0xFF<<bit));
+	}
+
+	private static class BitWriter
+	{
+		private ByteArrayOutputStream out=new ByteArrayOutputStream();
+		private int bits;
+		private int bitCount;
+
+		private void write(int value, int count)
+		{
+			bits|=value<<bitCount;
+			bitCount+=count;
+
+			while(bitCount>=8)
+				{
+				out.write(bits&0xFF);
+				bits>>>=8;
+				bitCount-=8;
+				}
+		}
+
+		private byte[] finish(int highBits)
+		{
+			out.write((bits|highBits)&0xFF);
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Decompresses a gzip file with a minimal deflate decoder which keeps track of bit positions and the window,
+	 * recording checkpoints as the data is read. The index is complete once the data has been read to the end,
+	 * so whatever else needs a pass over the data, such as a FASTQ index, can be built at the same time. Each
+	 * member's CRC and length are checked against its trailer, so an index is never built over corrupt data.
+	 */
+
+	public static class Builder extends InputStream implements ConcatGZIPInputStream.ByteSource
+	{
+		private static final int LENGTH_BASE[]={3,4,5,6,7,8,9,10,11,13,15,17,19,23,27,31,35,43,51,59,67,83,99,115,131,163,195,227,258};
+		private static final int LENGTH_EXTRA[]={0,0,0,0,0,0,0,0,1,1,1,1,2,2,2,2,3,3,3,3,4,4,4,4,5,5,5,5,0};
+		private static final int DISTANCE_BASE[]={1,2,3,4,5,7,9,13,17,25,33,49,65,97,129,193,257,385,513,769,1025,1537,2049,3073,4097,6145,8193,12289,16385,24577};
+		private static final int DISTANCE_EXTRA[]={0,0,0,0,1,1,2,2,3,3,4,4,5,5,6,6,7,7,8,8,9,9,10,10,11,11,12,12,13,13};
+		private static final int CODE_LENGTH_ORDER[]={16,17,18,0,8,7,9,6,10,5,11,4,12,3,13,2,14,1,15};
+
+		private static final int MAX_BITS=15;
+
+		private InputStream in;
+		private long fileLength;
+		private long spacing;
+
+		private byte buf[]=new byte[BUFFER_SIZE];
+		private int bufPos;
+		private int bufLimit;
+		private long bufStart;
+
+		private long bitBuf;
+		private int bitCount;
+
+		private byte window[]=new byte[WINDOW_SIZE];
+		private int windowPos;
+		private long memberOut;
+		private long totalOut;
+		private CRC32 crc=new CRC32();
+
+		// Decoded data not yet read, filled a block at a time
+
+		private byte pending[]=new byte[BUFFER_SIZE];
+		private int pendingPos;
+		private int pendingLimit;
+
+		private long bitOffsets[]=new long[64];
+		private long uncompressedOffsets[]=new long[64];
+		private boolean memberStarts[]=new boolean[64];
+		private byte windows[][]=new byte[64][];
+		private int count;
+		private long lastCheckpoint;
+
+		private long memberStart;
+		private boolean inMember;
+		private boolean lastBlock;
+		private boolean finished;
+
+		private int fixedLiteralTable[];
+		private int fixedDistanceTable[];
+
+		public Builder(File file, long spacing) throws IOException
+		{
+			if(spacing<1)
+				throw new IllegalArgumentException("Invalid checkpoint spacing "+spacing);
+
+			this.fileLength=file.length();
+			this.spacing=spacing;
+			this.in=new FileInputStream(file);
+
+			int lengths[]=new int[288];
+			Arrays.fill(lengths, 0, 144, 8);
+			Arrays.fill(lengths, 144, 256, 9);
+			Arrays.fill(lengths, 256, 280, 7);
+			Arrays.fill(lengths, 280, 288, 8);
+			fixedLiteralTable=buildTable(lengths, 0, 288);
+
+			Arrays.fill(lengths, 0, 30, 5);
+			fixedDistanceTable=buildTable(lengths, 0, 30);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			while(pendingPos==pendingLimit)
+				if(!step())
+					return -1;
+
+			return pending[pendingPos++]&0xFF;
+		}
+
+		@Override
+		public int read(byte b[], int off, int len) throws IOException
+		{
+			if(len==0)
+				return 0;
+
+			while(pendingPos==pendingLimit)
+				if(!step())
+					return -1;
+
+			int available=Math.min(len, pendingLimit-pendingPos);
+			System.arraycopy(pending, pendingPos, b, off, available);
+			pendingPos+=available;
+
+			return available;
+		}
+
+		/**
+		 * Returns the index, once all data has been read.
+		 */
+
+		public GzipIndex getIndex()
+		{
+			if(!finished)
+				throw new IllegalStateException("Gzip data has not been read to the end");
+
+			return new GzipIndex(fileLength, totalOut, Arrays.copyOf(bitOffsets, count),
+					Arrays.copyOf(uncompressedOffsets, count), Arrays.copyOf(memberStarts, count), Arrays.copyOf(windows, count));
+		}
+
+		/**
+		 * Reads the next member header, deflate block or member trailer, returning false at the end of the file.
+		 */
+
+		private boolean step() throws IOException
+		{
+			if(finished)
+				return false;
+
+			pendingPos=0;
+			pendingLimit=0;
+
+			if(!inMember)
+				{
+				memberStart=getBitPosition();
+
+				if(!ConcatGZIPInputStream.readHeader(this))
+					{
+					if(count==0)
+						throw new EOFException("Empty gzip file");
+
+					finished=true;
+					return false;
+					}
+
+				memberOut=0;
+				crc.reset();
+				inMember=true;
+				lastBlock=false;
+
+				return true;
+				}
+
+			if(lastBlock)
+				{
+				// Byte aligned trailer: CRC32, then the length modulo 2^32
+
+				alignToByte();
+
+				if(getBits(32)!=crc.getValue())
+					throw new IOException("Gzip member CRC does not match its trailer");
+
+				if(getBits(32)!=(memberOut&0xFFFFFFFFL))
+					throw new IOException("Gzip member length does not match its trailer");
+
+				inMember=false;
+
+				return true;
+				}
+
+			if(count==0 || totalOut-lastCheckpoint>=spacing)
+				{
+				if(count==bitOffsets.length)
+					{
+					bitOffsets=Arrays.copyOf(bitOffsets, count*2);
+					uncompressedOffsets=Arrays.copyOf(uncompressedOffsets, count*2);
+					memberStarts=Arrays.copyOf(memberStarts, count*2);
+					windows=Arrays.copyOf(windows, count*2);
+					}
+
+				bitOffsets[count]=memberOut==0 ? memberStart : getBitPosition();
+				uncompressedOffsets[count]=totalOut;
+				memberStarts[count]=memberOut==0;
+				windows[count]=deflateWindow(getWindow());
+				count++;
+
+				lastCheckpoint=totalOut;
+				}
+
+			lastBlock=getBits(1)==1;
+
+			switch((int)getBits(2))
+				{
+				case 0:
+					storedBlock();
+					break;
+				case 1:
+					huffmanBlock(fixedLiteralTable, fixedDistanceTable);
+					break;
+				case 2:
+					dynamicBlock();
+					break;
+				default:
+					throw new IOException("Invalid deflate block type");
+				}
+
+			crc.update(pending, 0, pendingLimit);
+
+			return true;
+		}
+
+		private long getBitPosition()
+		{
+			return (bufStart+bufPos)*8-bitCount;
+		}
+
+		/**
+		 * The window runs on across members, so a member start also knows the data before it.
+		 */
+
+		private byte[] getWindow()
+		{
+			int size=(int)Math.min(totalOut, WINDOW_SIZE);
+			byte copy[]=new byte[size];
+
+			int start=(windowPos-size)&WINDOW_MASK;
+			int firstPart=Math.min(size, WINDOW_SIZE-start);
+
+			System.arraycopy(window, start, copy, 0, firstPart);
+			System.arraycopy(window, 0, copy, firstPart, size-firstPart);
+
+			return copy;
+		}
+
+		private int nextByte() throws IOException
+		{
+			if(bufPos==bufLimit)
+				{
+				bufStart+=bufLimit;
+				bufPos=0;
+				bufLimit=Math.max(in.read(buf, 0, buf.length), 0);
+
+				if(bufLimit==0)
+					return -1;
+				}
+
+			return buf[bufPos++]&0xFF;
+		}
+
+		/**
+		 * Only called on byte boundaries, taking whole bytes left in the bit buffer first.
+		 */
+
+		@Override
+		public int readByte() throws IOException
+		{
+			if(bitCount>=8)
+				return (int)getBits(8);
+
+			return nextByte();
+		}
+
+		private void need(int count) throws IOException
+		{
+			while(bitCount<count)
+				{
+				int b=nextByte();
+				if(b<0)
+					throw new EOFException("Unexpected end of gzip input");
+
+				bitBuf|=((long)b)<<bitCount;
+				bitCount+=8;
+				}
+		}
+
+		private void alignToByte()
+		{
+			int drop=bitCount%8;
+
+			bitBuf>>>=drop;
+			bitCount-=drop;
+		}
+
+		private long getBits(int count) throws IOException
+		{
+			need(count);
+
+			long value=bitBuf&((1L<<count)-1);
+			bitBuf>>>=count;
+			bitCount-=count;
+
+			return value;
+		}
+
+		private int decode(int table[]) throws IOException
+		{
+			// Codes are at most 15 bits, but fewer may remain near the end of the file
+
+			while(bitCount<MAX_BITS)
+				{
+				int b=nextByte();
+				if(b<0)
+					break;
+
+				bitBuf|=((long)b)<<bitCount;
+				bitCount+=8;
+				}
+
+			int entry=table[(int)bitBuf&(table.length-1)];
+			int len=entry&15;
+
+			if(len==0 || len>bitCount)
+				throw new IOException("Invalid deflate code");
+
+			bitBuf>>>=len;
+			bitCount-=len;
+
+			return entry>>>4;
+		}
+
+		/**
+		 * Builds a lookup table indexed by the next bits of input, each entry holding symbol<<4 | code length.
+		 */
+
+		private static int[] buildTable(int lengths[], int offset, int count) throws IOException
+		{
+			int lengthCount[]=new int[MAX_BITS+1];
+			int maxLength=0;
+
+			for(int i=0;i<count;i++)
+				{
+				lengthCount[lengths[offset+i]]++;
+				maxLength=Math.max(maxLength, lengths[offset+i]);
+				}
+
+			int table[]=new int[1<<Math.max(maxLength, 1)];
+
+			int nextCode[]=new int[MAX_BITS+1];
+			int code=0;
+			lengthCount[0]=0;
+
+			for(int len=1;len<=MAX_BITS;len++)
+				{
+				code=(code+lengthCount[len-1])<<1;
+				nextCode[len]=code;
+				}
+
+			for(int i=0;i<count;i++)
+				{
+				int len=lengths[offset+i];
+				if(len==0)
+					continue;
+
+				int symbolCode=nextCode[len]++;
+				if(symbolCode>=(1<<len))
+					throw new IOException("Invalid deflate code lengths");
+
+				int reversed=Integer.reverse(symbolCode)>>>(32-len);
+
+				for(int j=reversed;j<table.length;j+=1<<len)
+					table[j]=(i<<4)|len;
+				}
+
+			return table;
+		}
+
+		private void output(int b)
+		{
+			window[windowPos]=(byte)b;
+			windowPos=(windowPos+1)&WINDOW_MASK;
+
+			if(pendingLimit==pending.length)
+				pending=Arrays.copyOf(pending, pendingLimit*2);
+
+			pending[pendingLimit++]=(byte)b;
+			memberOut++;
+			totalOut++;
+		}
+
+		private void storedBlock() throws IOException
+		{
+			alignToByte();
+
+			int len=(int)getBits(16);
+			int nlen=(int)getBits(16);
+
+			if(len!=(~nlen&0xFFFF))
+				throw new IOException("Invalid stored block length");
+
+			for(int i=0;i<len;i++)
+				{
+				int b=readByte();
+				if(b<0)
+					throw new EOFException("Unexpected end of gzip input");
+
+				output(b);
+				}
+		}
+
+		private void dynamicBlock() throws IOException
+		{
+			int literalCount=(int)getBits(5)+257;
+			int distanceCount=(int)getBits(5)+1;
+			int codeLengthCount=(int)getBits(4)+4;
+
+			int codeLengths[]=new int[19];
+			for(int i=0;i<codeLengthCount;i++)
+				codeLengths[CODE_LENGTH_ORDER[i]]=(int)getBits(3);
+
+			int codeLengthTable[]=buildTable(codeLengths, 0, 19);
+
+			int lengths[]=new int[literalCount+distanceCount];
+			int pos=0;
+
+			while(pos<lengths.length)
+				{
+				int symbol=decode(codeLengthTable);
+
+				if(symbol<16)
+					lengths[pos++]=symbol;
+				else
+					{
+					int value=0;
+					int repeat;
+
+					if(symbol==16)
+						{
+						if(pos==0)
+							throw new IOException("Invalid deflate code lengths");
+
+						value=lengths[pos-1];
+						repeat=3+(int)getBits(2);
+						}
+					else if(symbol==17)
+						repeat=3+(int)getBits(3);
+					else
+						repeat=11+(int)getBits(7);
+
+					if(pos+repeat>lengths.length)
+						throw new IOException("Invalid deflate code lengths");
+
+					for(int i=0;i<repeat;i++)
+						lengths[pos++]=value;
+					}
+				}
+
+			huffmanBlock(buildTable(lengths, 0, literalCount), buildTable(lengths, literalCount, distanceCount));
+		}
+
+		private void huffmanBlock(int literalTable[], int distanceTable[]) throws IOException
+		{
+			while(true)
+				{
+				int symbol=decode(literalTable);
+
+				if(symbol<256)
+					output(symbol);
+				else if(symbol==256)
+					return;
+				else
+					{
+					symbol-=257;
+					if(symbol>=LENGTH_BASE.length)
+						throw new IOException("Invalid deflate length code");
+
+					int length=LENGTH_BASE[symbol]+(int)getBits(LENGTH_EXTRA[symbol]);
+
+					int distanceSymbol=decode(distanceTable);
+					if(distanceSymbol>=DISTANCE_BASE.length)
+						throw new IOException("Invalid deflate distance code");
+
+					int distance=DISTANCE_BASE[distanceSymbol]+(int)getBits(DISTANCE_EXTRA[distanceSymbol]);
+					if(distance>memberOut)
+						throw new IOException("Invalid deflate distance");
+
+					for(int i=0;i<length;i++)
+						output(window[(windowPos-distance)&WINDOW_MASK]&0xFF);
+					}
+				}
+		}
+	}
+}
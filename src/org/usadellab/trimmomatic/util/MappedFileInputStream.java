@@ -0,0 +1,181 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a plain file through a sliding series of read-only memory mappings. Reads still copy the data once,
+ * out of the mapping into the caller's buffer, which the parser needs since its records point into chunks
+ * that outlive the mapping. What is saved is the read system call per chunk and FileInputStream's copy through
+ * its native buffer, which matters most when the file is already in the page cache.
+ * Each mapping is released as soon as the stream moves past it, rather than whenever it is garbage collected.
+ */
+
+public class MappedFileInputStream extends InputStream implements PositionTracker
+{
+	public static final long DEFAULT_WINDOW_SIZE=256L*1024*1024;
+
+	private FileInputStream fileStream;
+	private FileChannel channel;
+	private long length;
+	private long windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+	private volatile long position;
+
+	public MappedFileInputStream(File file) throws IOException
+	{
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	public MappedFileInputStream(File file, long windowSize) throws IOException
+	{
+		this.fileStream=new FileInputStream(file);
+		this.channel=fileStream.getChannel();
+		this.length=channel.size();
+		this.windowSize=windowSize;
+
+		this.window=null;
+		this.windowStart=0;
+		this.position=0;
+	}
+
+	private boolean nextWindow() throws IOException
+	{
+		if(window!=null)
+			{
+			windowStart+=window.capacity();
+			unmap(window);
+			}
+
+		if(windowStart>=length)
+			{
+			window=null;
+			return false;
+			}
+
+		long size=Math.min(windowSize, length-windowStart);
+		window=channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if((window==null || !window.hasRemaining()) && !nextWindow())
+			return -1;
+
+		position++;
+		return window.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if((window==null || !window.hasRemaining()) && !nextWindow())
+			return -1;
+
+		int count=Math.min(len, window.remaining());
+		window.get(b, off, count);
+		position+=count;
+
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped=0;
+
+		while(skipped<n)
+			{
+			if((window==null || !window.hasRemaining()) && !nextWindow())
+				break;
+
+			int count=(int)Math.min(n-skipped, window.remaining());
+			window.position(window.position()+count);
+			skipped+=count;
+			}
+
+		position+=skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return (int)Math.min(Integer.MAX_VALUE, length-position);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(window!=null)
+			unmap(window);
+
+		window=null;
+		channel.close();
+		fileStream.close();
+	}
+
+	/**
+	 * Releases a mapping through the JDK internals, which is safe since only this stream ever sees it. If that is
+	 * not possible, the mapping is left to the garbage collector.
+	 */
+
+	private static void unmap(MappedByteBuffer buffer)
+	{
+		try
+			{
+			Class<?> unsafeClass=Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner=unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+			Field theUnsafe=unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			}
+		catch(NoSuchMethodException e)
+			{
+			// Before Java 9, direct buffers expose their cleaner themselves
+
+			try
+				{
+				Method cleanerMethod=buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+
+				Object cleaner=cleanerMethod.invoke(buffer);
+				if(cleaner!=null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			catch(Exception e2)
+				{
+				}
+			}
+		catch(Exception e)
+			{
+			}
+	}
+
+	public long getPosition()
+	{
+		return position;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+}
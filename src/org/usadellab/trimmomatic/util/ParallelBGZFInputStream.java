@@ -0,0 +1,304 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses BGZF (blocked gzip) input by inflating its independent blocks on a pool of threads.
+ * Compressed blocks are read in order on the calling thread, and the inflated blocks are handed
+ * back in the same order.
+ */
+
+public class ParallelBGZFInputStream extends InputStream
+{
+	private static final int GZIP_HEADER_LENGTH=12;
+	public static final int BGZF_PEEK_LENGTH=18;
+	private static final int BLOCKS_PER_THREAD=4;
+
+	private static final ThreadLocal<Inflater> INFLATERS=new ThreadLocal<Inflater>()
+	{
+		@Override
+		protected Inflater initialValue()
+		{
+			return new Inflater(true);
+		}
+	};
+
+	private InputStream source;
+	private ExecutorService executor;
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+	private boolean sourceExhausted;
+	private boolean verifyChecksums;
+
+	private byte current[];
+	private int currentPos;
+
+	public ParallelBGZFInputStream(InputStream source, int threads)
+	{
+		this(source, threads, true);
+	}
+
+	public ParallelBGZFInputStream(InputStream source, int threads, boolean verifyChecksums)
+	{
+		this.source=source;
+		this.verifyChecksums=verifyChecksums;
+		this.executor=CodecExecutor.get(threads);
+
+		this.pending=new ArrayDeque<Future<byte[]>>();
+		this.maxPending=threads*BLOCKS_PER_THREAD;
+		this.sourceExhausted=false;
+	}
+
+	/**
+	 * Checks whether the stream starts with a BGZF block, i.e. a gzip member with the 'BC' extra
+	 * subfield. The peeked bytes are pushed back, so the stream must allow at least 18 bytes of pushback.
+	 */
+
+	public static boolean isBGZF(PushbackInputStream in) throws IOException
+	{
+		byte header[]=new byte[BGZF_PEEK_LENGTH];
+		int len=0;
+
+		while(len<header.length)
+			{
+			int read=in.read(header, len, header.length-len);
+			if(read<0)
+				break;
+			len+=read;
+			}
+
+		if(len>0)
+			in.unread(header, 0, len);
+
+		if(len<BGZF_PEEK_LENGTH)
+			return false;
+
+		return (header[0]&0xFF)==31 && (header[1]&0xFF)==139 && header[2]==8 && (header[3]&4)!=0 &&
+				readShort(header, 10)>=6 && header[12]=='B' && header[13]=='C' && readShort(header, 14)==2;
+	}
+
+	private static int readShort(byte buf[], int offset)
+	{
+		return (buf[offset]&0xFF)|((buf[offset+1]&0xFF)<<8);
+	}
+
+	private static int readInt(byte buf[], int offset)
+	{
+		return readShort(buf, offset)|(readShort(buf, offset+2)<<16);
+	}
+
+	private boolean readFully(byte buf[], int offset, int len) throws IOException
+	{
+		int total=0;
+
+		while(total<len)
+			{
+			int read=source.read(buf, offset+total, len-total);
+			if(read<0)
+				{
+				if(total==0)
+					return false;
+
+				throw new EOFException("Truncated BGZF block");
+				}
+			total+=read;
+			}
+
+		return true;
+	}
+
+	private byte[] readBlock() throws IOException
+	{
+		byte header[]=new byte[GZIP_HEADER_LENGTH];
+
+		if(!readFully(header, 0, GZIP_HEADER_LENGTH))
+			return null;
+
+		if((header[0]&0xFF)!=31 || (header[1]&0xFF)!=139 || (header[3]&4)==0)
+			throw new IOException("Not a BGZF block");
+
+		int xlen=readShort(header, 10);
+		byte extra[]=new byte[xlen];
+		if(!readFully(extra, 0, xlen))
+			throw new EOFException("Truncated BGZF block");
+
+		int blockSize=-1;
+		for(int pos=0;pos+4<=xlen;pos+=4+readShort(extra, pos+2))
+			{
+			if(extra[pos]=='B' && extra[pos+1]=='C' && readShort(extra, pos+2)==2)
+				blockSize=readShort(extra, pos+4)+1;
+			}
+
+		if(blockSize<GZIP_HEADER_LENGTH+xlen+8)
+			throw new IOException("Missing or invalid BGZF block size");
+
+		byte block[]=new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, GZIP_HEADER_LENGTH);
+		System.arraycopy(extra, 0, block, GZIP_HEADER_LENGTH, xlen);
+
+		int offset=GZIP_HEADER_LENGTH+xlen;
+		if(!readFully(block, offset, blockSize-offset))
+			throw new EOFException("Truncated BGZF block");
+
+		return block;
+	}
+
+	private void fillPending() throws IOException
+	{
+		while(!sourceExhausted && pending.size()<maxPending)
+			{
+			byte block[]=readBlock();
+
+			if(block==null)
+				sourceExhausted=true;
+			else
+				pending.add(executor.submit(new InflateTask(block, verifyChecksums)));
+			}
+	}
+
+	private boolean nextBlock() throws IOException
+	{
+		while(true)
+			{
+			fillPending();
+
+			Future<byte[]> future=pending.poll();
+			if(future==null)
+				return false;
+
+			try
+				{
+				current=future.get();
+				currentPos=0;
+				}
+			catch(InterruptedException e)
+				{
+				throw new IOException(e);
+				}
+			catch(ExecutionException e)
+				{
+				Throwable cause=e.getCause();
+				if(cause instanceof IOException)
+					throw (IOException)cause;
+
+				throw new IOException(cause);
+				}
+
+			if(current.length>0)
+				return true;
+			}
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if((current==null || currentPos>=current.length) && !nextBlock())
+			return -1;
+
+		return current[currentPos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if((current==null || currentPos>=current.length) && !nextBlock())
+			return -1;
+
+		int count=Math.min(len, current.length-currentPos);
+		System.arraycopy(current, currentPos, b, off, count);
+		currentPos+=count;
+
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		if(current==null)
+			return 0;
+
+		return current.length-currentPos;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		for(Future<byte[]> future: pending)
+			future.cancel(true);
+
+		pending.clear();
+		current=null;
+		source.close();
+	}
+
+	private static class InflateTask implements Callable<byte[]>
+	{
+		private byte block[];
+		private boolean verifyChecksums;
+
+		private InflateTask(byte block[], boolean verifyChecksums)
+		{
+			this.block=block;
+			this.verifyChecksums=verifyChecksums;
+		}
+
+		@Override
+		public byte[] call() throws IOException
+		{
+			int dataStart=GZIP_HEADER_LENGTH+readShort(block, 10);
+			int dataEnd=block.length-8;
+
+			int expectedCrc=readInt(block, dataEnd);
+			int size=readInt(block, dataEnd+4);
+
+			byte out[]=new byte[size];
+
+			Inflater inflater=INFLATERS.get();
+			inflater.reset();
+			inflater.setInput(block, dataStart, dataEnd-dataStart);
+
+			try
+				{
+				int len=0;
+				while(len<size)
+					{
+					int read=inflater.inflate(out, len, size-len);
+					if(read==0 && (inflater.finished() || inflater.needsInput()))
+						break;
+					len+=read;
+					}
+
+				if(len!=size)
+					throw new IOException("Corrupt BGZF block: expected "+size+" bytes, got "+len);
+				}
+			catch(DataFormatException e)
+				{
+				throw new IOException("Corrupt BGZF block", e);
+				}
+
+			if(verifyChecksums)
+				{
+				CRC32 crc=new CRC32();
+				crc.update(out, 0, size);
+				if((int)crc.getValue()!=expectedCrc)
+					throw new IOException("BGZF block CRC mismatch");
+				}
+
+			return out;
+		}
+	}
+}
@@ -0,0 +1,513 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.itadaki.bzip2.BZip2BlockDecompressor;
+import org.itadaki.bzip2.BitInputStream;
+
+/**
+ * Decompresses bzip2 input by decoding its blocks on a pool of threads. The compressed stream is
+ * scanned on the calling thread for the 48 bit block and end-of-stream markers, which may fall at
+ * any bit offset. Each block is realigned to a byte boundary and decoded independently, and the
+ * decoded blocks are handed back in order. Block and stream CRCs are both checked, and
+ * concatenated streams (as written by pbzip2) are followed.
+ * A block marker can also occur by chance within compressed data, cutting a block in two. As in lbzip2,
+ * a block which fails to decode is therefore joined with the block after it and decoded again.
+ */
+
+public class ParallelBZip2InputStream extends InputStream
+{
+	private static final long BLOCK_MARKER=0x314159265359L;
+	private static final long END_MARKER=0x177245385090L;
+	private static final long MARKER_MASK=0xFFFFFFFFFFFFL;
+	private static final int MARKER_BITS=48;
+
+	private static final int READ_SIZE=1024*1024;
+	private static final int BLOCKS_PER_THREAD=2;
+	private static final int HEADER_LENGTH=4;
+
+	private InputStream source;
+	private ExecutorService executor;
+	private ArrayDeque<Segment> pending;
+	private int maxPending;
+
+	private byte data[];
+	private int dataLength;
+	private boolean sourceExhausted;
+	private boolean finished;
+
+	private int blockSize;
+	private int scanPos;
+	private long marker;
+	private long minMarkerEndBit;
+	private long blockStartBit;
+
+	private int streamCRC;
+
+	private byte current[];
+	private int currentPos;
+
+	public ParallelBZip2InputStream(InputStream source, int threads)
+	{
+		this.source=source;
+		this.executor=CodecExecutor.get(threads);
+
+		this.pending=new ArrayDeque<Segment>();
+		this.maxPending=threads*BLOCKS_PER_THREAD;
+
+		this.data=new byte[READ_SIZE*2];
+		this.dataLength=0;
+		this.blockStartBit=-1;
+	}
+
+	/**
+	 * Ensures at least 'bytes' bytes from the start of the buffer are loaded, returning false at end of input.
+	 */
+
+	private boolean ensure(int bytes) throws IOException
+	{
+		while(dataLength<bytes)
+			{
+			if(sourceExhausted)
+				return false;
+
+			if(data.length-dataLength<READ_SIZE)
+				data=Arrays.copyOf(data, Math.max(data.length*2, bytes));
+
+			int read=source.read(data, dataLength, data.length-dataLength);
+			if(read<0)
+				sourceExhausted=true;
+			else
+				dataLength+=read;
+			}
+
+		return true;
+	}
+
+	/**
+	 * Drops whole bytes which are no longer needed, shifting all bit positions to match.
+	 */
+
+	private void compact()
+	{
+		int discard=blockStartBit>=0 ? Math.min((int)(blockStartBit>>>3), scanPos) : scanPos;
+
+		if(discard<READ_SIZE)
+			return;
+
+		System.arraycopy(data, discard, data, 0, dataLength-discard);
+		dataLength-=discard;
+
+		scanPos-=discard;
+		minMarkerEndBit-=discard*8L;
+		if(blockStartBit>=0)
+			blockStartBit-=discard*8L;
+	}
+
+	private boolean readStreamHeader(int offset) throws IOException
+	{
+		if(!ensure(offset+1))
+			return false;
+
+		if(!ensure(offset+4) || data[offset]!='B' || data[offset+1]!='Z' || data[offset+2]!='h' ||
+				data[offset+3]<'1' || data[offset+3]>'9')
+			throw new IOException("Invalid BZip2 header");
+
+		blockSize=(data[offset+3]-'0')*100000;
+		scanPos=offset+4;
+		marker=0;
+		minMarkerEndBit=scanPos*8L+MARKER_BITS;
+		blockStartBit=-1;
+
+		return true;
+	}
+
+	private int readBits(long bit, int count)
+	{
+		int value=0;
+
+		for(int i=0;i<count;i++,bit++)
+			value=(value<<1)|((data[(int)(bit>>>3)]>>>(7-(int)(bit&7)))&1);
+
+		return value;
+	}
+
+	/**
+	 * Copies the bits [startBit, endBit) of the buffer into a fresh byte-aligned array. The array
+	 * is padded, since the decoder may read a little past the end of the block.
+	 */
+
+	private byte[] extractBits(long startBit, long endBit)
+	{
+		int length=(int)((endBit-startBit+7)>>>3);
+		byte out[]=new byte[length+8];
+
+		int from=(int)(startBit>>>3);
+		int shift=(int)(startBit&7);
+
+		if(shift==0)
+			System.arraycopy(data, from, out, 0, length);
+		else
+			{
+			for(int i=0;i<length;i++)
+				{
+				int hi=(data[from+i]&0xFF)<<shift;
+				int lo=from+i+1<dataLength ? (data[from+i+1]&0xFF)>>>(8-shift) : 0;
+				out[i]=(byte)(hi|lo);
+				}
+			}
+
+		int tailBits=(int)((endBit-startBit)&7);
+		if(tailBits>0)
+			out[length-1]&=(byte)(0xFF<<(8-tailBits));
+
+		return out;
+	}
+
+	/**
+	 * Scans forward to the next marker, queueing the block which precedes it. Returns false at the end of input.
+	 * Whole bytes are shifted into the marker register, and each of the 8 possible bit alignments is checked.
+	 */
+
+	private boolean scanNext() throws IOException
+	{
+		if(blockSize==0 && !readStreamHeader(0))
+			return false;
+
+		while(true)
+			{
+			if(scanPos>=dataLength)
+				{
+				compact();
+
+				if(!ensure(scanPos+1))
+					throw new EOFException("Truncated BZip2 stream");
+				}
+
+			marker=(marker<<8)|(data[scanPos++]&0xFF);
+			long byteEndBit=scanPos*8L;
+
+			for(int shift=7;shift>=0;shift--)
+				{
+				long markerEndBit=byteEndBit-shift;
+				if(markerEndBit<minMarkerEndBit)
+					continue;
+
+				long value=(marker>>>shift)&MARKER_MASK;
+
+				if(value==BLOCK_MARKER)
+					{
+					boolean queued=blockStartBit>=0;
+					if(queued)
+						queueBlock(markerEndBit-MARKER_BITS, value);
+
+					blockStartBit=markerEndBit;
+					minMarkerEndBit=markerEndBit+MARKER_BITS;
+
+					// The next marker cannot end within this byte, so scanning can resume with the next one
+
+					if(queued)
+						return true;
+					}
+				else if(value==END_MARKER && isStreamEnd(markerEndBit))
+					{
+					if(blockStartBit>=0)
+						queueBlock(markerEndBit-MARKER_BITS, value);
+
+					long crcEndBit=markerEndBit+32;
+
+					Segment end=new Segment();
+					end.streamCRC=readBits(markerEndBit, 32);
+					pending.add(end);
+
+					// Another stream may follow on the next byte boundary
+
+					blockStartBit=-1;
+					scanPos=(int)((crcEndBit+7)>>>3);
+					compact();
+
+					if(!readStreamHeader(scanPos))
+						finished=true;
+
+					return true;
+					}
+				}
+			}
+	}
+
+	/**
+	 * An end marker found by chance within a block is rejected, unless it is followed by its CRC and then either
+	 * the end of input or another stream.
+	 */
+
+	private boolean isStreamEnd(long markerEndBit) throws IOException
+	{
+		int next=(int)((markerEndBit+32+7)>>>3);
+
+		if(!ensure(next))
+			return false;
+
+		if(!ensure(next+1))
+			return true;
+
+		return ensure(next+HEADER_LENGTH) && data[next]=='B' && data[next+1]=='Z' && data[next+2]=='h' &&
+				data[next+3]>='1' && data[next+3]<='9';
+	}
+
+	private void queueBlock(long endBit, long endMarker)
+	{
+		Segment segment=new Segment();
+		segment.bits=extractBits(blockStartBit, endBit);
+		segment.bitLength=endBit-blockStartBit;
+		segment.endMarker=endMarker;
+		segment.future=executor.submit(new DecodeTask(segment.bits, blockSize));
+		pending.add(segment);
+	}
+
+	/**
+	 * Joins a block which failed to decode with the blocks following it in the same stream, together with the
+	 * markers between them, until it decodes. The original error is thrown if no join decodes, or the joined
+	 * data grows beyond any real block.
+	 */
+
+	private DecodedBlock joinFollowing(Segment segment, IOException error) throws IOException
+	{
+		long maxBits=(blockSize+blockSize/2)*8L;
+
+		byte bits[]=segment.bits;
+		long bitLength=segment.bitLength;
+		long marker=segment.endMarker;
+
+		while(true)
+			{
+			fillPending();
+
+			Segment next=pending.peek();
+			if(next==null || next.future==null)
+				throw error;
+
+			pending.poll();
+			next.future.cancel(true);
+
+			bits=joinBits(bits, bitLength, marker, next.bits, next.bitLength);
+			bitLength+=MARKER_BITS+next.bitLength;
+			marker=next.endMarker;
+
+			if(bitLength>maxBits)
+				throw error;
+
+			try
+				{
+				return new DecodeTask(bits, blockSize).call();
+				}
+			catch(IOException e)
+				{
+				// Still incomplete, or not a false marker after all
+				}
+			}
+	}
+
+	private static byte[] joinBits(byte first[], long firstBits, long marker, byte second[], long secondBits)
+	{
+		long totalBits=firstBits+MARKER_BITS+secondBits;
+		byte out[]=new byte[(int)((totalBits+7)>>>3)+8];
+
+		System.arraycopy(first, 0, out, 0, (int)((firstBits+7)>>>3));
+
+		long bit=firstBits;
+
+		for(int i=MARKER_BITS-1;i>=0;i--,bit++)
+			if(((marker>>>i)&1)!=0)
+				out[(int)(bit>>>3)]|=(byte)(0x80>>>(int)(bit&7));
+
+		for(long i=0;i<secondBits;i++,bit++)
+			if((second[(int)(i>>>3)]&(0x80>>>(int)(i&7)))!=0)
+				out[(int)(bit>>>3)]|=(byte)(0x80>>>(int)(bit&7));
+
+		return out;
+	}
+
+	private void fillPending() throws IOException
+	{
+		while(!finished && pending.size()<maxPending)
+			{
+			if(!scanNext())
+				finished=true;
+			}
+	}
+
+	private boolean nextBlock() throws IOException
+	{
+		while(true)
+			{
+			fillPending();
+
+			Segment segment=pending.poll();
+			if(segment==null)
+				return false;
+
+			if(segment.future==null)
+				{
+				if(segment.streamCRC!=streamCRC)
+					throw new IOException("BZip2 stream CRC error");
+
+				streamCRC=0;
+				continue;
+				}
+
+			DecodedBlock block;
+			try
+				{
+				block=segment.future.get();
+				}
+			catch(InterruptedException e)
+				{
+				throw new IOException(e);
+				}
+			catch(ExecutionException e)
+				{
+				Throwable cause=e.getCause();
+				if(!(cause instanceof IOException))
+					throw new IOException(cause);
+
+				block=joinFollowing(segment, (IOException)cause);
+				}
+
+			streamCRC=((streamCRC<<1)|(streamCRC>>>31))^block.crc;
+
+			current=block.data;
+			currentPos=0;
+
+			if(current.length>0)
+				return true;
+			}
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if((current==null || currentPos>=current.length) && !nextBlock())
+			return -1;
+
+		return current[currentPos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if((current==null || currentPos>=current.length) && !nextBlock())
+			return -1;
+
+		int count=Math.min(len, current.length-currentPos);
+		System.arraycopy(current, currentPos, b, off, count);
+		currentPos+=count;
+
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		if(current==null)
+			return 0;
+
+		return current.length-currentPos;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		for(Segment segment: pending)
+			if(segment.future!=null)
+				segment.future.cancel(true);
+
+		pending.clear();
+		current=null;
+		source.close();
+	}
+
+	/**
+	 * A queued block, with its bits and the marker which ended it kept for joining, or the end of a stream.
+	 */
+
+	private static class Segment
+	{
+		private Future<DecodedBlock> future;
+		private byte bits[];
+		private long bitLength;
+		private long endMarker;
+		private int streamCRC;
+	}
+
+	private static class DecodedBlock
+	{
+		private byte data[];
+		private int crc;
+	}
+
+	private static class DecodeTask implements Callable<DecodedBlock>
+	{
+		private byte block[];
+		private int blockSize;
+
+		private DecodeTask(byte block[], int blockSize)
+		{
+			this.block=block;
+			this.blockSize=blockSize;
+		}
+
+		/**
+		 * The decoder can fail with runtime exceptions on invalid data, which are reported as a corrupt block.
+		 */
+
+		@Override
+		public DecodedBlock call() throws IOException
+		{
+			try
+				{
+				return decode();
+				}
+			catch(RuntimeException e)
+				{
+				throw new IOException("Corrupt BZip2 block", e);
+				}
+		}
+
+		private DecodedBlock decode() throws IOException
+		{
+			BZip2BlockDecompressor decompressor=new BZip2BlockDecompressor(new BitInputStream(new ByteArrayInputStream(block)), blockSize);
+
+			byte out[]=new byte[blockSize+blockSize/4];
+			int len=0;
+
+			while(true)
+				{
+				if(len==out.length)
+					out=Arrays.copyOf(out, out.length*2);
+
+				int read=decompressor.read(out, len, out.length-len);
+				if(read<0)
+					break;
+				len+=read;
+				}
+
+			DecodedBlock decoded=new DecodedBlock();
+			decoded.crc=decompressor.checkCRC();
+			decoded.data=Arrays.copyOf(out, len);
+
+			return decoded;
+		}
+	}
+}
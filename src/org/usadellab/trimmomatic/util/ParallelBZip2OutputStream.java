@@ -0,0 +1,338 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.itadaki.bzip2.BZip2BlockCompressor;
+import org.itadaki.bzip2.BZip2BlockDecompressor;
+import org.itadaki.bzip2.BitInputStream;
+import org.itadaki.bzip2.BitOutputStream;
+
+/**
+ * pbzip2-style bzip2 writer: the input is cut at block boundaries and each block is compressed
+ * on a pool of threads. Blocks are not byte aligned, so they are spliced back together bit by bit
+ * into a single ordinary bzip2 stream.
+ * The jbzip2 compressor occasionally produces a block which fails its own CRC, so by default every block is
+ * decoded again before it is written, and a chunk whose block fails is compressed as two smaller blocks instead.
+ * Decoding adds about 30% to the compression time; without it, such a block is written as it is.
+ */
+
+public class ParallelBZip2OutputStream extends OutputStream
+{
+	public static final int DEFAULT_BLOCK_SIZE_LEVEL=9;
+
+	private static final int BLOCKS_PER_THREAD=4;
+	private static final int MIN_SPLIT_LENGTH=1024;
+	private static final int BLOCK_MARKER_BYTES=6;
+	private static final int BUFFER_SIZE=65536;
+
+	private static final int STREAM_START_MARKER_1=0x425a;
+	private static final int STREAM_START_MARKER_2=0x68;
+	private static final int STREAM_END_MARKER_1=0x177245;
+	private static final int STREAM_END_MARKER_2=0x385090;
+
+	private BitOutputStream bitOutputStream;
+	private OutputStream out;
+	private ExecutorService executor;
+	private ArrayDeque<Future<List<CompressedBlock>>> pending;
+	private int maxPending;
+
+	private boolean verifyBlocks;
+	private int blockSize;
+	private int chunkSize;
+	private byte chunk[];
+	private int chunkLength;
+
+	private int streamCRC;
+	private boolean closed;
+
+	public ParallelBZip2OutputStream(OutputStream out, int threads) throws IOException
+	{
+		this(out, threads, DEFAULT_BLOCK_SIZE_LEVEL);
+	}
+
+	public ParallelBZip2OutputStream(OutputStream out, int threads, int blockSizeLevel) throws IOException
+	{
+		this(out, threads, blockSizeLevel, true);
+	}
+
+	public ParallelBZip2OutputStream(OutputStream out, int threads, int blockSizeLevel, boolean verifyBlocks) throws IOException
+	{
+		if(blockSizeLevel<1 || blockSizeLevel>9)
+			throw new IllegalArgumentException("Invalid BZip2 block size "+blockSizeLevel);
+
+		this.out=out;
+		this.bitOutputStream=new BitOutputStream(out);
+		this.executor=CodecExecutor.get(threads);
+
+		this.pending=new ArrayDeque<Future<List<CompressedBlock>>>();
+		this.maxPending=threads*BLOCKS_PER_THREAD;
+
+		this.verifyBlocks=verifyBlocks;
+		this.blockSize=blockSizeLevel*100000;
+		this.chunkSize=(blockSize-5)/5*4;
+		this.chunk=new byte[chunkSize];
+		this.chunkLength=0;
+
+		bitOutputStream.writeBits(16, STREAM_START_MARKER_1);
+		bitOutputStream.writeBits(8, STREAM_START_MARKER_2);
+		bitOutputStream.writeBits(8, '0'+blockSizeLevel);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(chunkLength==chunk.length)
+			submitChunk();
+
+		chunk[chunkLength++]=(byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while(len>0)
+			{
+			if(chunkLength==chunk.length)
+				submitChunk();
+
+			int count=Math.min(len, chunk.length-chunkLength);
+			System.arraycopy(b, off, chunk, chunkLength, count);
+			chunkLength+=count;
+
+			off+=count;
+			len-=count;
+			}
+	}
+
+	private void submitChunk() throws IOException
+	{
+		if(chunkLength==0)
+			return;
+
+		while(pending.size()>=maxPending)
+			writeNext();
+
+		pending.add(executor.submit(new CompressTask(chunk, chunkLength, blockSize, verifyBlocks)));
+
+		chunk=new byte[chunkSize];
+		chunkLength=0;
+	}
+
+	private void writeNext() throws IOException
+	{
+		Future<List<CompressedBlock>> future=pending.poll();
+
+		List<CompressedBlock> blocks;
+		try
+			{
+			blocks=future.get();
+			}
+		catch(InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted waiting for compression");
+			}
+		catch(ExecutionException e)
+			{
+			throw new IOException(e.getCause());
+			}
+
+		for(CompressedBlock block: blocks)
+			writeBlock(block);
+	}
+
+	private void writeBlock(CompressedBlock block) throws IOException
+	{
+		byte data[]=block.data;
+		int wholeBytes=(int)(block.bits>>>3);
+		int remainingBits=(int)(block.bits&7);
+
+		for(int i=0;i<wholeBytes;i++)
+			bitOutputStream.writeBits(8, data[i]&0xFF);
+
+		if(remainingBits>0)
+			bitOutputStream.writeBits(remainingBits, (data[wholeBytes]&0xFF)>>>(8-remainingBits));
+
+		streamCRC=((streamCRC<<1)|(streamCRC>>>31))^block.crc;
+	}
+
+	/**
+	 * Flushing can only write out complete blocks; the bit-level tail stays buffered until close.
+	 */
+
+	@Override
+	public void flush() throws IOException
+	{
+		submitChunk();
+
+		while(!pending.isEmpty())
+			writeNext();
+
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+
+		closed=true;
+
+		try
+			{
+			submitChunk();
+
+			while(!pending.isEmpty())
+				writeNext();
+
+			bitOutputStream.writeBits(24, STREAM_END_MARKER_1);
+			bitOutputStream.writeBits(24, STREAM_END_MARKER_2);
+			bitOutputStream.writeInteger(streamCRC);
+			bitOutputStream.flush();
+			}
+		finally
+			{
+			for(Future<List<CompressedBlock>> future: pending)
+				future.cancel(true);
+
+			pending.clear();
+			out.close();
+			}
+	}
+
+	private static class CompressedBlock
+	{
+		private byte data[];
+		private long bits;
+		private int crc;
+	}
+
+	/**
+	 * Counts the exact number of bits written, so the padding added by flush() can be dropped when splicing.
+	 */
+
+	private static class CountingBitOutputStream extends BitOutputStream
+	{
+		private long bits;
+
+		private CountingBitOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		@Override
+		public void writeBoolean(boolean value) throws IOException
+		{
+			super.writeBoolean(value);
+			bits++;
+		}
+
+		@Override
+		public void writeBits(int count, int value) throws IOException
+		{
+			super.writeBits(count, value);
+			bits+=count;
+		}
+	}
+
+	private static class CompressTask implements Callable<List<CompressedBlock>>
+	{
+		private byte data[];
+		private int length;
+		private int blockSize;
+		private boolean verifyBlocks;
+
+		private CompressTask(byte data[], int length, int blockSize, boolean verifyBlocks)
+		{
+			this.data=data;
+			this.length=length;
+			this.blockSize=blockSize;
+			this.verifyBlocks=verifyBlocks;
+		}
+
+		@Override
+		public List<CompressedBlock> call() throws IOException
+		{
+			List<CompressedBlock> blocks=new ArrayList<CompressedBlock>();
+			compress(0, length, blocks);
+
+			return blocks;
+		}
+
+		private void compress(int offset, int count, List<CompressedBlock> blocks) throws IOException
+		{
+			CompressedBlock block=compressBlock(offset, count);
+
+			if(!verifyBlocks || isDecodable(block))
+				blocks.add(block);
+			else if(count>=MIN_SPLIT_LENGTH)
+				{
+				int half=count/2;
+
+				compress(offset, half, blocks);
+				compress(offset+half, count-half, blocks);
+				}
+			else
+				throw new IOException("BZip2 block failed to verify");
+		}
+
+		private CompressedBlock compressBlock(int offset, int count) throws IOException
+		{
+			ByteArrayOutputStream buffer=new ByteArrayOutputStream(count/4+64);
+			CountingBitOutputStream bitStream=new CountingBitOutputStream(buffer);
+
+			CompressedBlock block=new CompressedBlock();
+
+			// Chunks are sized so that run-length encoding (at most 5 bytes per 4) can never fill the
+			// block, as the compressor mishandles runs which reach its limit
+
+			BZip2BlockCompressor compressor=new BZip2BlockCompressor(bitStream, blockSize);
+			if(compressor.write(data, offset, count)!=count)
+				throw new IOException("BZip2 block overflow");
+			compressor.close();
+
+			block.crc=compressor.getCRC();
+			block.bits=bitStream.bits;
+			bitStream.flush();
+			block.data=buffer.toByteArray();
+
+			return block;
+		}
+
+		/**
+		 * Decodes the block after its marker, which checks the decoded data against the block CRC.
+		 */
+
+		private boolean isDecodable(CompressedBlock block)
+		{
+			ByteArrayInputStream in=new ByteArrayInputStream(block.data, BLOCK_MARKER_BYTES,
+					block.data.length-BLOCK_MARKER_BYTES);
+
+			try
+				{
+				BZip2BlockDecompressor decompressor=new BZip2BlockDecompressor(new BitInputStream(in), blockSize);
+
+				byte out[]=new byte[BUFFER_SIZE];
+				while(decompressor.read(out, 0, out.length)>=0)
+					;
+
+				return decompressor.checkCRC()==block.crc;
+				}
+			catch(IOException e)
+				{
+				return false;
+				}
+		}
+	}
+}
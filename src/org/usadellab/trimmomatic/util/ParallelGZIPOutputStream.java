@@ -0,0 +1,305 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * pigz-style gzip writer: the output is cut into chunks which are deflated on a pool of threads
+ * and written back in order.
+ *
+ * By default every chunk becomes an independent gzip member, so the result is an ordinary
+ * concatenated gzip file. With a dictionary, each chunk is primed with the last 32k of the
+ * previous one and the chunks form a single gzip member, which compresses slightly better.
+ */
+
+public class ParallelGZIPOutputStream extends OutputStream
+{
+	public static final int DEFAULT_CHUNK_SIZE=1024*1024;
+
+	private static final int DICTIONARY_SIZE=32768;
+	private static final int CHUNKS_PER_THREAD=4;
+
+	private static final byte GZIP_HEADER[]={31, (byte)139, 8, 0, 0, 0, 0, 0, 0, (byte)255};
+
+	private OutputStream out;
+	private ExecutorService executor;
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+
+	private int level;
+	private boolean useDictionary;
+
+	private byte chunk[];
+	private int chunkLength;
+	private byte dictionary[];
+
+	private CRC32 crc;
+	private long totalLength;
+	private boolean closed;
+
+	public ParallelGZIPOutputStream(OutputStream out, int threads)
+	{
+		this(out, threads, Deflater.DEFAULT_COMPRESSION, false);
+	}
+
+	public ParallelGZIPOutputStream(OutputStream out, int threads, int level, boolean useDictionary)
+	{
+		this.out=out;
+		this.executor=CodecExecutor.get(threads);
+
+		this.pending=new ArrayDeque<Future<byte[]>>();
+		this.maxPending=threads*CHUNKS_PER_THREAD;
+
+		this.level=level;
+		this.useDictionary=useDictionary;
+
+		this.chunk=new byte[DEFAULT_CHUNK_SIZE];
+		this.chunkLength=0;
+
+		if(useDictionary)
+			crc=new CRC32();
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(chunkLength==chunk.length)
+			submitChunk(false);
+
+		chunk[chunkLength++]=(byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while(len>0)
+			{
+			if(chunkLength==chunk.length)
+				submitChunk(false);
+
+			int count=Math.min(len, chunk.length-chunkLength);
+			System.arraycopy(b, off, chunk, chunkLength, count);
+			chunkLength+=count;
+
+			off+=count;
+			len-=count;
+			}
+	}
+
+	private void submitChunk(boolean last) throws IOException
+	{
+		// An empty file still needs one (empty) gzip member
+
+		if(chunkLength==0 && !(last && (useDictionary || totalLength==0)))
+			return;
+
+		while(pending.size()>=maxPending)
+			writeNext();
+
+		byte data[]=chunk;
+		int length=chunkLength;
+		boolean first=totalLength==0;
+
+		totalLength+=length;
+
+		if(useDictionary)
+			{
+			if(first)
+				out.write(GZIP_HEADER);
+
+			crc.update(data, 0, length);
+			pending.add(executor.submit(new DeflateTask(data, length, dictionary, last)));
+
+			if(length>=DICTIONARY_SIZE)
+				dictionary=Arrays.copyOfRange(data, length-DICTIONARY_SIZE, length);
+			else if(length>0)
+				{
+				byte newDictionary[]=dictionary==null ? Arrays.copyOf(data, length) : Arrays.copyOf(dictionary, dictionary.length+length);
+				if(dictionary!=null)
+					System.arraycopy(data, 0, newDictionary, dictionary.length, length);
+
+				if(newDictionary.length>DICTIONARY_SIZE)
+					newDictionary=Arrays.copyOfRange(newDictionary, newDictionary.length-DICTIONARY_SIZE, newDictionary.length);
+
+				dictionary=newDictionary;
+				}
+			}
+		else
+			pending.add(executor.submit(new DeflateTask(data, length, null, true)));
+
+		chunk=new byte[DEFAULT_CHUNK_SIZE];
+		chunkLength=0;
+	}
+
+	private void writeNext() throws IOException
+	{
+		Future<byte[]> future=pending.poll();
+
+		try
+			{
+			out.write(future.get());
+			}
+		catch(InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted waiting for compression");
+			}
+		catch(ExecutionException e)
+			{
+			throw new IOException(e.getCause());
+			}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		submitChunk(false);
+
+		while(!pending.isEmpty())
+			writeNext();
+
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+
+		closed=true;
+
+		try
+			{
+			submitChunk(true);
+
+			while(!pending.isEmpty())
+				writeNext();
+
+			if(useDictionary)
+				writeTrailer(out, (int)crc.getValue(), (int)totalLength);
+			}
+		finally
+			{
+			for(Future<byte[]> future: pending)
+				future.cancel(true);
+
+			pending.clear();
+			out.close();
+			}
+	}
+
+	private static void writeTrailer(OutputStream out, int crc, int length) throws IOException
+	{
+		byte trailer[]=new byte[8];
+		writeInt(trailer, 0, crc);
+		writeInt(trailer, 4, length);
+
+		out.write(trailer);
+	}
+
+	private static void writeInt(byte buf[], int offset, int value)
+	{
+		buf[offset]=(byte)value;
+		buf[offset+1]=(byte)(value>>8);
+		buf[offset+2]=(byte)(value>>16);
+		buf[offset+3]=(byte)(value>>24);
+	}
+
+	private class DeflateTask implements Callable<byte[]>
+	{
+		private byte data[];
+		private int length;
+		private byte dictionary[];
+		private boolean last;
+
+		private DeflateTask(byte data[], int length, byte dictionary[], boolean last)
+		{
+			this.data=data;
+			this.length=length;
+			this.dictionary=dictionary;
+			this.last=last;
+		}
+
+		@Override
+		public byte[] call() throws IOException
+		{
+			boolean member=!useDictionary;
+
+			byte buf[]=new byte[length+(length>>3)+64];
+			int len=0;
+
+			if(member)
+				{
+				System.arraycopy(GZIP_HEADER, 0, buf, 0, GZIP_HEADER.length);
+				len=GZIP_HEADER.length;
+				}
+
+			Deflater deflater=new Deflater(level, true);
+
+			try
+				{
+				if(dictionary!=null)
+					deflater.setDictionary(dictionary);
+
+				deflater.setInput(data, 0, length);
+
+				if(last)
+					{
+					deflater.finish();
+
+					while(!deflater.finished())
+						{
+						if(len==buf.length)
+							buf=Arrays.copyOf(buf, buf.length*2);
+
+						len+=deflater.deflate(buf, len, buf.length-len);
+						}
+					}
+				else
+					{
+					// Sync flush keeps the segment byte aligned, so the next chunk can follow it directly
+
+					while(true)
+						{
+						if(len==buf.length)
+							buf=Arrays.copyOf(buf, buf.length*2);
+
+						int count=deflater.deflate(buf, len, buf.length-len, Deflater.SYNC_FLUSH);
+						len+=count;
+
+						if(len<buf.length && deflater.needsInput())
+							break;
+						}
+					}
+				}
+			finally
+				{
+				deflater.end();
+				}
+
+			if(member)
+				{
+				if(len+8>buf.length)
+					buf=Arrays.copyOf(buf, len+8);
+
+				CRC32 memberCrc=new CRC32();
+				memberCrc.update(data, 0, length);
+
+				writeInt(buf, len, (int)memberCrc.getValue());
+				writeInt(buf, len+4, length);
+				len+=8;
+				}
+
+			return Arrays.copyOf(buf, len);
+		}
+	}
+}
@@ -0,0 +1,6 @@
+package org.usadellab.trimmomatic.util;
+
+public interface PositionTracker
+{
+	public long getPosition();
+}
@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class PositionTrackingInputStream extends InputStream
+public class PositionTrackingInputStream extends InputStream implements PositionTracker
 {
 	private InputStream wrappedStream;
 	private AtomicLong currentPosition;
@@ -0,0 +1,199 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Runs the wrapped stream (typically a decompressor) on its own thread, filling a bounded ring of
+ * large buffers ahead of the consumer, so inflation and parsing overlap on separate cores.
+ */
+
+public class ReadAheadInputStream extends InputStream
+{
+	public static final int DEFAULT_BUFFER_SIZE=4*1024*1024;
+	public static final int DEFAULT_BUFFER_COUNT=4;
+
+	private static final Buffer END=new Buffer(0);
+
+	private InputStream source;
+
+	private ArrayBlockingQueue<Buffer> free;
+	private ArrayBlockingQueue<Buffer> filled;
+	private Thread readerThread;
+	private volatile IOException error;
+
+	private Buffer current;
+	private int currentPos;
+	private boolean finished;
+
+	public ReadAheadInputStream(InputStream source)
+	{
+		this(source, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+	}
+
+	public ReadAheadInputStream(InputStream source, int bufferSize, int bufferCount)
+	{
+		this.source=source;
+
+		free=new ArrayBlockingQueue<Buffer>(bufferCount);
+		filled=new ArrayBlockingQueue<Buffer>(bufferCount+1);
+
+		for(int i=0;i<bufferCount;i++)
+			free.add(new Buffer(bufferSize));
+
+		readerThread=new Thread(new Reader(), "Read-ahead");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	private boolean nextBuffer() throws IOException
+	{
+		if(current!=null)
+			{
+			free.offer(current);
+			current=null;
+			}
+
+		if(finished)
+			return false;
+
+		Buffer buffer;
+		try
+			{
+			buffer=filled.take();
+			}
+		catch(InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted waiting for read-ahead");
+			}
+
+		if(buffer==END)
+			{
+			finished=true;
+
+			if(error!=null)
+				throw error;
+
+			return false;
+			}
+
+		current=buffer;
+		currentPos=0;
+
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if((current==null || currentPos>=current.length) && !nextBuffer())
+			return -1;
+
+		return current.data[currentPos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if((current==null || currentPos>=current.length) && !nextBuffer())
+			return -1;
+
+		int count=Math.min(len, current.length-currentPos);
+		System.arraycopy(current.data, currentPos, b, off, count);
+		currentPos+=count;
+
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		if(current==null)
+			return 0;
+
+		return current.length-currentPos;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		readerThread.interrupt();
+
+		try
+			{
+			readerThread.join();
+			}
+		catch(InterruptedException e)
+			{
+			throw new InterruptedIOException("Interrupted closing read-ahead");
+			}
+
+		current=null;
+		source.close();
+	}
+
+	private static class Buffer
+	{
+		private byte data[];
+		private int length;
+
+		private Buffer(int size)
+		{
+			data=new byte[size];
+		}
+	}
+
+	private class Reader implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+				{
+				boolean eof=false;
+
+				while(!eof)
+					{
+					Buffer buffer=free.take();
+
+					int len=0;
+					while(len<buffer.data.length)
+						{
+						int read=source.read(buffer.data, len, buffer.data.length-len);
+						if(read<0)
+							{
+							eof=true;
+							break;
+							}
+						len+=read;
+						}
+
+					buffer.length=len;
+					if(len>0)
+						filled.put(buffer);
+					}
+				}
+			catch(IOException e)
+				{
+				error=e;
+				}
+			catch(RuntimeException e)
+				{
+				error=new IOException(e);
+				}
+			catch(InterruptedException e)
+				{
+				// Closed by the consumer
+				}
+			finally
+				{
+				filled.offer(END);
+				}
+		}
+	}
+}
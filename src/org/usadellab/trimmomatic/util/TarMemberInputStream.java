@@ -0,0 +1,323 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a single member of a tar archive, in place. Headers of the members before it are read and their
+ * data skipped, which on a file is a seek. Handles ustar prefixes, GNU long names, and pax paths and sizes.
+ */
+
+public class TarMemberInputStream extends InputStream
+{
+	private static final int BLOCK_SIZE=512;
+	private static final Charset NAME_CHARSET=Charset.forName("UTF-8");
+
+	private InputStream archive;
+	private String member;
+
+	private long size;
+	private long remaining;
+
+	public TarMemberInputStream(InputStream archive, String member) throws IOException
+	{
+		this.archive=archive;
+		this.member=normalizeName(member);
+
+		findMember();
+	}
+
+	private static String normalizeName(String name)
+	{
+		while(name.startsWith("./"))
+			name=name.substring(2);
+
+		return name;
+	}
+
+	private void findMember() throws IOException
+	{
+		byte header[]=new byte[BLOCK_SIZE];
+		String longName=null;
+		long paxSize=-1;
+
+		while(readBlock(header))
+			{
+			if(isZeroBlock(header))
+				break;
+
+			long entrySize=parseNumber(header, 124, 12);
+			char type=(char)header[156];
+
+			// GNU long names and pax headers describe the following entry
+
+			if(type=='L')
+				{
+				longName=new String(readData(entrySize), NAME_CHARSET).replaceAll("\0+$", "");
+				continue;
+				}
+
+			if(type=='x')
+				{
+				Map<String, String> records=parsePaxRecords(readData(entrySize));
+
+				if(records.containsKey("path"))
+					longName=records.get("path");
+				if(records.containsKey("size"))
+					paxSize=parsePaxSize(records.get("size"));
+				continue;
+				}
+
+			String name=longName!=null ? longName : getHeaderName(header);
+			if(paxSize>=0)
+				entrySize=paxSize;
+
+			longName=null;
+			paxSize=-1;
+
+			if((type=='0' || type=='\0' || type=='7') && normalizeName(name).equals(member))
+				{
+				size=entrySize;
+				remaining=entrySize;
+				return;
+				}
+
+			skipFully(padded(entrySize));
+			}
+
+		throw new FileNotFoundException(member+" not found in tar archive");
+	}
+
+	private static long padded(long size)
+	{
+		return (size+BLOCK_SIZE-1)/BLOCK_SIZE*BLOCK_SIZE;
+	}
+
+	private boolean readBlock(byte block[]) throws IOException
+	{
+		int len=0;
+		while(len<block.length)
+			{
+			int read=archive.read(block, len, block.length-len);
+			if(read<0)
+				{
+				if(len==0)
+					return false;
+				throw new EOFException("Truncated tar header");
+				}
+			len+=read;
+			}
+
+		return true;
+	}
+
+	private static boolean isZeroBlock(byte block[])
+	{
+		for(byte b: block)
+			if(b!=0)
+				return false;
+
+		return true;
+	}
+
+	private void skipFully(long count) throws IOException
+	{
+		while(count>0)
+			{
+			long skipped=archive.skip(count);
+
+			if(skipped<=0)
+				{
+				if(archive.read()<0)
+					throw new EOFException("Truncated tar archive");
+				skipped=1;
+				}
+
+			count-=skipped;
+			}
+	}
+
+	private byte[] readData(long length) throws IOException
+	{
+		if(length>Integer.MAX_VALUE-BLOCK_SIZE)
+			throw new IOException("Tar header entry too large");
+
+		byte data[]=new byte[(int)padded(length)];
+		if(!readBlock(data) && data.length>0)
+			throw new EOFException("Truncated tar archive");
+
+		return Arrays.copyOf(data, (int)length);
+	}
+
+	private static String getString(byte header[], int offset, int length)
+	{
+		int end=offset;
+		while(end<offset+length && header[end]!=0)
+			end++;
+
+		return new String(header, offset, end-offset, NAME_CHARSET);
+	}
+
+	private static String getHeaderName(byte header[])
+	{
+		String name=getString(header, 0, 100);
+
+		// ustar splits long names into a prefix and name
+
+		if(getString(header, 257, 5).equals("ustar"))
+			{
+			String prefix=getString(header, 345, 155);
+			if(prefix.length()>0)
+				name=prefix+"/"+name;
+			}
+
+		return name;
+	}
+
+	/**
+	 * Parses the "length key=value\n" records of a pax extended header. The length counts the bytes of the
+	 * whole record, so records are split before their values are decoded.
+	 */
+
+	private static Map<String, String> parsePaxRecords(byte data[]) throws IOException
+	{
+		Map<String, String> records=new HashMap<String, String>();
+		int pos=0;
+
+		while(pos<data.length)
+			{
+			int space=pos;
+			long length=0;
+
+			while(space<data.length && data[space]>='0' && data[space]<='9' && length<=data.length)
+				length=length*10+(data[space++]-'0');
+
+			if(space==pos || space>=data.length || data[space]!=' ' || length>data.length-pos)
+				throw new IOException("Invalid pax extended header");
+
+			int end=pos+(int)length;
+
+			int equals=space+1;
+			while(equals<end && data[equals]!='=')
+				equals++;
+
+			if(equals>=end || data[end-1]!='\n')
+				throw new IOException("Invalid pax extended header");
+
+			records.put(new String(data, space+1, equals-space-1, NAME_CHARSET),
+					new String(data, equals+1, end-equals-2, NAME_CHARSET));
+
+			pos=end;
+			}
+
+		return records;
+	}
+
+	private static long parsePaxSize(String value) throws IOException
+	{
+		try
+			{
+			long size=Long.parseLong(value);
+			if(size>=0)
+				return size;
+			}
+		catch(NumberFormatException e)
+			{
+			}
+
+		throw new IOException("Invalid pax size: "+value);
+	}
+
+	/**
+	 * Parses an octal field, or the base-256 form GNU tar uses for sizes of 8GB and over.
+	 */
+
+	private static long parseNumber(byte header[], int offset, int length)
+	{
+		if((header[offset]&0x80)!=0)
+			{
+			long value=header[offset]&0x7F;
+			for(int i=1;i<length;i++)
+				value=(value<<8)|(header[offset+i]&0xFF);
+
+			return value;
+			}
+
+		long value=0;
+		for(int i=offset;i<offset+length;i++)
+			{
+			byte b=header[i];
+			if(b>='0' && b<='7')
+				value=value*8+(b-'0');
+			else if(b!=' ' || value!=0)
+				break;
+			}
+
+		return value;
+	}
+
+	public long getSize()
+	{
+		return size;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(remaining<=0)
+			return -1;
+
+		int b=archive.read();
+		if(b<0)
+			throw new EOFException("Truncated tar member "+member);
+
+		remaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if(remaining<=0)
+			return -1;
+
+		int read=archive.read(b, off, (int)Math.min(len, remaining));
+		if(read<0)
+			throw new EOFException("Truncated tar member "+member);
+
+		remaining-=read;
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped=archive.skip(Math.min(n, remaining));
+
+		if(skipped>0)
+			remaining-=skipped;
+
+		return Math.max(skipped, 0);
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return (int)Math.min(archive.available(), remaining);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		archive.close();
+	}
+}
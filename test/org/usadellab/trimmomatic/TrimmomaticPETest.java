@@ -0,0 +1,348 @@
+package org.usadellab.trimmomatic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqSerializer;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+
+public class TrimmomaticPETest
+{
+	private static final int MIN_LENGTH=100;
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private List<String> reads1;
+	private List<String> reads2;
+
+	private File input1;
+	private File input2;
+
+	/**
+	 * Generates mates of independent lengths, so MINLEN leaves pairs, lone first and second reads, and nothing.
+	 */
+
+	private void createInputs(int pairs, long seed) throws IOException
+	{
+		byte data1[]=FastqTestData.generate(pairs, 50, 150, seed);
+		byte data2[]=FastqTestData.generate(pairs, 50, 150, seed+1);
+
+		reads1=FastqTestData.split(data1);
+		reads2=FastqTestData.split(data2);
+
+		input1=folder.newFile("in_1.fq");
+		FastqTestData.write(input1, data1);
+
+		input2=folder.newFile("in_2.fq");
+		FastqTestData.write(input2, data2);
+	}
+
+	private static List<String> arguments(File inputs[], File outputs[], int threads, String... options)
+	{
+		List<String> args=new ArrayList<String>();
+		args.addAll(Arrays.asList("-threads", Integer.toString(threads), "-phred33"));
+		args.addAll(Arrays.asList(options));
+		for(File input: inputs)
+			args.add(input.getPath());
+		for(File output: outputs)
+			args.add(output.getPath());
+		args.add("MINLEN:"+MIN_LENGTH);
+
+		return args;
+	}
+
+	/**
+	 * Runs PE with MINLEN over the given inputs, and returns the records of each output.
+	 */
+
+	private List<List<String>> trim(File inputs[], File outputs[], int threads, String... options) throws IOException
+	{
+		List<String> args=arguments(inputs, outputs, threads, options);
+		args.add(0, "-quiet");
+
+		assertTrue(TrimmomaticPE.run(args.toArray(new String[args.size()])));
+
+		List<List<String>> records=new ArrayList<List<String>>();
+		for(File output: outputs)
+			records.add(FastqTestData.parseAll(output));
+
+		return records;
+	}
+
+	private List<List<String>> trim(File inputs[], int outputCount, int threads, String... options) throws IOException
+	{
+		File outputs[]=new File[outputCount];
+		for(int i=0;i<outputs.length;i++)
+			outputs[i]=folder.newFile();
+
+		return trim(inputs, outputs, threads, options);
+	}
+
+	/**
+	 * Runs PE over the two inputs, returning the 1P, 1U, 2P and 2U records.
+	 */
+
+	private List<List<String>> trim(int threads, String... options) throws IOException
+	{
+		return trim(new File[] { input1, input2 }, 4, threads, options);
+	}
+
+	/**
+	 * Returns the 1P, 1U, 2P and 2U records expected from the given pairs, stopping after 'maxPairs' surviving pairs.
+	 */
+
+	private List<List<String>> expected(List<Integer> pairs, long maxPairs)
+	{
+		List<List<String>> records=new ArrayList<List<String>>();
+		for(int i=0;i<4;i++)
+			records.add(new ArrayList<String>());
+
+		for(int pair: pairs)
+			{
+			if(records.get(0).size()>=maxPairs)
+				break;
+
+			boolean keep1=FastqTestData.getSequenceLength(reads1.get(pair))>=MIN_LENGTH;
+			boolean keep2=FastqTestData.getSequenceLength(reads2.get(pair))>=MIN_LENGTH;
+
+			if(keep1)
+				records.get(keep2 ? 0 : 1).add(reads1.get(pair));
+			if(keep2)
+				records.get(keep1 ? 2 : 3).add(reads2.get(pair));
+			}
+
+		return records;
+	}
+
+	private List<Integer> firstPairs(int count)
+	{
+		List<Integer> pairs=new ArrayList<Integer>();
+		for(int i=0;i<Math.min(count, reads1.size());i++)
+			pairs.add(i);
+
+		return pairs;
+	}
+
+	/**
+	 * The last pair written completes the target, and no lone read from a later pair follows it.
+	 */
+
+	@Test
+	public void stopsAtSurvivorTarget() throws IOException
+	{
+		createInputs(5000, 120);
+		long allPairs=expected(firstPairs(reads1.size()), Long.MAX_VALUE).get(0).size();
+
+		long targets[]={ 1, 250, 1000, 1234, allPairs, 100000 };
+
+		for(long target: targets)
+			for(int threads: new int[] { 1, 3 })
+				{
+				List<List<String>> records=trim(threads, "-survivors", Long.toString(target));
+
+				assertEquals(Math.min(target, allPairs), records.get(0).size());
+				assertEquals("Target "+target+", threads "+threads, expected(firstPairs(reads1.size()), target), records);
+				}
+	}
+
+	@Test
+	public void readsHead() throws IOException
+	{
+		createInputs(3000, 121);
+
+		for(int head: new int[] { 0, 1, 999, 1000, 2500, 5000 })
+			for(int threads: new int[] { 1, 3 })
+				assertEquals("Head "+head+", threads "+threads, expected(firstPairs(head), Long.MAX_VALUE),
+						trim(threads, "-head", Integer.toString(head)));
+	}
+
+	/**
+	 * Both files sample the same pairs, whatever the number of threads.
+	 */
+
+	@Test
+	public void subsamplesPairsTogether() throws IOException
+	{
+		createInputs(5000, 122);
+
+		List<List<String>> sample=trim(1, "-subsample", "0.3", "-subsampleSeed", "11");
+
+		assertEquals(sample, trim(3, "-subsample", "0.3", "-subsampleSeed", "11"));
+		assertFalse(sample.equals(trim(1, "-subsample", "0.3", "-subsampleSeed", "12")));
+
+		// Every pair seen in any output must have been sampled whole
+
+		Set<Integer> sampled=new TreeSet<Integer>();
+		for(List<String> output: sample)
+			for(String record: output)
+				sampled.add(FastqTestData.getReadNumber(record));
+
+		assertEquals(expected(new ArrayList<Integer>(sampled), Long.MAX_VALUE), sample);
+
+		// Pairs with neither read surviving are not seen, so fewer than the fraction are
+
+		assertTrue(sampled.size()>reads1.size()*0.15 && sampled.size()<reads1.size()*0.3);
+	}
+
+	/**
+	 * Writes the reads of both inputs as one interleaved file.
+	 */
+
+	private File createInterleavedInput() throws IOException
+	{
+		List<String> records=new ArrayList<String>();
+		for(int i=0;i<reads1.size();i++)
+			{
+			records.add(reads1.get(i));
+			records.add(reads2.get(i));
+			}
+
+		File file=folder.newFile("in_interleaved.fq");
+		FastqTestData.write(file, FastqTestData.toBytes(records));
+
+		return file;
+	}
+
+	/**
+	 * Returns the expected interleaved P and U records: both reads of each surviving pair in turn, and the
+	 * lone surviving reads of either file in pair order.
+	 */
+
+	private List<List<String>> expectedInterleaved()
+	{
+		List<String> paired=new ArrayList<String>();
+		List<String> unpaired=new ArrayList<String>();
+
+		for(int i=0;i<reads1.size();i++)
+			{
+			boolean keep1=FastqTestData.getSequenceLength(reads1.get(i))>=MIN_LENGTH;
+			boolean keep2=FastqTestData.getSequenceLength(reads2.get(i))>=MIN_LENGTH;
+
+			if(keep1 && keep2)
+				{
+				paired.add(reads1.get(i));
+				paired.add(reads2.get(i));
+				}
+			else if(keep1)
+				unpaired.add(reads1.get(i));
+			else if(keep2)
+				unpaired.add(reads2.get(i));
+			}
+
+		return Arrays.asList(paired, unpaired);
+	}
+
+	@Test
+	public void readsInterleavedInput() throws IOException
+	{
+		createInputs(3000, 123);
+		File interleaved=createInterleavedInput();
+
+		List<List<String>> expected=expected(firstPairs(reads1.size()), Long.MAX_VALUE);
+
+		for(int threads: new int[] { 1, 3 })
+			assertEquals("Threads "+threads, expected, trim(new File[] { interleaved }, 4, threads, "-interleaved"));
+	}
+
+	/**
+	 * Interleaved output keeps the mates of each pair together, whether the input is interleaved or not, and
+	 * reads back to the same pairs.
+	 */
+
+	@Test
+	public void roundTripsInterleavedOutput() throws IOException
+	{
+		createInputs(3000, 124);
+		File interleaved=createInterleavedInput();
+
+		List<List<String>> expected=expectedInterleaved();
+
+		for(int threads: new int[] { 1, 3 })
+			{
+			assertEquals("Threads "+threads, expected, trim(new File[] { input1, input2 }, 2, threads, "-interleavedOut"));
+
+			List<List<String>> records=trim(new File[] { interleaved }, 2, threads, "-interleaved", "-interleavedOut");
+			assertEquals("Threads "+threads, expected, records);
+
+			// The pairs all pass MINLEN again
+
+			File paired=folder.newFile();
+			FastqTestData.write(paired, FastqTestData.toBytes(records.get(0)));
+
+			List<List<String>> again=trim(new File[] { paired }, 2, threads, "-interleaved", "-interleavedOut");
+			assertEquals(records.get(0), again.get(0));
+			assertTrue(again.get(1).isEmpty());
+			}
+	}
+
+	/**
+	 * Discarded outputs are not written, even when named, but their reads are still counted.
+	 */
+
+	@Test
+	public void discardsUnpairedOutputs() throws IOException
+	{
+		createInputs(3000, 125);
+		List<List<String>> expected=expected(firstPairs(reads1.size()), Long.MAX_VALUE);
+
+		List<List<String>> discarded=new ArrayList<List<String>>(expected);
+		discarded.set(1, new ArrayList<String>());
+		discarded.set(3, new ArrayList<String>());
+
+		File inputs[]={ input1, input2 };
+
+		for(int threads: new int[] { 1, 3 })
+			{
+			assertEquals("Threads "+threads, discarded, trim(threads, "-discard1U", "-discard2U"));
+
+			File outputs[]={ folder.newFile(), FastqSerializer.DISCARD, folder.newFile(), FastqSerializer.DISCARD };
+			assertEquals("Threads "+threads, discarded, trim(inputs, outputs, threads));
+
+			List<String> args=arguments(inputs, new File[] { folder.newFile(), folder.newFile(), folder.newFile(), folder.newFile() },
+					threads, "-discard1U", "-discard2U");
+
+			PrintStream err=System.err;
+			ByteArrayOutputStream log=new ByteArrayOutputStream();
+
+			try
+				{
+				System.setErr(new PrintStream(log, true));
+				assertTrue(TrimmomaticPE.run(args.toArray(new String[args.size()])));
+				}
+			finally
+				{
+				System.setErr(err);
+				}
+
+			String stats=log.toString();
+
+			assertTrue(stats, stats.contains("Both Surviving: "+expected.get(0).size()+" "));
+			assertTrue(stats, stats.contains("Forward Only Surviving: "+expected.get(1).size()+" "));
+			assertTrue(stats, stats.contains("Reverse Only Surviving: "+expected.get(3).size()+" "));
+			}
+
+		// Interleaved output writes both lone mates to one output, which only -discard1U names
+
+		List<List<String>> interleaved=trim(inputs, 2, 3, "-interleavedOut", "-discard1U");
+		assertEquals(expectedInterleaved().get(0), interleaved.get(0));
+		assertTrue(interleaved.get(1).isEmpty());
+
+		List<String> args=arguments(inputs, new File[] { folder.newFile(), folder.newFile() }, 1, "-interleavedOut", "-discard2U");
+		assertFalse(TrimmomaticPE.run(args.toArray(new String[args.size()])));
+	}
+}
@@ -0,0 +1,114 @@
+package org.usadellab.trimmomatic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+
+public class TrimmomaticSETest
+{
+	private static final int MIN_LENGTH=100;
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * Runs SE with MINLEN, so about half of the generated reads survive untouched, and returns the output records.
+	 */
+
+	private List<String> trim(File input, int threads, String... options) throws IOException
+	{
+		File output=folder.newFile();
+
+		List<String> args=new ArrayList<String>();
+		args.addAll(Arrays.asList("-threads", Integer.toString(threads), "-phred33", "-quiet"));
+		args.addAll(Arrays.asList(options));
+		args.addAll(Arrays.asList(input.getPath(), output.getPath(), "MINLEN:"+MIN_LENGTH));
+
+		assertTrue(TrimmomaticSE.run(args.toArray(new String[args.size()])));
+
+		return FastqTestData.parseAll(output);
+	}
+
+	private static List<String> survivors(List<String> records)
+	{
+		List<String> survivors=new ArrayList<String>();
+
+		for(String record: records)
+			if(FastqTestData.getSequenceLength(record)>=MIN_LENGTH)
+				survivors.add(record);
+
+		return survivors;
+	}
+
+	private File createInput(byte data[]) throws IOException
+	{
+		File file=folder.newFile("in.fq");
+		FastqTestData.write(file, data);
+
+		return file;
+	}
+
+	@Test
+	public void stopsAtSurvivorTarget() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 110);
+		File input=createInput(data);
+		List<String> expected=survivors(FastqTestData.split(data));
+
+		// Targets within the first block, at a block end, across blocks and beyond the input
+
+		long targets[]={ 1, 357, 1500, 2222, expected.size(), 100000 };
+
+		for(long target: targets)
+			for(int threads: new int[] { 1, 3 })
+				{
+				List<String> records=trim(input, threads, "-survivors", Long.toString(target));
+				assertEquals("Target "+target+", threads "+threads, expected.subList(0, (int)Math.min(target, expected.size())), records);
+				}
+	}
+
+	@Test
+	public void readsHead() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 111);
+		File input=createInput(data);
+		List<String> records=FastqTestData.split(data);
+
+		for(int head: new int[] { 0, 1, 999, 1000, 2500, 5000 })
+			for(int threads: new int[] { 1, 3 })
+				assertEquals("Head "+head+", threads "+threads, survivors(records.subList(0, Math.min(head, records.size()))),
+						trim(input, threads, "-head", Integer.toString(head)));
+	}
+
+	@Test
+	public void subsamplesReproducibly() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 112);
+		File input=createInput(data);
+		List<String> expected=survivors(FastqTestData.split(data));
+
+		List<String> sample=trim(input, 1, "-subsample", "0.25", "-subsampleSeed", "7");
+
+		assertEquals(sample, trim(input, 3, "-subsample", "0.25", "-subsampleSeed", "7"));
+		assertFalse(sample.equals(trim(input, 1, "-subsample", "0.25", "-subsampleSeed", "8")));
+
+		// An ordered selection of the survivors, of about the requested fraction
+
+		List<String> selected=new ArrayList<String>(expected);
+		selected.retainAll(sample);
+
+		assertEquals(selected, sample);
+		assertTrue(sample.size()>expected.size()*0.2 && sample.size()<expected.size()*0.3);
+	}
+}
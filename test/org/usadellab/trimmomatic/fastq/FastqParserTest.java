@@ -0,0 +1,370 @@
+package org.usadellab.trimmomatic.fastq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.util.GzipIndex;
+import org.usadellab.trimmomatic.util.Logger;
+
+public class FastqParserTest
+{
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private File createFile(String name, byte data[]) throws IOException
+	{
+		File file=folder.newFile(name);
+		FastqTestData.write(file, data);
+
+		return file;
+	}
+
+	/**
+	 * Compresses the data as one gzip member per 'recordsPerMember' records, or as a single member if zero.
+	 */
+
+	private File createGzipFile(String name, byte data[], int recordsPerMember) throws IOException
+	{
+		List<String> records=FastqTestData.split(data);
+		if(recordsPerMember==0)
+			recordsPerMember=records.size();
+
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		for(int i=0;i<records.size();i+=recordsPerMember)
+			{
+			GZIPOutputStream gzipOut=new GZIPOutputStream(out);
+			gzipOut.write(FastqTestData.toBytes(records.subList(i, Math.min(i+recordsPerMember, records.size()))));
+			gzipOut.finish();
+			}
+
+		return createFile(name, out.toByteArray());
+	}
+
+	private static List<String> readAll(FastqParser parser) throws IOException
+	{
+		List<String> records=new ArrayList<String>();
+
+		try
+			{
+			while(parser.hasNext())
+				records.add(FastqTestData.format(parser.next()));
+			}
+		finally
+			{
+			parser.close();
+			}
+
+		return records;
+	}
+
+	private static List<String> parseRange(File file, long start, long end, boolean memoryMapped, GzipIndex gzipIndex)
+			throws IOException
+	{
+		FastqParser parser=new FastqParser(33);
+		parser.setMemoryMapped(memoryMapped);
+		parser.setGzipIndex(gzipIndex);
+		parser.parseRange(file, start, end);
+
+		return readAll(parser);
+	}
+
+	/**
+	 * Parses the file as consecutive ranges ending at the given cuts, which must finish with the data length.
+	 */
+
+	private static List<String> parseRanges(File file, List<Long> cuts, boolean memoryMapped, GzipIndex gzipIndex)
+			throws IOException
+	{
+		List<String> records=new ArrayList<String>();
+
+		long start=0;
+		for(long end: cuts)
+			{
+			records.addAll(parseRange(file, start, end, memoryMapped, gzipIndex));
+			start=end;
+			}
+
+		return records;
+	}
+
+	private static List<Long> evenCuts(long length, long size)
+	{
+		List<Long> cuts=new ArrayList<Long>();
+
+		for(long end=size;end<length;end+=size)
+			cuts.add(end);
+		cuts.add(length);
+
+		return cuts;
+	}
+
+	/**
+	 * Cuts 'delta' bytes from every record start, where resynchronisation is most easily thrown off.
+	 */
+
+	private static List<Long> recordCuts(byte data[], int delta)
+	{
+		List<Long> cuts=new ArrayList<Long>();
+
+		long offset=0;
+		for(String record: FastqTestData.split(data))
+			{
+			offset+=record.length();
+
+			if(offset+delta>0 && offset+delta<data.length)
+				cuts.add(offset+delta);
+			}
+		cuts.add((long)data.length);
+
+		return cuts;
+	}
+
+	@Test
+	public void parsesWholeFile() throws IOException
+	{
+		byte data[]=FastqTestData.generate(2000, 50, 150, 30);
+		List<String> expected=FastqTestData.split(data);
+
+		assertEquals(expected, FastqTestData.parseAll(createFile("whole.fq", data)));
+		assertEquals(expected, FastqTestData.parseAll(createGzipFile("whole.fq.gz", data, 0)));
+	}
+
+	@Test
+	public void rangesYieldEveryRecordOnce() throws IOException
+	{
+		byte data[]=FastqTestData.generate(300, 50, 150, 31);
+		File file=createFile("ranges.fq", data);
+		List<String> expected=FastqTestData.split(data);
+
+		long sizes[]={ 37, 256, 1000, 4096, data.length/3, data.length };
+
+		for(long size: sizes)
+			{
+			assertEquals("Size "+size, expected, parseRanges(file, evenCuts(data.length, size), false, null));
+			assertEquals("Size "+size, expected, parseRanges(file, evenCuts(data.length, size), true, null));
+			}
+
+		for(int delta=-1;delta<=1;delta++)
+			assertEquals("Delta "+delta, expected, parseRanges(file, recordCuts(data, delta), false, null));
+	}
+
+	@Test
+	public void gzipRangesYieldEveryRecordOnce() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 32);
+		File file=createGzipFile("ranges.fq.gz", data, 500);
+		List<String> expected=FastqTestData.split(data);
+
+		GzipIndex index=GzipIndex.build(file, 20000);
+
+		// Cuts moved onto checkpoints, as the split workers make them, and cuts anywhere else
+
+		List<Long> checkpointCuts=new ArrayList<Long>();
+		for(long end: evenCuts(data.length, 30000))
+			{
+			long cut=index.getCheckpointAfter(end);
+			if(checkpointCuts.isEmpty() || cut>checkpointCuts.get(checkpointCuts.size()-1))
+				checkpointCuts.add(cut);
+			}
+
+		assertEquals(expected, parseRanges(file, checkpointCuts, false, index));
+		assertEquals(expected, parseRanges(file, evenCuts(data.length, 29989), false, index));
+
+		// Members start on records, so some checkpoints fall exactly on a record start
+
+		int found=0;
+		for(long start: recordCuts(data, 0))
+			if(start<data.length && index.isCheckpoint(start))
+				{
+				List<Long> cuts=new ArrayList<Long>();
+				cuts.add(start);
+				cuts.add((long)data.length);
+
+				assertEquals(expected, parseRanges(file, cuts, false, index));
+				found++;
+				}
+
+		assertTrue(found>0);
+	}
+
+	@Test
+	public void parsesIndexedRecords() throws IOException
+	{
+		byte data[]=FastqTestData.generate(200, 50, 150, 33);
+		File file=createFile("indexed.fq", data);
+		List<String> expected=FastqTestData.split(data);
+
+		FastqIndex index=FastqIndex.build(file, 7);
+		assertEquals(expected.size(), index.getRecordCount());
+
+		int firsts[]={ 0, 1, 6, 7, 8, 50, expected.size()-1 };
+
+		for(int first: firsts)
+			{
+			FastqParser parser=new FastqParser(33);
+			parser.parseRecords(file, index, first, 10);
+			assertEquals(expected.subList(first, Math.min(first+10, expected.size())), readAll(parser));
+
+			parser=new FastqParser(33);
+			parser.parseRecords(file, index, first, -1);
+			assertEquals(expected.subList(first, expected.size()), readAll(parser));
+			}
+	}
+
+	/**
+	 * Files are joined as if concatenated, with a newline added where one is missing, and progress is measured
+	 * against the members of tar archives rather than the archives themselves.
+	 */
+
+	@Test
+	public void parsesSeveralFiles() throws IOException
+	{
+		byte whole[]=FastqTestData.generate(200, 50, 150, 34);
+		byte unterminated[]=FastqTestData.generate(150, 50, 150, 35);
+		byte member[]=FastqTestData.generate(100, 50, 150, 36);
+		byte last[]=FastqTestData.generate(50, 50, 150, 37);
+
+		unterminated=Arrays.copyOf(unterminated, unterminated.length-1);
+
+		new TarTestData()
+			.add("other.fq", FastqTestData.generate(2000, 50, 150, 38))
+			.add("member.fq", member)
+			.write(folder.newFile("reads.tar"));
+
+		File files[]={ createFile("whole.fq", whole), createFile("unterminated.fq", unterminated),
+				new File(folder.getRoot(), "reads.tar!/member.fq"), createFile("last.fq", last) };
+
+		List<String> expected=new ArrayList<String>();
+		expected.addAll(FastqTestData.split(whole));
+		expected.addAll(FastqTestData.split(unterminated));
+		expected.addAll(FastqTestData.split(member));
+		expected.addAll(FastqTestData.split(last));
+
+		FastqParser parser=new FastqParser(33);
+		parser.parse(files);
+
+		List<String> records=new ArrayList<String>();
+		while(parser.hasNext())
+			{
+			records.add(FastqTestData.format(parser.next()));
+			assertTrue(parser.getProgress()<=100);
+			}
+		parser.close();
+
+		assertEquals(expected, records);
+		assertEquals(100, parser.getProgress());
+
+		// The unterminated file ends the input too
+
+		files=new File[] { createFile("first.fq", whole), files[1] };
+		expected=FastqTestData.split(whole);
+		expected.addAll(FastqTestData.split(unterminated));
+
+		parser=new FastqParser(33);
+		parser.parse(files);
+		assertEquals(expected, readAll(parser));
+	}
+
+	/**
+	 * A followed file may end part way through the record being written, which is dropped with a warning to the
+	 * parser's logger.
+	 */
+
+	@Test
+	public void warnsOfIncompleteFollowedRecord() throws IOException
+	{
+		byte data[]=FastqTestData.generate(100, 50, 150, 39);
+		List<String> expected=FastqTestData.split(data);
+
+		File file=createFile("follow.fq", Arrays.copyOf(data, data.length-expected.get(expected.size()-1).length()/2));
+		expected.remove(expected.size()-1);
+
+		final List<String> warnings=new ArrayList<String>();
+
+		FastqParser parser=new FastqParser(33);
+		parser.setFollow(folder.newFile("done"), 0);
+		parser.setLogger(new Logger(true, true, false)
+			{
+				@Override
+				public void warnln(String message)
+				{
+					warnings.add(message);
+				}
+			});
+		parser.parse(file);
+
+		assertEquals(expected, readAll(parser));
+		assertEquals(1, warnings.size());
+		assertTrue(warnings.get(0).startsWith("Warning: Discarding incomplete final record"));
+	}
+
+	/**
+	 * After a run of equal-length reads, a shorter read whose comment and quality lines start with '+' lines up
+	 * with the predicted line ends, and must still be split on its real lines.
+	 */
+
+	@Test
+	public void confirmsPredictedRecords() throws IOException
+	{
+		StringBuilder text=new StringBuilder();
+
+		for(int i=0;i<=5;i++)
+			text.append("@r"+i+"\nACGTACGTAC\n+\nIIIIIIIIII\n");
+
+		text.append("@s\nACGT\n+abcd\n+III\n");
+		text.append("@t12345678\nACGTACGTAC\n+\nIIIIIIIIII\n");
+
+		for(int i=0;i<=2;i++)
+			text.append("@u"+i+"\nACGTACGTAC\n+\nIIIIIIIIII\n");
+
+		byte data[]=text.toString().getBytes(FastqTestData.CHARSET);
+		File file=createFile("plus.fq", data);
+
+		List<String> records=FastqTestData.parseAll(file);
+
+		assertEquals(FastqTestData.split(data), records);
+		assertEquals("@s\nACGT\n+abcd\n+III\n", records.get(6));
+	}
+
+	/**
+	 * A shorter read whose comment line ends where the sequence was predicted to, followed by a quality line
+	 * starting with '+' (phred33 Q10). The predicted quality line then ends just before the next record's own
+	 * quality line, which starts with '@' (Q31), so both predicted line ends look right.
+	 */
+
+	@Test
+	public void confirmsPredictedLineContents() throws IOException
+	{
+		StringBuilder text=new StringBuilder();
+
+		for(int i=0;i<=5;i++)
+			text.append("@r"+i+"\nACGTACGTAC\n+\nIIIIIIIIII\n");
+
+		text.append("@s\nACGT\n+abcd\n+III\n");
+		text.append("@x\nACGTA\n+\n@IIII\n");
+
+		for(int i=0;i<=2;i++)
+			text.append("@u"+i+"\nACGTACGTAC\n+\nIIIIIIIIII\n");
+
+		byte data[]=text.toString().getBytes(FastqTestData.CHARSET);
+		File file=createFile("lined_up.fq", data);
+
+		List<String> records=FastqTestData.parseAll(file);
+
+		assertEquals(FastqTestData.split(data), records);
+		assertEquals("@s\nACGT\n+abcd\n+III\n", records.get(6));
+		assertEquals("@x\nACGTA\n+\n@IIII\n", records.get(7));
+	}
+}
@@ -0,0 +1,166 @@
+package org.usadellab.trimmomatic.fastq;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastqSerializerTest
+{
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private List<FastqRecord> parse(byte data[]) throws IOException
+	{
+		File file=folder.newFile();
+		FastqTestData.write(file, data);
+
+		FastqParser parser=new FastqParser(33);
+		parser.parse(file);
+
+		List<FastqRecord> records=new ArrayList<FastqRecord>();
+
+		try
+			{
+			while(parser.hasNext())
+				records.add(parser.next());
+			}
+		finally
+			{
+			parser.close();
+			}
+
+		return records;
+	}
+
+	/**
+	 * Writes the records in batches of 'batchSize', as the trimming workers hand them over.
+	 */
+
+	private byte[] serialize(FastqSerializer serializer, List<FastqRecord> records, int batchSize) throws IOException
+	{
+		File file=folder.newFile();
+		serializer.open(file);
+
+		for(int i=0;i<records.size();i+=batchSize)
+			serializer.writeRecords(records.subList(i, Math.min(i+batchSize, records.size())));
+
+		serializer.close();
+
+		InputStream in=new FileInputStream(file);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		byte buf[]=new byte[65536];
+		int read;
+
+		while((read=in.read(buf, 0, buf.length))>=0)
+			out.write(buf, 0, read);
+
+		in.close();
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void writesUntouchedRecordsAsInput() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 40);
+		List<FastqRecord> records=parse(data);
+
+		assertArrayEquals(data, serialize(new FastqSerializer(), records, 1000));
+		assertArrayEquals(data, serialize(new FastqSerializer(), records, 1));
+	}
+
+	@Test
+	public void reformatsRecordsWithoutExactInput() throws IOException
+	{
+		String text="@r1 desc\r\nACGT\r\n+r1 desc\r\nIIII\r\n@r2\nACGTA\n+\nIIIII";
+
+		byte output[]=serialize(new FastqSerializer(), parse(text.getBytes(FastqTestData.CHARSET)), 10);
+
+		assertEquals("@r1 desc\nACGT\n+r1 desc\nIIII\n@r2\nACGTA\n+\nIIIII\n", new String(output, FastqTestData.CHARSET));
+	}
+
+	@Test
+	public void writesTrimmedRecords() throws IOException
+	{
+		byte data[]=FastqTestData.generate(2000, 50, 150, 41);
+		List<FastqRecord> records=parse(data);
+		List<String> lines=FastqTestData.split(data);
+
+		// Every third record trimmed at both ends, every other one kept whole or as a full-length copy
+
+		List<FastqRecord> written=new ArrayList<FastqRecord>();
+		StringBuilder expected=new StringBuilder();
+
+		for(int i=0;i<records.size();i++)
+			{
+			FastqRecord record=records.get(i);
+
+			if(i%3==0)
+				{
+				FastqRecord trimmed=new FastqRecord(record, 5, record.getLength()-10);
+
+				written.add(trimmed);
+				expected.append(FastqTestData.format(trimmed));
+				}
+			else
+				{
+				written.add(i%3==1 ? record : new FastqRecord(record, 0, record.getLength()));
+				expected.append(lines.get(i));
+				}
+			}
+
+		byte output[]=serialize(new FastqSerializer(), written, 100);
+
+		assertEquals(expected.toString(), new String(output, FastqTestData.CHARSET));
+	}
+
+	private String slim(String text, boolean barePlus, boolean shortNames, boolean canonicalNames) throws IOException
+	{
+		FastqSerializer serializer=new FastqSerializer();
+		serializer.setBarePlus(barePlus);
+		serializer.setShortNames(shortNames);
+		serializer.setCanonicalNames(canonicalNames);
+
+		List<FastqRecord> records=parse(text.getBytes(FastqTestData.CHARSET));
+
+		// Slimming applies to trimmed records as well as untouched ones
+
+		records.set(1, new FastqRecord(records.get(1), 1, 3));
+
+		return new String(serialize(serializer, records, 10), FastqTestData.CHARSET);
+	}
+
+	@Test
+	public void slimsRecordsWhenAsked() throws IOException
+	{
+		String text="@EAS139:136:FC706VJ:2:2104:15343:197393 1:Y:18:ATCACG\nACGT\n+EAS139:136:FC706VJ:2:2104:15343:197393 1:Y:18:ATCACG\nIIII\n"
+				+"@HWUSI-EAS100R:6:73:941:1973#0/1\tlane6\nACGTA\n+HWUSI-EAS100R:6:73:941:1973#0/1\tlane6\nIIIII\n"
+				+"@SRR001666.1 071112_SLXA-EAS1_s_7:5:1:817:345 length=36\nACG\n+\nIII\n";
+
+		assertEquals("@EAS139:136:FC706VJ:2:2104:15343:197393 1:Y:18:ATCACG\nACGT\n+\nIIII\n"
+				+"@HWUSI-EAS100R:6:73:941:1973#0/1\tlane6\nCGT\n+\nIII\n"
+				+"@SRR001666.1 071112_SLXA-EAS1_s_7:5:1:817:345 length=36\nACG\n+\nIII\n", slim(text, true, false, false));
+
+		assertEquals("@EAS139:136:FC706VJ:2:2104:15343:197393\nACGT\n+EAS139:136:FC706VJ:2:2104:15343:197393 1:Y:18:ATCACG\nIIII\n"
+				+"@HWUSI-EAS100R:6:73:941:1973#0/1\nCGT\n+HWUSI-EAS100R:6:73:941:1973#0/1\tlane6\nIII\n"
+				+"@SRR001666.1\nACG\n+\nIII\n", slim(text, false, true, false));
+
+		// Canonical names drop the pair member as well, and fall back to the short name
+
+		assertEquals("@EAS139:136:FC706VJ:2:2104:15343:197393\nACGT\n+\nIIII\n"
+				+"@HWUSI-EAS100R:6:73:941:1973#0\nCGT\n+\nIII\n"
+				+"@SRR001666.1\nACG\n+\nIII\n", slim(text, true, false, true));
+	}
+}
@@ -0,0 +1,143 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible FASTQ data for tests. Qualities include '@' and '+', which also start name and
+ * separator lines, so parsers cannot rely on the first byte of a line alone.
+ */
+
+public class FastqTestData
+{
+	public static final Charset CHARSET=Charset.forName("ISO-8859-1");
+
+	private static final String BASES="ACGTN";
+
+	public static byte[] generate(int count, int minLength, int maxLength, long seed)
+	{
+		Random random=new Random(seed);
+		StringBuilder text=new StringBuilder();
+
+		for(int i=0;i<count;i++)
+			{
+			int length=minLength+random.nextInt(maxLength-minLength+1);
+
+			text.append("@read").append(i);
+			if(random.nextBoolean())
+				text.append(" 1:N:0:").append(random.nextInt(100));
+			text.append('\n');
+
+			for(int j=0;j<length;j++)
+				text.append(BASES.charAt(random.nextInt(BASES.length())));
+
+			text.append("\n+\n");
+
+			for(int j=0;j<length;j++)
+				text.append((char)('!'+random.nextInt(41)));
+
+			text.append('\n');
+			}
+
+		return text.toString().getBytes(CHARSET);
+	}
+
+	public static void write(File file, byte data[]) throws IOException
+	{
+		OutputStream out=new FileOutputStream(file);
+
+		try
+			{
+			out.write(data);
+			}
+		finally
+			{
+			out.close();
+			}
+	}
+
+	/**
+	 * Returns the number of a generated record, which both files of a generated pair share.
+	 */
+
+	public static int getReadNumber(String record)
+	{
+		int end=record.indexOf('\n');
+		int space=record.indexOf(' ');
+
+		return Integer.parseInt(record.substring(5, space>=0 && space<end ? space : end));
+	}
+
+	public static int getSequenceLength(String record)
+	{
+		int start=record.indexOf('\n')+1;
+
+		return record.indexOf('\n', start)-start;
+	}
+
+	/**
+	 * Formats records as their four lines, for comparing what parsers return.
+	 */
+
+	public static String format(FastqRecord record)
+	{
+		String comment=record.getComment();
+
+		return "@"+record.getName()+"\n"+record.getSequence()+"\n+"+comment+"\n"+record.getQuality()+"\n";
+	}
+
+	public static List<String> parseAll(File file) throws IOException
+	{
+		FastqParser parser=new FastqParser(33);
+		parser.parse(file);
+
+		List<String> records=new ArrayList<String>();
+
+		try
+			{
+			while(parser.hasNext())
+				records.add(format(parser.next()));
+			}
+		finally
+			{
+			parser.close();
+			}
+
+		return records;
+	}
+
+	/**
+	 * Splits FASTQ text into its records, as the expected result of parsing it.
+	 */
+
+	public static List<String> split(byte data[])
+	{
+		String lines[]=new String(data, CHARSET).split("\n");
+		List<String> records=new ArrayList<String>();
+
+		for(int i=0;i+3<lines.length;i+=4)
+			records.add(lines[i]+"\n"+lines[i+1]+"\n"+lines[i+2]+"\n"+lines[i+3]+"\n");
+
+		return records;
+	}
+
+	public static byte[] toBytes(List<String> records)
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		for(String record: records)
+			{
+			byte bytes[]=record.getBytes(CHARSET);
+			out.write(bytes, 0, bytes.length);
+			}
+
+		return out.toByteArray();
+	}
+}
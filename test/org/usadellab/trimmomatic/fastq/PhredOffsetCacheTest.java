@@ -0,0 +1,111 @@
+package org.usadellab.trimmomatic.fastq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.util.Logger;
+
+public class PhredOffsetCacheTest
+{
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private String userHome;
+	private File home;
+
+	private List<String> warnings=new ArrayList<String>();
+
+	private Logger logger=new Logger(true, true, false)
+		{
+			@Override
+			public void warnln(String message)
+			{
+				warnings.add(message);
+			}
+		};
+
+	@Before
+	public void setHome() throws IOException
+	{
+		userHome=System.getProperty("user.home");
+
+		home=folder.newFolder("home");
+		System.setProperty("user.home", home.getPath());
+	}
+
+	@After
+	public void restoreHome()
+	{
+		System.setProperty("user.home", userHome);
+	}
+
+	private File createInput() throws IOException
+	{
+		File file=folder.newFile("reads.fq");
+		FastqTestData.write(file, FastqTestData.generate(500, 50, 150, 130));
+
+		return file;
+	}
+
+	private int detect(File file, boolean cache) throws IOException
+	{
+		FastqParser parser=new FastqParser(0);
+		parser.setLogger(logger);
+		parser.setPhredOffsetCache(cache);
+		parser.parse(file);
+		parser.close();
+
+		return parser.determinePhredOffset();
+	}
+
+	@Test
+	public void cachesDetectedOffset() throws IOException
+	{
+		File file=createInput();
+
+		assertEquals(0, PhredOffsetCache.lookup(file));
+		assertEquals(33, detect(file, true));
+		assertEquals(33, PhredOffsetCache.lookup(file));
+
+		assertTrue(new File(home, ".trimmomatic/phred.properties").isFile());
+		assertTrue(warnings.isEmpty());
+
+		// A changed file no longer matches its entry
+
+		FastqTestData.write(file, FastqTestData.generate(400, 50, 150, 131));
+		assertEquals(0, PhredOffsetCache.lookup(file));
+	}
+
+	@Test
+	public void leavesHomeAloneWhenAsked() throws IOException
+	{
+		assertEquals(33, detect(createInput(), false));
+
+		assertFalse(new File(home, ".trimmomatic").exists());
+		assertTrue(warnings.isEmpty());
+	}
+
+	@Test
+	public void warnsWhenCacheCannotBeWritten() throws IOException
+	{
+		FastqTestData.write(new File(home, ".trimmomatic"), new byte[0]);
+		File file=createInput();
+
+		assertEquals(33, detect(file, true));
+		assertEquals(0, PhredOffsetCache.lookup(file));
+
+		assertEquals(1, warnings.size());
+		assertTrue(warnings.get(0).startsWith("Warning: Unable to cache the quality encoding"));
+	}
+}
@@ -0,0 +1,130 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.itadaki.bzip2.BZip2InputStream;
+import org.usadellab.trimmomatic.util.BGZFOutputStream;
+import org.usadellab.trimmomatic.util.ParallelBZip2OutputStream;
+
+/**
+ * Compresses and reads back test data for the codec stream tests.
+ */
+
+public class StreamTestData
+{
+	/**
+	 * Reads the stream to its end and closes it. Single bytes alternate with reads of an odd size, so reads
+	 * straddle the block and member boundaries of the stream under test.
+	 */
+
+	public static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		byte buf[]=new byte[7919];
+		int read;
+
+		try
+			{
+			while(true)
+				{
+				int b=in.read();
+				if(b<0)
+					break;
+				out.write(b);
+
+				if((read=in.read(buf, 0, buf.length))<0)
+					break;
+				out.write(buf, 0, read);
+				}
+			}
+		finally
+			{
+			in.close();
+			}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the data in chunks which do not line up with the compressed blocks.
+	 */
+
+	private static void writeChunked(OutputStream out, byte data[]) throws IOException
+	{
+		for(int pos=0;pos<data.length;pos+=12345)
+			out.write(data, pos, Math.min(12345, data.length-pos));
+
+		out.close();
+	}
+
+	public static byte[] bgzf(byte data[], int threads, File indexFile) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		writeChunked(new BGZFOutputStream(out, threads, indexFile), data);
+
+		return out.toByteArray();
+	}
+
+	public static byte[] bzip2(byte data[], int threads, int blockSizeLevel) throws IOException
+	{
+		return bzip2(data, threads, blockSizeLevel, true);
+	}
+
+	public static byte[] bzip2(byte data[], int threads, int blockSizeLevel, boolean verifyBlocks) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		writeChunked(new ParallelBZip2OutputStream(out, threads, blockSizeLevel, verifyBlocks), data);
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decompresses with jbzip2's own decoder, as the reference for the parallel bzip2 streams.
+	 */
+
+	public static byte[] bunzip2(byte compressed[]) throws IOException
+	{
+		return readAll(new BZip2InputStream(new ByteArrayInputStream(compressed), false));
+	}
+
+	/**
+	 * Compresses the data with the JDK as the given number of gzip members, or one empty member if there is no data.
+	 */
+
+	public static byte[] gzip(byte data[], int members) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		int memberLength=Math.max(1, (data.length+members-1)/members);
+		int pos=0;
+
+		do
+			{
+			GZIPOutputStream gzipOut=new GZIPOutputStream(out);
+			gzipOut.write(data, pos, Math.min(memberLength, data.length-pos));
+			gzipOut.finish();
+
+			pos+=memberLength;
+			}
+		while(pos<data.length);
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decompresses with the JDK, as the reference for the gzip writers.
+	 */
+
+	public static byte[] gunzip(byte compressed[]) throws IOException
+	{
+		return readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+}
@@ -0,0 +1,157 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Builds tar archives for the tar member tests, one header style per method.
+ */
+
+public class TarTestData
+{
+	private static final int BLOCK_SIZE=512;
+	private static final Charset NAME_CHARSET=Charset.forName("UTF-8");
+
+	private ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+	private static void putString(byte header[], int offset, int length, String value)
+	{
+		byte bytes[]=value.getBytes(NAME_CHARSET);
+		if(bytes.length>length)
+			throw new IllegalArgumentException("Field too long: "+value);
+
+		System.arraycopy(bytes, 0, header, offset, bytes.length);
+	}
+
+	private static void putOctal(byte header[], int offset, int length, long value)
+	{
+		StringBuilder octal=new StringBuilder(Long.toOctalString(value));
+		while(octal.length()<length-1)
+			octal.insert(0, '0');
+
+		putString(header, offset, length-1, octal.toString());
+	}
+
+	private static byte[] header(String name, String prefix, char type, long size)
+	{
+		byte header[]=new byte[BLOCK_SIZE];
+
+		putString(header, 0, 100, name);
+		putOctal(header, 100, 8, 0644);
+		putOctal(header, 108, 8, 0);
+		putOctal(header, 116, 8, 0);
+		putOctal(header, 124, 12, size);
+		putOctal(header, 136, 12, 0);
+		header[156]=(byte)type;
+		putString(header, 257, 6, "ustar");
+		putString(header, 263, 2, "00");
+		putString(header, 345, 155, prefix);
+
+		return header;
+	}
+
+	private void writeEntry(byte header[], byte data[])
+	{
+		for(int i=148;i<156;i++)
+			header[i]=' ';
+
+		long checksum=0;
+		for(byte b: header)
+			checksum+=b&0xFF;
+
+		putOctal(header, 148, 7, checksum);
+
+		out.write(header, 0, header.length);
+		out.write(data, 0, data.length);
+
+		int padding=(BLOCK_SIZE-data.length%BLOCK_SIZE)%BLOCK_SIZE;
+		out.write(new byte[padding], 0, padding);
+	}
+
+	/**
+	 * Adds a plain member, splitting names over 100 bytes into the ustar prefix and name.
+	 */
+
+	public TarTestData add(String name, byte data[])
+	{
+		String prefix="";
+
+		if(name.length()>100)
+			{
+			int slash=name.indexOf('/', name.length()-101);
+			prefix=name.substring(0, slash);
+			name=name.substring(slash+1);
+			}
+
+		writeEntry(header(name, prefix, '0', data.length), data);
+		return this;
+	}
+
+	public TarTestData addDirectory(String name)
+	{
+		writeEntry(header(name, "", '5', 0), new byte[0]);
+		return this;
+	}
+
+	/**
+	 * Adds a member behind a GNU 'L' entry holding its full name, with a truncated name in its own header.
+	 */
+
+	public TarTestData addGnuLongName(String name, byte data[])
+	{
+		byte longName[]=(name+"\0").getBytes(NAME_CHARSET);
+
+		writeEntry(header("././@LongLink", "", 'L', longName.length), longName);
+		writeEntry(header(name.substring(0, Math.min(name.length(), 100)), "", '0', data.length), data);
+		return this;
+	}
+
+	/**
+	 * Adds a member behind a pax 'x' entry with the given records, e.g. "path" and "size". 'headerSize' is
+	 * written to the member's own header, which a pax size overrides.
+	 */
+
+	public TarTestData addPax(String headerName, long headerSize, byte data[], String... records)
+	{
+		StringBuilder pax=new StringBuilder();
+
+		for(int i=0;i<records.length;i+=2)
+			{
+			String record=" "+records[i]+"="+records[i+1]+"\n";
+			int recordLength=record.getBytes(NAME_CHARSET).length;
+
+			// The length counts its own digits
+
+			int length=recordLength+Integer.toString(recordLength).length();
+			if(Integer.toString(length).length()!=Integer.toString(recordLength).length())
+				length++;
+
+			pax.append(length).append(record);
+			}
+
+		byte paxData[]=pax.toString().getBytes(NAME_CHARSET);
+
+		writeEntry(header("PaxHeaders/"+headerName, "", 'x', paxData.length), paxData);
+		writeEntry(header(headerName, "", '0', headerSize), data);
+		return this;
+	}
+
+	public byte[] toByteArray()
+	{
+		byte archive[]=out.toByteArray();
+
+		ByteArrayOutputStream end=new ByteArrayOutputStream();
+		end.write(archive, 0, archive.length);
+		end.write(new byte[2*BLOCK_SIZE], 0, 2*BLOCK_SIZE);
+
+		return end.toByteArray();
+	}
+
+	public File write(File file) throws IOException
+	{
+		FastqTestData.write(file, toByteArray());
+		return file;
+	}
+}
@@ -0,0 +1,109 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class AsyncFileInputStreamTest
+{
+	private static final int BLOCK_SIZE=4096;
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private File createFile(byte data[]) throws IOException
+	{
+		File file=folder.newFile();
+		FastqTestData.write(file, data);
+
+		return file;
+	}
+
+	private static byte[] read(InputStream in, int length) throws IOException
+	{
+		byte data[]=new byte[length];
+
+		int pos=0;
+		while(pos<length)
+			{
+			int read=in.read(data, pos, length-pos);
+			if(read<0)
+				break;
+			pos+=read;
+			}
+
+		return Arrays.copyOf(data, pos);
+	}
+
+	@Test
+	public void readsAcrossBlocks() throws IOException
+	{
+		byte data[]=FastqTestData.generate(500, 50, 150, 100);
+
+		assertArrayEquals(data, StreamTestData.readAll(new AsyncFileInputStream(createFile(data), BLOCK_SIZE, 3)));
+		assertArrayEquals(data, StreamTestData.readAll(new AsyncFileInputStream(createFile(data), BLOCK_SIZE, 1)));
+	}
+
+	@Test
+	public void readsWholeBlocks() throws IOException
+	{
+		byte data[]=Arrays.copyOf(FastqTestData.generate(500, 50, 150, 101), 5*BLOCK_SIZE);
+
+		assertArrayEquals(data, StreamTestData.readAll(new AsyncFileInputStream(createFile(data), BLOCK_SIZE, 2)));
+		assertArrayEquals(new byte[0], StreamTestData.readAll(new AsyncFileInputStream(createFile(new byte[0]), BLOCK_SIZE, 2)));
+
+		// The last byte of a whole block is followed by the end, not by a block of nothing
+
+		InputStream in=new AsyncFileInputStream(createFile(data), BLOCK_SIZE, 2);
+		assertEquals(data.length-1, in.skip(data.length-1));
+		assertEquals(data[data.length-1]&0xFF, in.read());
+		assertEquals(-1, in.read());
+		in.close();
+	}
+
+	@Test
+	public void skipsWithinAndAcrossBlocks() throws IOException
+	{
+		byte data[]=FastqTestData.generate(500, 50, 150, 102);
+		InputStream in=new AsyncFileInputStream(createFile(data), BLOCK_SIZE, 3);
+
+		int pos=0;
+		int skips[]={ 10, 1000, BLOCK_SIZE, 3*BLOCK_SIZE+7, 1, 20000 };
+
+		for(int skip: skips)
+			{
+			assertArrayEquals(Arrays.copyOfRange(data, pos, pos+100), read(in, 100));
+			pos+=100;
+
+			assertEquals(skip, in.skip(skip));
+			pos+=skip;
+			}
+
+		assertArrayEquals(Arrays.copyOfRange(data, pos, data.length), StreamTestData.readAll(in));
+	}
+
+	@Test
+	public void skipsToEnd() throws IOException
+	{
+		byte data[]=FastqTestData.generate(100, 50, 150, 103);
+		InputStream in=new AsyncFileInputStream(createFile(data), BLOCK_SIZE, 3);
+
+		assertArrayEquals(Arrays.copyOf(data, 10), read(in, 10));
+		assertEquals(data.length-10, in.skip(data.length*2L));
+		assertEquals(0, in.skip(1));
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(new byte[10], 0, 10));
+
+		in.close();
+	}
+}
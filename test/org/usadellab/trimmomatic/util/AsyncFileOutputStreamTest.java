@@ -0,0 +1,96 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+
+public class AsyncFileOutputStreamTest
+{
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static byte[] readFile(File file) throws IOException
+	{
+		InputStream in=new FileInputStream(file);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		byte buf[]=new byte[65536];
+		int read;
+
+		while((read=in.read(buf, 0, buf.length))>=0)
+			out.write(buf, 0, read);
+
+		in.close();
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void writesAcrossBuffers() throws IOException
+	{
+		byte data[]=FastqTestData.generate(2000, 50, 150, 50);
+		File file=folder.newFile();
+
+		// Single bytes, writes larger than the buffer, and flushes between them
+
+		AsyncFileOutputStream out=new AsyncFileOutputStream(file, 4096);
+
+		int pos=0;
+		for(;pos<100;pos++)
+			out.write(data[pos]);
+
+		out.flush();
+
+		for(int len=1;pos<data.length;len=len*3+1)
+			{
+			int count=Math.min(len, data.length-pos);
+			out.write(data, pos, count);
+			pos+=count;
+
+			if(len%2==0)
+				out.flush();
+			}
+
+		out.close();
+
+		assertArrayEquals(data, readFile(file));
+	}
+
+	@Test
+	public void truncatesExistingFile() throws IOException
+	{
+		File file=folder.newFile();
+
+		FileOutputStream old=new FileOutputStream(file);
+		old.write(new byte[10000]);
+		old.close();
+
+		byte data[]=FastqTestData.generate(10, 50, 150, 51);
+
+		AsyncFileOutputStream out=new AsyncFileOutputStream(file, 1024);
+		out.write(data);
+		out.close();
+		out.close();
+
+		assertArrayEquals(data, readFile(file));
+	}
+
+	@Test(expected=IOException.class)
+	public void rejectsWritesAfterClose() throws IOException
+	{
+		AsyncFileOutputStream out=new AsyncFileOutputStream(folder.newFile(), 1024);
+		out.close();
+
+		out.write(1);
+	}
+}
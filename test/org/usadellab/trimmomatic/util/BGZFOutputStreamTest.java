@@ -0,0 +1,57 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class BGZFOutputStreamTest
+{
+	private static final byte EOF_BLOCK_END[]={0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static void assertEndsWithEOFBlock(byte compressed[])
+	{
+		for(int i=0;i<EOF_BLOCK_END.length;i++)
+			assertEquals(EOF_BLOCK_END[i], compressed[compressed.length-EOF_BLOCK_END.length+i]);
+	}
+
+	@Test
+	public void writesReadableBlocks() throws IOException
+	{
+		byte data[]=FastqTestData.generate(10000, 50, 150, 7);
+
+		byte compressed[]=StreamTestData.bgzf(data, 1, null);
+
+		assertArrayEquals(data, StreamTestData.gunzip(compressed));
+		assertEndsWithEOFBlock(compressed);
+	}
+
+	@Test
+	public void writesSameBlocksOnThreads() throws IOException
+	{
+		byte data[]=FastqTestData.generate(10000, 50, 150, 8);
+
+		assertArrayEquals(StreamTestData.bgzf(data, 1, null), StreamTestData.bgzf(data, 3, null));
+	}
+
+	@Test
+	public void writesIndex() throws IOException
+	{
+		byte data[]=FastqTestData.generate(10000, 50, 150, 9);
+		File indexFile=new File(folder.getRoot(), "out.fq.gz.gzi");
+
+		assertArrayEquals(data, StreamTestData.gunzip(StreamTestData.bgzf(data, 3, indexFile)));
+		assertTrue(indexFile.length()>8);
+	}
+}
@@ -0,0 +1,80 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class ConcatGZIPInputStreamTest
+{
+	private static byte[] inflate(byte compressed[]) throws IOException
+	{
+		return StreamTestData.readAll(new ConcatGZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test
+	public void readsSingleMember() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 11);
+
+		assertArrayEquals(data, inflate(StreamTestData.gzip(data, 1)));
+	}
+
+	@Test
+	public void readsConcatenatedMembers() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 12);
+
+		assertArrayEquals(data, inflate(StreamTestData.gzip(data, 17)));
+	}
+
+	@Test
+	public void ignoresTrailingPadding() throws IOException
+	{
+		byte data[]=FastqTestData.generate(500, 50, 150, 13);
+		byte compressed[]=StreamTestData.gzip(data, 3);
+
+		byte padded[]=new byte[compressed.length+512];
+		System.arraycopy(compressed, 0, padded, 0, compressed.length);
+
+		assertArrayEquals(data, inflate(padded));
+	}
+
+	@Test
+	public void readsEmptyMember() throws IOException
+	{
+		assertArrayEquals(new byte[0], inflate(StreamTestData.gzip(new byte[0], 1)));
+	}
+
+	private static byte[] corruptCrc(byte data[]) throws IOException
+	{
+		byte compressed[]=StreamTestData.gzip(data, 1);
+
+		// The CRC is the first word of the eight byte trailer
+
+		compressed[compressed.length-8]^=0x01;
+
+		return compressed;
+	}
+
+	@Test(expected=ZipException.class)
+	public void detectsCorruptChecksum() throws IOException
+	{
+		byte data[]=FastqTestData.generate(500, 50, 150, 14);
+
+		StreamTestData.readAll(new ConcatGZIPInputStream(new ByteArrayInputStream(corruptCrc(data)), true));
+	}
+
+	@Test
+	public void skipsChecksumsWhenAsked() throws IOException
+	{
+		byte data[]=FastqTestData.generate(500, 50, 150, 14);
+
+		assertArrayEquals(data, StreamTestData.readAll(new ConcatGZIPInputStream(new ByteArrayInputStream(corruptCrc(data)), false)));
+	}
+}
@@ -0,0 +1,243 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class GzipIndexTest
+{
+	private static final long SPACING=20000;
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static void gzipMember(OutputStream out, byte data[], int from, int to, final int level) throws IOException
+	{
+		GZIPOutputStream gzipOut=new GZIPOutputStream(out)
+			{
+				{
+				def.setLevel(level);
+				}
+			};
+
+		gzipOut.write(data, from, to-from);
+		gzipOut.finish();
+	}
+
+	private File createFile(byte data[], boolean multiMember) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		if(multiMember)
+			{
+			// Stored, fixed and dynamic blocks, with an empty member in between
+
+			int third=data.length/3;
+			gzipMember(out, data, 0, third, Deflater.NO_COMPRESSION);
+			gzipMember(out, data, third, third, Deflater.DEFAULT_COMPRESSION);
+			gzipMember(out, data, third, 2*third, Deflater.BEST_SPEED);
+			gzipMember(out, data, 2*third, data.length, Deflater.BEST_COMPRESSION);
+			}
+		else
+			gzipMember(out, data, 0, data.length, Deflater.DEFAULT_COMPRESSION);
+
+		File file=folder.newFile(multiMember ? "multi.fq.gz" : "single.fq.gz");
+		FastqTestData.write(file, out.toByteArray());
+
+		return file;
+	}
+
+	private static byte[] read(InputStream in, int length) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+		byte buf[]=new byte[8192];
+		int read;
+
+		while(length>0 && (read=in.read(buf, 0, Math.min(buf.length, length)))>=0)
+			{
+			out.write(buf, 0, read);
+			length-=read;
+			}
+
+		in.close();
+
+		return out.toByteArray();
+	}
+
+	private static void checkCheckpoints(GzipIndex index, File file, byte data[]) throws IOException
+	{
+		assertEquals(data.length, index.getUncompressedLength());
+		assertTrue(index.getCheckpointCount()>2);
+
+		int found=0;
+		long offset=index.getCheckpointAfter(0);
+
+		while(offset<data.length)
+			{
+			assertTrue(index.isCheckpoint(offset));
+			assertEquals(index.getCheckpointAfter(offset+1)==offset+1, index.isCheckpoint(offset+1));
+
+			int expected=offset>0 ? data[(int)offset-1]&0xFF : -1;
+			assertEquals(expected, index.getPrecedingByte(offset));
+
+			byte tail[]=read(index.open(file, offset, true), Integer.MAX_VALUE);
+			assertArrayEquals(Arrays.copyOfRange(data, (int)offset, data.length), tail);
+
+			found++;
+			offset=index.getCheckpointAfter(offset+1);
+			}
+
+		assertTrue(found>1);
+	}
+
+	private static void checkRandomOffsets(GzipIndex index, File file, byte data[], long seed) throws IOException
+	{
+		Random random=new Random(seed);
+
+		for(int i=0;i<50;i++)
+			{
+			int offset=random.nextInt(data.length);
+			int length=Math.min(5000, data.length-offset);
+
+			assertEquals(index.getCheckpointAfter(offset)==offset, index.isCheckpoint(offset));
+			assertArrayEquals(Arrays.copyOfRange(data, offset, offset+length), read(index.open(file, offset, true), length));
+			}
+	}
+
+	@Test
+	public void opensSingleMember() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 20);
+		File file=createFile(data, false);
+
+		GzipIndex index=GzipIndex.build(file, SPACING);
+		assertEquals(file.length(), index.getFileLength());
+
+		checkCheckpoints(index, file, data);
+		checkRandomOffsets(index, file, data, 21);
+	}
+
+	@Test
+	public void opensMultipleMembers() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 22);
+		File file=createFile(data, true);
+
+		GzipIndex index=GzipIndex.build(file, SPACING);
+
+		checkCheckpoints(index, file, data);
+		checkRandomOffsets(index, file, data, 23);
+	}
+
+	@Test
+	public void savesAndLoads() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 24);
+		File file=createFile(data, true);
+
+		GzipIndex.build(file, SPACING).save(GzipIndex.getIndexFile(file));
+
+		GzipIndex index=GzipIndex.loadFor(file);
+		assertEquals(file.length(), index.getFileLength());
+
+		checkCheckpoints(index, file, data);
+		checkRandomOffsets(index, file, data, 25);
+	}
+
+	@Test
+	public void builderPassesDataThrough() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 26);
+		File file=createFile(data, true);
+
+		GzipIndex.Builder builder=new GzipIndex.Builder(file, SPACING);
+
+		// Single bytes, then larger reads
+
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		for(int i=0;i<100;i++)
+			out.write(builder.read());
+		out.write(read(builder, Integer.MAX_VALUE));
+
+		assertArrayEquals(data, out.toByteArray());
+
+		GzipIndex index=builder.getIndex();
+		checkCheckpoints(index, file, data);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void builderNeedsWholeFile() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 27);
+		GzipIndex.Builder builder=new GzipIndex.Builder(createFile(data, false), SPACING);
+
+		try
+			{
+			builder.read(new byte[1000], 0, 1000);
+			builder.getIndex();
+			}
+		finally
+			{
+			builder.close();
+			}
+	}
+
+	private static void checkCorruptTrailer(File file, long offset) throws IOException
+	{
+		byte compressed[]=StreamTestData.readAll(new FileInputStream(file));
+		compressed[(int)offset]^=0x10;
+		FastqTestData.write(file, compressed);
+
+		try
+			{
+			GzipIndex.build(file, SPACING);
+			fail("Corrupt trailer at "+offset+" accepted");
+			}
+		catch(IOException e)
+			{
+			}
+
+		compressed[(int)offset]^=0x10;
+		FastqTestData.write(file, compressed);
+	}
+
+	/**
+	 * The CRC and length in each member's trailer are checked while the index is built.
+	 */
+
+	@Test
+	public void rejectsCorruptTrailers() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 28);
+		File file=createFile(data, true);
+
+		ByteArrayOutputStream first=new ByteArrayOutputStream();
+		gzipMember(first, data, 0, data.length/3, Deflater.NO_COMPRESSION);
+
+		checkCorruptTrailer(file, first.size()-8);
+		checkCorruptTrailer(file, first.size()-1);
+		checkCorruptTrailer(file, file.length()-5);
+		checkCorruptTrailer(file, file.length()-4);
+
+		checkCheckpoints(GzipIndex.build(file, SPACING), file, data);
+	}
+}
@@ -0,0 +1,68 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+
+public class MappedFileInputStreamTest
+{
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private File createFile(byte data[]) throws IOException
+	{
+		File file=folder.newFile("mapped.fq");
+		FastqTestData.write(file, data);
+
+		return file;
+	}
+
+	@Test
+	public void readsAcrossWindows() throws IOException
+	{
+		byte data[]=FastqTestData.generate(500, 50, 150, 1);
+		MappedFileInputStream in=new MappedFileInputStream(createFile(data), 4096);
+
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		byte buf[]=new byte[1000];
+		int read;
+
+		while((read=in.read(buf, 0, buf.length))>=0)
+			out.write(buf, 0, read);
+
+		assertEquals(data.length, in.getPosition());
+		in.close();
+
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void skipsAcrossWindows() throws IOException
+	{
+		byte data[]=FastqTestData.generate(200, 50, 150, 2);
+		MappedFileInputStream in=new MappedFileInputStream(createFile(data), 1000);
+
+		assertEquals(data[0]&0xFF, in.read());
+		assertEquals(2500, in.skip(2500));
+		assertEquals(data[2501]&0xFF, in.read());
+
+		byte rest[]=new byte[data.length-2502];
+		int len=0;
+		while(len<rest.length)
+			len+=in.read(rest, len, rest.length-len);
+
+		assertEquals(-1, in.read());
+		in.close();
+
+		assertArrayEquals(Arrays.copyOfRange(data, 2502, data.length), rest);
+	}
+}
@@ -0,0 +1,47 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class ParallelBGZFInputStreamTest
+{
+	@Test
+	public void inflatesBlocksInOrder() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 3);
+
+		byte compressed[]=StreamTestData.bgzf(data, 1, null);
+
+		assertArrayEquals(data, StreamTestData.readAll(new ParallelBGZFInputStream(new ByteArrayInputStream(compressed), 3)));
+	}
+
+	@Test
+	public void detectsCorruptBlocks() throws IOException
+	{
+		byte data[]=FastqTestData.generate(2000, 50, 150, 4);
+		byte compressed[]=StreamTestData.bgzf(data, 1, null);
+
+		// The CRC of the first block, just ahead of its length
+
+		int blockSize=((compressed[16]&0xFF)|((compressed[17]&0xFF)<<8))+1;
+		compressed[blockSize-8]^=1;
+
+		try
+			{
+			StreamTestData.readAll(new ParallelBGZFInputStream(new ByteArrayInputStream(compressed), 3));
+			fail("Corrupt block was not detected");
+			}
+		catch(IOException e)
+			{
+			}
+
+		assertArrayEquals(data, StreamTestData.readAll(new ParallelBGZFInputStream(new ByteArrayInputStream(compressed), 3, false)));
+	}
+}
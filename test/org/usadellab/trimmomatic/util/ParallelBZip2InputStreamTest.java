@@ -0,0 +1,162 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.itadaki.bzip2.BZip2OutputStream;
+import org.junit.Test;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class ParallelBZip2InputStreamTest
+{
+	private static byte[] decode(byte compressed[]) throws IOException
+	{
+		return StreamTestData.readAll(new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), 3));
+	}
+
+	private static byte[] concat(byte first[], byte second[])
+	{
+		byte both[]=Arrays.copyOf(first, first.length+second.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+
+		return both;
+	}
+
+	@Test
+	public void decodesJbzip2Output() throws IOException
+	{
+		byte data[]=FastqTestData.generate(1000, 50, 150, 11);
+
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		BZip2OutputStream bzip2Out=new BZip2OutputStream(out);
+		bzip2Out.write(data);
+		bzip2Out.close();
+
+		assertArrayEquals(data, decode(out.toByteArray()));
+	}
+
+	@Test
+	public void decodesConcatenatedStreams() throws IOException
+	{
+		byte first[]=FastqTestData.generate(3000, 50, 150, 12);
+		byte second[]=FastqTestData.generate(3000, 50, 150, 13);
+
+		byte compressed[]=concat(StreamTestData.bzip2(first, 2, 1), StreamTestData.bzip2(second, 2, 1));
+
+		assertArrayEquals(concat(first, second), decode(compressed));
+	}
+
+	/**
+	 * Generates data whose block headers contain the block marker. The symbol map of a block is a bitmap of the
+	 * 16-byte ranges in use, followed by a bitmap of the bytes in use for each of them. Only ranges 2, 3, 7, 9
+	 * and 15 are used, making the first word 0x3141, and ranges 2 and 3 use exactly the bytes that make the next
+	 * two words 0x5926 and 0x5359. No byte is repeated, so run-length encoding adds no other symbols.
+	 */
+
+	private static byte[] generateFalseMarkers(int length, long seed)
+	{
+		List<Integer> symbols=new ArrayList<Integer>();
+
+		addSymbols(symbols, 0x20, 0x5926);
+		addSymbols(symbols, 0x30, 0x5359);
+		symbols.add(0x75);
+		symbols.add(0x9A);
+		symbols.add(0xF3);
+
+		Random random=new Random(seed);
+		byte data[]=new byte[length];
+		int previous=-1;
+
+		for(int i=0;i<length;i++)
+			{
+			int symbol;
+			do
+				symbol=symbols.get(random.nextInt(symbols.size()));
+			while(symbol==previous);
+
+			data[i]=(byte)symbol;
+			previous=symbol;
+			}
+
+		return data;
+	}
+
+	private static void addSymbols(List<Integer> symbols, int rangeStart, int bitmap)
+	{
+		for(int i=0;i<16;i++)
+			if((bitmap&(0x8000>>>i))!=0)
+				symbols.add(rangeStart+i);
+	}
+
+	/**
+	 * Returns the bit offsets at which the block marker ends, at any alignment.
+	 */
+
+	private static List<Long> findMarkers(byte compressed[])
+	{
+		List<Long> markers=new ArrayList<Long>();
+		long value=0;
+
+		for(long bit=0;bit<compressed.length*8L;bit++)
+			{
+			value=((value<<1)|((compressed[(int)(bit>>>3)]>>>(7-(int)(bit&7)))&1))&0xFFFFFFFFFFFFL;
+
+			if(bit>=47 && value==0x314159265359L)
+				markers.add(bit+1);
+			}
+
+		return markers;
+	}
+
+	/**
+	 * A false marker starts after the block CRC, randomisation bit and origin pointer, 57 bits into the block.
+	 */
+
+	@Test
+	public void joinsBlocksCutAtFalseMarkers() throws IOException
+	{
+		byte data[]=generateFalseMarkers(500000, 14);
+		byte compressed[]=StreamTestData.bzip2(data, 2, 1);
+
+		List<Long> markers=findMarkers(compressed);
+		int falseMarkers=0;
+
+		for(int i=1;i<markers.size();i++)
+			if(markers.get(i)-markers.get(i-1)==57+48)
+				falseMarkers++;
+
+		assertTrue(falseMarkers>=4);
+		assertEquals(2*falseMarkers, markers.size());
+
+		assertArrayEquals(data, decode(compressed));
+	}
+
+	@Test
+	public void detectsCorruptBlocks() throws IOException
+	{
+		byte data[]=FastqTestData.generate(3000, 50, 150, 15);
+		byte compressed[]=StreamTestData.bzip2(data, 2, 1);
+
+		compressed[compressed.length/2]^=0x10;
+
+		try
+			{
+			decode(compressed);
+			fail("Corrupt block was not detected");
+			}
+		catch(IOException e)
+			{
+			}
+	}
+}
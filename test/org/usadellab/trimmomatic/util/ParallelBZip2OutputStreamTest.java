@@ -0,0 +1,50 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class ParallelBZip2OutputStreamTest
+{
+	@Test
+	public void splicesBlocksIntoOneStream() throws IOException
+	{
+		byte data[]=FastqTestData.generate(5000, 50, 150, 10);
+
+		assertArrayEquals(data, StreamTestData.bunzip2(StreamTestData.bzip2(data, 3, 1)));
+	}
+
+	/**
+	 * jbzip2's block compressor writes a first block failing its own CRC for this data.
+	 */
+
+	@Test
+	public void recompressesBlocksFailingVerification() throws IOException
+	{
+		byte data[]=FastqTestData.generate(700, 50, 150, 59);
+
+		assertArrayEquals(data, StreamTestData.bunzip2(StreamTestData.bzip2(data, 3, 1)));
+	}
+
+	/**
+	 * Without verification the faulty block is written as it is, which jbzip2 then rejects.
+	 */
+
+	@Test(expected=IOException.class)
+	public void skipsVerificationWhenAsked() throws IOException
+	{
+		byte data[]=FastqTestData.generate(700, 50, 150, 59);
+
+		StreamTestData.bunzip2(StreamTestData.bzip2(data, 3, 1, false));
+	}
+
+	@Test
+	public void writesEmptyStream() throws IOException
+	{
+		assertArrayEquals(new byte[0], StreamTestData.bunzip2(StreamTestData.bzip2(new byte[0], 3, 9)));
+	}
+}
@@ -0,0 +1,56 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+
+public class ParallelGZIPOutputStreamTest
+{
+	private static byte[] compress(byte data[], boolean useDictionary) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		ParallelGZIPOutputStream gzipOut=new ParallelGZIPOutputStream(out, 3, Deflater.DEFAULT_COMPRESSION, useDictionary);
+
+		// Uneven writes and a flush, so chunks do not line up with the writes
+
+		int half=data.length/2;
+		gzipOut.write(data, 0, half);
+		gzipOut.flush();
+
+		for(int pos=half;pos<data.length;pos+=1000)
+			gzipOut.write(data, pos, Math.min(1000, data.length-pos));
+
+		gzipOut.close();
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void writesIndependentMembers() throws IOException
+	{
+		byte data[]=FastqTestData.generate(20000, 50, 150, 5);
+
+		assertArrayEquals(data, StreamTestData.gunzip(compress(data, false)));
+	}
+
+	@Test
+	public void writesSingleMemberWithDictionaries() throws IOException
+	{
+		byte data[]=FastqTestData.generate(20000, 50, 150, 6);
+
+		assertArrayEquals(data, StreamTestData.gunzip(compress(data, true)));
+	}
+
+	@Test
+	public void writesEmptyInput() throws IOException
+	{
+		assertArrayEquals(new byte[0], StreamTestData.gunzip(compress(new byte[0], false)));
+		assertArrayEquals(new byte[0], StreamTestData.gunzip(compress(new byte[0], true)));
+	}
+}
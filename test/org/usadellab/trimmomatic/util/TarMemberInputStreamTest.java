@@ -0,0 +1,123 @@
+package org.usadellab.trimmomatic.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.usadellab.trimmomatic.fastq.FastqTestData;
+import org.usadellab.trimmomatic.fastq.StreamTestData;
+import org.usadellab.trimmomatic.fastq.TarTestData;
+
+public class TarMemberInputStreamTest
+{
+	private static final String LONG_DIRECTORY="run_2024_flowcell_AB12CD/lane_001/sample_with_a_rather_long_name/trimmed/";
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static byte[] readMember(byte archive[], String member) throws IOException
+	{
+		TarMemberInputStream in=new TarMemberInputStream(new ByteArrayInputStream(archive), member);
+		byte data[]=StreamTestData.readAll(in);
+
+		assertEquals(data.length, in.getSize());
+		return data;
+	}
+
+	@Test
+	public void findsMembersBehindOthers() throws IOException
+	{
+		byte first[]=FastqTestData.generate(100, 50, 150, 90);
+		byte second[]=FastqTestData.generate(1, 50, 150, 91);
+		byte third[]=FastqTestData.generate(300, 50, 150, 92);
+
+		File archive=new TarTestData()
+			.addDirectory("reads/")
+			.add("reads/first.fq", first)
+			.add("reads/empty.fq", new byte[0])
+			.add("reads/second.fq", second)
+			.add("./reads/third.fq", third)
+			.write(folder.newFile("reads.tar"));
+
+		assertArrayEquals(first, StreamTestData.readAll(new TarMemberInputStream(new FileInputStream(archive), "reads/first.fq")));
+		assertArrayEquals(new byte[0], StreamTestData.readAll(new TarMemberInputStream(new FileInputStream(archive), "reads/empty.fq")));
+		assertArrayEquals(second, StreamTestData.readAll(new TarMemberInputStream(new FileInputStream(archive), "./reads/second.fq")));
+		assertArrayEquals(third, StreamTestData.readAll(new TarMemberInputStream(new FileInputStream(archive), "reads/third.fq")));
+	}
+
+	@Test
+	public void findsLongNames() throws IOException
+	{
+		String ustarName=LONG_DIRECTORY+"ustar.fq";
+		String gnuName=LONG_DIRECTORY+LONG_DIRECTORY+"gnu.fq";
+		String paxName=LONG_DIRECTORY+LONG_DIRECTORY+"pax_\u00e9chantillon.fq";
+
+		byte ustar[]=FastqTestData.generate(50, 50, 150, 93);
+		byte gnu[]=FastqTestData.generate(60, 50, 150, 94);
+		byte pax[]=FastqTestData.generate(70, 50, 150, 95);
+
+		byte archive[]=new TarTestData()
+			.add(ustarName, ustar)
+			.addGnuLongName(gnuName, gnu)
+			.addPax("pax.fq", pax.length, pax, "mtime", "1700000000.5", "path", paxName)
+			.toByteArray();
+
+		assertArrayEquals(ustar, readMember(archive, ustarName));
+		assertArrayEquals(gnu, readMember(archive, gnuName));
+		assertArrayEquals(pax, readMember(archive, paxName));
+	}
+
+	/**
+	 * The pax size replaces the member's header size, both for the member read and for members skipped.
+	 */
+
+	@Test
+	public void honoursPaxSize() throws IOException
+	{
+		byte sized[]=FastqTestData.generate(40, 50, 150, 96);
+		byte after[]=FastqTestData.generate(30, 50, 150, 97);
+
+		byte archive[]=new TarTestData()
+			.addPax("sized.fq", 0, sized, "size", Integer.toString(sized.length))
+			.add("after.fq", after)
+			.toByteArray();
+
+		assertArrayEquals(sized, readMember(archive, "sized.fq"));
+		assertArrayEquals(after, readMember(archive, "after.fq"));
+	}
+
+	@Test(expected=IOException.class)
+	public void rejectsInvalidPaxSize() throws IOException
+	{
+		byte archive[]=new TarTestData()
+			.addPax("sized.fq", 0, new byte[0], "size", "-1")
+			.toByteArray();
+
+		readMember(archive, "sized.fq");
+	}
+
+	@Test(expected=FileNotFoundException.class)
+	public void reportsMissingMember() throws IOException
+	{
+		byte archive[]=new TarTestData()
+			.addDirectory("reads/")
+			.add("reads/first.fq", FastqTestData.generate(10, 50, 150, 98))
+			.toByteArray();
+
+		readMember(archive, "reads/missing.fq");
+	}
+
+	@Test(expected=FileNotFoundException.class)
+	public void doesNotReturnDirectories() throws IOException
+	{
+		readMember(new TarTestData().addDirectory("reads.fq").toByteArray(), "reads.fq");
+	}
+}